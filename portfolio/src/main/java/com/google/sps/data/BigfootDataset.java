@@ -0,0 +1,352 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/*
+ * The Bigfoot sighting fields needed to place markers, kept off the heap in a PointStore rather
+ * than as one object per sighting: a fixed-width record of coordinates, record offset and date
+ * per sighting, and titles as UTF-8 bytes in its string region. Descriptions and other details
+ * are left in the source file; each sighting keeps the byte offset of its record so they can be
+ * read back on demand. A sighting's id is its index, which is stable for as long as the source
+ * file is unchanged.
+ *
+ * Dates are kept as epoch days, with the sightings also ordered by date so that a date range is
+ * found by binary search.
+ */
+public class BigfootDataset {
+  /* Epoch day of sightings whose date could not be parsed. */
+  public static final int NO_DATE = Integer.MIN_VALUE;
+
+  private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+  // Int fields of each sighting's record in the store.
+  private static final int RECORD_OFFSET_FIELD = 0;
+  private static final int EPOCH_DAY_FIELD = 1;
+  private static final int INT_FIELDS = 2;
+
+  // Sightings by index, with their titles as strings.
+  private final PointStore points;
+
+  // Dated sightings in date order, and their epoch days in the same order.
+  private final IntBuffer byDate;
+  private final IntBuffer sortedDays;
+
+  // Number of dated sightings in each year from firstYear on.
+  private final int firstYear;
+  private final int[] yearCounts;
+
+  private BigfootDataset(PointStore points) {
+    this.points = points;
+
+    // Sort by day with the index in the low bits, which also keeps equal days in file order.
+    long[] keys = new long[points.size()];
+    int dated = 0;
+    for (int i = 0; i < points.size(); i++) {
+      int day = points.getInt(i, EPOCH_DAY_FIELD);
+      if (day != NO_DATE) {
+        keys[dated++] = ((long) day << 32) | i;
+      }
+    }
+    keys = Arrays.copyOf(keys, dated);
+    Arrays.sort(keys);
+    byDate = PointStore.allocateInts(dated);
+    sortedDays = PointStore.allocateInts(dated);
+    for (int i = 0; i < dated; i++) {
+      byDate.put(i, (int) keys[i]);
+      sortedDays.put(i, (int) (keys[i] >> 32));
+    }
+
+    firstYear = dated == 0 ? 0 : LocalDate.ofEpochDay(sortedDays.get(0)).getYear();
+    int lastYear = dated == 0 ? -1 : LocalDate.ofEpochDay(sortedDays.get(dated - 1)).getYear();
+    yearCounts = new int[lastYear - firstYear + 1];
+    for (int i = 0; i < dated; i++) {
+      yearCounts[LocalDate.ofEpochDay(sortedDays.get(i)).getYear() - firstYear]++;
+    }
+  }
+
+  /* Builds the dataset one sighting at a time, in the order they are added. */
+  public static class Builder {
+    private final PointStore.Builder points = new PointStore.Builder(INT_FIELDS, true);
+    private final ByteArrayOutputStream title = new ByteArrayOutputStream();
+
+    /*
+     * Adds the sighting in record, reading each field from the given column. The title is
+     * copied as UTF-8 bytes without being decoded, and the date is parsed as an ISO date.
+     */
+    public Builder add(CsvReader.Record record, int latColumn, int lngColumn, int titleColumn,
+        int dateColumn) {
+      points.add(record.getDouble(latColumn), record.getDouble(lngColumn))
+          .setInt(RECORD_OFFSET_FIELD, record.getOffset())
+          .setInt(EPOCH_DAY_FIELD, parseEpochDay(record.getString(dateColumn).trim()));
+      title.reset();
+      record.writeBytes(titleColumn, title);
+      points.appendString(title.toByteArray());
+      return this;
+    }
+
+    public BigfootDataset build() {
+      return new BigfootDataset(points.build());
+    }
+  }
+
+  /*
+   * Parses a yyyy-mm-dd date into an epoch day, or returns NO_DATE. Checked by hand because
+   * LocalDate.parse is slow to reject the many malformed dates in the source data.
+   */
+  static int parseEpochDay(String date) {
+    if (date.length() != 10 || date.charAt(4) != '-' || date.charAt(7) != '-') {
+      return NO_DATE;
+    }
+    int year = parseDigits(date, 0, 4);
+    int month = parseDigits(date, 5, 7);
+    int day = parseDigits(date, 8, 10);
+    if (year < 0 || month < 1 || month > 12 || day < 1 || day > 31) {
+      return NO_DATE;
+    }
+    try {
+      return (int) LocalDate.of(year, month, day).toEpochDay();
+    } catch (DateTimeException e) {
+      // A day past the end of its month.
+      return NO_DATE;
+    }
+  }
+
+  private static int parseDigits(String text, int start, int end) {
+    int value = 0;
+    for (int i = start; i < end; i++) {
+      char c = text.charAt(i);
+      if (c < '0' || c > '9') {
+        return -1;
+      }
+      value = value * 10 + (c - '0');
+    }
+    return value;
+  }
+
+  public int size() {
+    return points.size();
+  }
+
+  /* Coordinates of the sightings by index, for building spatial indexes. */
+  public PointStore getPoints() {
+    return points;
+  }
+
+  public String getTitle(int index) {
+    return points.getString(index);
+  }
+
+  /* Offset of the sighting's record in the source file, for CsvReader.readAt. */
+  public int getRecordOffset(int index) {
+    return points.getInt(index, RECORD_OFFSET_FIELD);
+  }
+
+  /* Epoch day of the sighting's date, or NO_DATE. */
+  public int getEpochDay(int index) {
+    return points.getInt(index, EPOCH_DAY_FIELD);
+  }
+
+  /* Calls visitor with every sighting dated from fromDay to toDay inclusive, in date order. */
+  public void searchDates(int fromDay, int toDay, IntConsumer visitor) {
+    int dated = sortedDays.capacity();
+    for (int i = firstAtOrAfter(fromDay); i < dated && sortedDays.get(i) <= toDay; i++) {
+      visitor.accept(byDate.get(i));
+    }
+  }
+
+  /* Year of the earliest dated sighting, counted by getYearCounts()[0]. */
+  public int getFirstYear() {
+    return firstYear;
+  }
+
+  /* Number of dated sightings in each year from getFirstYear() on. */
+  public int[] getYearCounts() {
+    return yearCounts.clone();
+  }
+
+  /* Writes sighting index as a JSON marker: {"id", "lat", "lng", "title"}. */
+  public void writeJson(int index, OutputStream out) throws IOException {
+    writeAscii("{\"id\":" + index, out);
+    writeAscii(",\"lat\":" + points.getLat(index), out);
+    writeAscii(",\"lng\":" + points.getLng(index), out);
+    writeAscii(",\"title\":", out);
+    writeString(points.getStringStart(index), points.getStringEnd(index), out);
+    out.write('}');
+  }
+
+  /* Writes every sighting, in order, as a JSON array. */
+  public void writeJson(OutputStream out) throws IOException {
+    out.write('[');
+    for (int i = 0; i < size(); i++) {
+      if (i > 0) {
+        out.write(',');
+      }
+      writeJson(i, out);
+    }
+    out.write(']');
+  }
+
+  /*
+   * Writes the markers of indexes[0..count) in the CompactCoordinates format, followed by their
+   * ids as zigzag varint deltas, the UTF-16 length of each title as a varint, and then the
+   * byte length and UTF-8 bytes of all the titles joined together. Lengths are in UTF-16 units
+   * so a browser can decode the titles in one call and split the resulting string.
+   * indexes may be null to write every sighting in order.
+   */
+  public void writeCompact(int[] indexes, int count, OutputStream out) throws IOException {
+    CompactCoordinates.write(points, indexes, count, out);
+    int previous = 0;
+    for (int i = 0; i < count; i++) {
+      int index = indexes == null ? i : indexes[i];
+      CompactCoordinates.writeSignedVarint(index - previous, out);
+      previous = index;
+    }
+    long titleBytes = 0;
+    for (int i = 0; i < count; i++) {
+      int index = indexes == null ? i : indexes[i];
+      CompactCoordinates.writeVarint(utf16Length(index), out);
+      titleBytes += points.getStringEnd(index) - points.getStringStart(index);
+    }
+    CompactCoordinates.writeVarint(titleBytes, out);
+    for (int i = 0; i < count; i++) {
+      points.writeString(indexes == null ? i : indexes[i], out);
+    }
+  }
+
+  /* Number of UTF-16 code units in title index: one per UTF-8 sequence, two for 4-byte ones. */
+  private int utf16Length(int index) {
+    int length = 0;
+    for (int i = points.getStringStart(index); i < points.getStringEnd(index); i++) {
+      int b = points.getStringByte(i) & 0xff;
+      if (b >= 0xf0) {
+        length += 2;
+      } else if (b < 0x80 || b >= 0xc0) {
+        length++;
+      }
+    }
+    return length;
+  }
+
+  private int firstAtOrAfter(int day) {
+    int low = 0;
+    int high = sortedDays.capacity();
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (sortedDays.get(middle) < day) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  /* Writes the sightings for readFrom. */
+  public void writeTo(DataOutputStream out) throws IOException {
+    points.writeTo(out);
+  }
+
+  /*
+   * Reads sightings written by writeTo, advancing buffer past them. They are read in place, so
+   * a memory-mapped buffer backs the dataset without being copied.
+   */
+  public static BigfootDataset readFrom(ByteBuffer buffer) {
+    return new BigfootDataset(PointStore.readFrom(buffer));
+  }
+
+  /* Approximate memory used outside the heap, in bytes. */
+  public long getSizeInBytes() {
+    return points.getSizeInBytes() + 4L * byDate.capacity() + 4L * sortedDays.capacity();
+  }
+
+  private static void writeAscii(String text, OutputStream out) throws IOException {
+    for (int i = 0; i < text.length(); i++) {
+      out.write(text.charAt(i));
+    }
+  }
+
+  /*
+   * Writes the UTF-8 string bytes from start to end as a JSON string. Escapes the same characters
+   * as Gson's default, HTML-safe, writer, so the output can be embedded in a page.
+   */
+  private void writeString(int start, int end, OutputStream out) throws IOException {
+    out.write('"');
+    for (int i = start; i < end; i++) {
+      int b = points.getStringByte(i) & 0xff;
+      switch (b) {
+        case '"':
+        case '\\':
+          out.write('\\');
+          out.write(b);
+          break;
+        case '\n':
+          writeAscii("\\n", out);
+          break;
+        case '\r':
+          writeAscii("\\r", out);
+          break;
+        case '\t':
+          writeAscii("\\t", out);
+          break;
+        case '<':
+        case '>':
+        case '&':
+        case '=':
+        case '\'':
+          writeUnicodeEscape(b, out);
+          break;
+        case 0xe2:
+          // U+2028 and U+2029 end lines in JavaScript source.
+          if (i + 2 < end && points.getStringByte(i + 1) == (byte) 0x80
+              && (points.getStringByte(i + 2) == (byte) 0xa8
+                  || points.getStringByte(i + 2) == (byte) 0xa9)) {
+            writeUnicodeEscape(points.getStringByte(i + 2) == (byte) 0xa8 ? 0x2028 : 0x2029, out);
+            i += 2;
+          } else {
+            out.write(b);
+          }
+          break;
+        default:
+          if (b < 0x20) {
+            writeUnicodeEscape(b, out);
+          } else {
+            out.write(b);
+          }
+      }
+    }
+    out.write('"');
+  }
+
+  private static void writeUnicodeEscape(int c, OutputStream out) throws IOException {
+    out.write('\\');
+    out.write('u');
+    out.write(HEX[(c >> 12) & 0xf]);
+    out.write(HEX[(c >> 8) & 0xf]);
+    out.write(HEX[(c >> 4) & 0xf]);
+    out.write(HEX[c & 0xf]);
+  }
+}
@@ -14,28 +14,17 @@
 
 package com.google.sps.data;
 
-/*
- * Represents one sighting of Bigfoot, with information on the location (coordinates),
- * date, and the witness's description of the sighting.
- */
-public class Bigfoot {
-  // Coordinates of Bigfoot sighting.
-  private double lat;
-  private double lng;
+/* Details of one Bigfoot sighting, shown when its marker is opened. */
+public class BigfootDetails {
+  private final int id;
+  private final String description;
+  private final String location;
+  private final String date;
 
-  private String title;
-  private String description;
-  private String date;
-  // Description in words of sighting location.
-  private String location;
-
-  public Bigfoot(
-      double lat, double lng, String title, String description, String location, String date) {
-    this.lat = lat;
-    this.lng = lng;
-    this.title = title;
+  public BigfootDetails(int id, String description, String location, String date) {
+    this.id = id;
     this.description = description;
     this.location = location;
     this.date = date;
   }
-}
\ No newline at end of file
+}
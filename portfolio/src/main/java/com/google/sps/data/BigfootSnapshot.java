@@ -0,0 +1,152 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.List;
+
+/*
+ * The parsed form of the Bigfoot sightings csv file, as kept in a SnapshotFile: the marker
+ * fields of every sighting, their marker JSON and the search index over them. Parsing the file
+ * takes seconds, so main builds the snapshot when the application is packaged, and instances
+ * map it from WEB-INF.
+ * Snapshots are stamped with the csv file's contents rather than its modification time, so the
+ * packaged one still matches once deployed, and is passed over if the file is later changed.
+ */
+public class BigfootSnapshot {
+  /* Where the build puts the snapshot in the web application. */
+  public static final String RESOURCE = "/WEB-INF/bigfoot-data.snapshot";
+  // Change whenever the snapshot contents change shape.
+  public static final int VERSION = 4;
+  // Most bytes of search postings to keep; see InvertedIndex.prune.
+  public static final long SEARCH_BUDGET_BYTES =
+      Long.getLong("bigfoot.search.budget.bytes", 16L << 20);
+
+  public static final int DESCR_INDEX = 0;
+  public static final int LOC_INDEX = 1;
+  public static final int TITLE_INDEX = 5;
+  public static final int LAT_INDEX = 6;
+  public static final int LNG_INDEX = 7;
+  public static final int DATE_INDEX = 8;
+
+  // Rows missing any of these, such as the header, are skipped.
+  public static final CsvReader.Schema SCHEMA = new CsvReader.Schema()
+      .column(DESCR_INDEX, CsvReader.Type.STRING)
+      .column(LOC_INDEX, CsvReader.Type.STRING)
+      .column(TITLE_INDEX, CsvReader.Type.STRING)
+      .column(LAT_INDEX, CsvReader.Type.DOUBLE)
+      .column(LNG_INDEX, CsvReader.Type.DOUBLE)
+      .column(DATE_INDEX, CsvReader.Type.STRING);
+
+  private final BigfootDataset sightings;
+  private final byte[] json;
+  private final InvertedIndex searchIndex;
+
+  private BigfootSnapshot(BigfootDataset sightings, byte[] json, InvertedIndex searchIndex) {
+    this.sightings = sightings;
+    this.json = json;
+    this.searchIndex = searchIndex;
+  }
+
+  /*
+   * Parses every sighting in source, indexing titles and descriptions for search within
+   * SEARCH_BUDGET_BYTES.
+   */
+  public static BigfootSnapshot parse(CsvReader source) {
+    BigfootDataset.Builder builder = new BigfootDataset.Builder();
+    InvertedIndex searchIndex = new InvertedIndex(newTokenizer());
+    source.forEach(SCHEMA, record -> {
+      builder.add(record, LAT_INDEX, LNG_INDEX, TITLE_INDEX, DATE_INDEX);
+      searchIndex.add(record.getString(TITLE_INDEX), record.getString(DESCR_INDEX));
+    });
+    searchIndex.prune(SEARCH_BUDGET_BYTES);
+    BigfootDataset sightings = builder.build();
+    ByteArrayOutputStream json = new ByteArrayOutputStream();
+    try {
+      sightings.writeJson(json);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return new BigfootSnapshot(sightings, json.toByteArray(), searchIndex);
+  }
+
+  /* Marker fields of every sighting. */
+  public BigfootDataset getSightings() {
+    return sightings;
+  }
+
+  /* Marker JSON of every sighting, as written by BigfootDataset.writeJson. */
+  public byte[] getJson() {
+    return json;
+  }
+
+  /* Full-text index over titles and descriptions, with documents numbered as sightings. */
+  public InvertedIndex getSearchIndex() {
+    return searchIndex;
+  }
+
+  /* Writes the contents of a snapshot file, for readFrom. */
+  public void writeTo(DataOutputStream out) throws IOException {
+    sightings.writeTo(out);
+    out.writeInt(json.length);
+    out.write(json);
+    searchIndex.writeTo(out);
+  }
+
+  /*
+   * Reads contents written by writeTo, mapping the sightings in place. Throws
+   * BufferUnderflowException if they are truncated.
+   */
+  public static BigfootSnapshot readFrom(ByteBuffer buffer) {
+    BigfootDataset sightings = BigfootDataset.readFrom(buffer);
+    byte[] json = SnapshotFile.getBytes(buffer, buffer.getInt());
+    return new BigfootSnapshot(sightings, json, InvertedIndex.readFrom(buffer, newTokenizer()));
+  }
+
+  private static Tokenizer newTokenizer() {
+    return new Tokenizer(Tokenizer.ENGLISH_STOP_WORDS);
+  }
+
+  /*
+   * Builds the snapshot of the csv file args[0] into args[1]; run by the Maven build. Does
+   * nothing if the csv file has not been added to the application.
+   */
+  public static void main(String[] args) throws IOException {
+    Path csv = Paths.get(args[0]);
+    Path snapshot = Paths.get(args[1]);
+    if (!Files.isRegularFile(csv)) {
+      System.out.println("No " + csv + "; skipping the Bigfoot snapshot");
+      return;
+    }
+
+    List<Path> files = Collections.singletonList(csv);
+    long[] stamps = SnapshotFile.stampContents(files);
+    BigfootSnapshot parsed = parse(CsvReader.map(csv));
+    Files.deleteIfExists(snapshot);
+    SnapshotFile.write(snapshot, stamps, VERSION, parsed::writeTo);
+    if (!Files.isRegularFile(snapshot)) {
+      throw new IOException("Could not write " + snapshot);
+    }
+    System.out.println("Wrote " + parsed.sightings.size() + " sightings to " + snapshot);
+  }
+}
@@ -0,0 +1,276 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.IntConsumer;
+
+/*
+ * Marker clusters for every map zoom level from 0 to MAX_ZOOM, computed once. Each level is
+ * built from the one below it by greedy clustering: taking items in turn, every unclaimed item
+ * within RADIUS_PIXELS at that zoom joins the current item's cluster, found through the R-tree
+ * of the level below. A level holds its clusters in direct buffers, off the heap, in Web Mercator
+ * coordinates, plus an R-tree for viewport queries.
+ */
+public class ClusterPyramid {
+  public static final int MAX_ZOOM = 18;
+
+  private static final double RADIUS_PIXELS = 60;
+  private static final double TILE_PIXELS = 256;
+  private static final int NO_POINT = -1;
+
+  private final Level[] levels = new Level[MAX_ZOOM + 1];
+
+  /* Receives clusters found by search. */
+  public interface Visitor {
+    /* point is the original point's index when count is 1, and -1 otherwise. */
+    void visit(double lat, double lng, int count, int point);
+  }
+
+  /* Clusters at one zoom level. x and y are Web Mercator coordinates in [0, 1]. */
+  private static class Level {
+    private final int size;
+    private final DoubleBuffer x;
+    private final DoubleBuffer y;
+    private final IntBuffer count;
+    private final IntBuffer point;
+    private final PackedRTree index;
+
+    /* Copies the first size clusters out of the given arrays. */
+    private Level(int size, double[] x, double[] y, int[] count, int[] point) {
+      this.size = size;
+      this.x = PointStore.allocateDoubles(size);
+      this.y = PointStore.allocateDoubles(size);
+      this.count = PointStore.allocateInts(size);
+      this.point = PointStore.allocateInts(size);
+      this.x.put(x, 0, size);
+      this.y.put(y, 0, size);
+      this.count.put(count, 0, size);
+      this.point.put(point, 0, size);
+      this.index = new PackedRTree(size, this.x::get, this.y::get);
+    }
+  }
+
+  /* Builds every level over the points of store. */
+  public ClusterPyramid(PointStore store) {
+    int size = store.size();
+    double[] x = new double[size];
+    double[] y = new double[size];
+    int[] count = new int[size];
+    int[] point = new int[size];
+    for (int i = 0; i < size; i++) {
+      x[i] = mercatorX(store.getLng(i));
+      y[i] = mercatorY(store.getLat(i));
+      count[i] = 1;
+      point[i] = i;
+    }
+
+    Level below = new Level(size, x, y, count, point);
+    for (int zoom = MAX_ZOOM; zoom >= 0; zoom--) {
+      levels[zoom] = cluster(below, RADIUS_PIXELS / (TILE_PIXELS * (1 << zoom)));
+      below = levels[zoom];
+    }
+  }
+
+  /* Visits the clusters at zoom, clamped to [0, MAX_ZOOM], that lie inside bbox. */
+  public void search(int zoom, BoundingBox bbox, Visitor visitor) {
+    Level level = levels[Math.max(0, Math.min(MAX_ZOOM, zoom))];
+    double top = mercatorY(bbox.getNorth());
+    double bottom = mercatorY(bbox.getSouth());
+    double left = mercatorX(bbox.getWest());
+    double right = mercatorX(bbox.getEast());
+
+    IntConsumer emit = i -> visitor.visit(latitude(level.y.get(i)), longitude(level.x.get(i)),
+        level.count.get(i), level.point.get(i));
+    if (left <= right) {
+      level.index.search(left, top, right, bottom, emit);
+    } else {
+      level.index.search(left, top, 1, bottom, emit);
+      level.index.search(0, top, right, bottom, emit);
+    }
+  }
+
+  /*
+   * Visits the clusters at zoom, using level MAX_ZOOM beyond it, that lie in map tile (tileX,
+   * tileY) of the 2^zoom by 2^zoom Web Mercator tile grid. Tiles include their top and left
+   * edges only, so each cluster is in exactly one tile.
+   */
+  public void searchTile(int zoom, int tileX, int tileY, Visitor visitor) {
+    Level level = levels[Math.max(0, Math.min(MAX_ZOOM, zoom))];
+    double tileSize = 1.0 / (1L << zoom);
+    double left = tileX * tileSize;
+    double top = tileY * tileSize;
+    double right = left + tileSize;
+    double bottom = top + tileSize;
+    level.index.search(left, top, right, bottom, i -> {
+      // The last row and column also take points on the map's far edges.
+      double x = level.x.get(i);
+      double y = level.y.get(i);
+      if ((x < right || right >= 1) && (y < bottom || bottom >= 1)) {
+        visitor.visit(latitude(y), longitude(x), level.count.get(i), level.point.get(i));
+      }
+    });
+  }
+
+  /*
+   * Clusters the given points at one zoom level without the pyramid, for subsets chosen per
+   * query. Points in the same grid cell of RADIUS_PIXELS at that zoom are merged, which is
+   * coarser than the greedy levels but takes a single pass.
+   */
+  public static void cluster(int zoom, int[] points, PointStore store, Visitor visitor) {
+    int count = points.length;
+    double cellSize = RADIUS_PIXELS / (TILE_PIXELS * (1 << Math.max(0, Math.min(MAX_ZOOM, zoom))));
+    Map<Long, Integer> slots = new HashMap<>();
+    double[] sumX = new double[count];
+    double[] sumY = new double[count];
+    int[] sizes = new int[count];
+    int[] firstPoints = new int[count];
+    for (int i = 0; i < count; i++) {
+      int point = points[i];
+      double x = mercatorX(store.getLng(point));
+      double y = mercatorY(store.getLat(point));
+      long cell = ((long) (x / cellSize) << 32) | (long) (y / cellSize);
+      Integer slot = slots.get(cell);
+      if (slot == null) {
+        slot = slots.size();
+        slots.put(cell, slot);
+        firstPoints[slot] = point;
+      }
+      sumX[slot] += x;
+      sumY[slot] += y;
+      sizes[slot]++;
+    }
+    for (int slot = 0; slot < slots.size(); slot++) {
+      visitor.visit(latitude(sumY[slot] / sizes[slot]), longitude(sumX[slot] / sizes[slot]),
+          sizes[slot], sizes[slot] == 1 ? firstPoints[slot] : NO_POINT);
+    }
+  }
+
+  private static Level cluster(Level below, double radius) {
+    int size = below.size;
+    boolean[] claimed = new boolean[size];
+    ClusterBuilder cluster = new ClusterBuilder(below, claimed, radius);
+
+    double[] x = new double[size];
+    double[] y = new double[size];
+    int[] count = new int[size];
+    int[] point = new int[size];
+    int clusters = 0;
+
+    // Seeds are taken in Hilbert order, so consecutive searches touch the same tree nodes and
+    // the clusters come out already close to sorted for the next level's R-tree.
+    for (int rank = 0; rank < size; rank++) {
+      int i = below.index.pointAt(rank);
+      if (claimed[i]) {
+        continue;
+      }
+      double seedX = below.x.get(i);
+      double seedY = below.y.get(i);
+      cluster.start(seedX, seedY);
+      below.index.search(seedX - radius, seedY - radius, seedX + radius, seedY + radius, cluster);
+
+      x[clusters] = cluster.weightedX / cluster.total;
+      y[clusters] = cluster.weightedY / cluster.total;
+      count[clusters] = cluster.total;
+      point[clusters] = cluster.total == below.count.get(i) ? below.point.get(i) : NO_POINT;
+      clusters++;
+    }
+    if (clusters == size) {
+      // Nothing merged, as is common at high zoom, so share the level below and its R-tree.
+      return below;
+    }
+    return new Level(clusters, x, y, count, point);
+  }
+
+  /* Accumulates the unclaimed items within radius of a seed item into one cluster. */
+  private static class ClusterBuilder implements IntConsumer {
+    private final Level below;
+    private final boolean[] claimed;
+    private final double radiusSquared;
+
+    private double seedX;
+    private double seedY;
+    private double weightedX;
+    private double weightedY;
+    private int total;
+
+    private ClusterBuilder(Level below, boolean[] claimed, double radius) {
+      this.below = below;
+      this.claimed = claimed;
+      this.radiusSquared = radius * radius;
+    }
+
+    private void start(double seedX, double seedY) {
+      this.seedX = seedX;
+      this.seedY = seedY;
+      weightedX = 0;
+      weightedY = 0;
+      total = 0;
+    }
+
+    @Override
+    public void accept(int item) {
+      double x = below.x.get(item);
+      double y = below.y.get(item);
+      double dx = x - seedX;
+      double dy = y - seedY;
+      if (claimed[item] || dx * dx + dy * dy > radiusSquared) {
+        return;
+      }
+      claimed[item] = true;
+      int count = below.count.get(item);
+      weightedX += x * count;
+      weightedY += y * count;
+      total += count;
+    }
+  }
+
+  /* Column of the tile containing longitude lng in the 2^zoom by 2^zoom tile grid. */
+  public static int tileX(int zoom, double lng) {
+    return tileIndex(zoom, mercatorX(lng));
+  }
+
+  /* Row of the tile containing latitude lat in the 2^zoom by 2^zoom tile grid. */
+  public static int tileY(int zoom, double lat) {
+    return tileIndex(zoom, mercatorY(lat));
+  }
+
+  private static int tileIndex(int zoom, double mercator) {
+    long tiles = 1L << zoom;
+    return (int) Math.max(0, Math.min(tiles - 1, (long) Math.floor(mercator * tiles)));
+  }
+
+  /* Web Mercator x of longitude lng, from 0 at 180 degrees west to 1 at 180 degrees east. */
+  public static double mercatorX(double lng) {
+    return (lng + 180) / 360;
+  }
+
+  /* Web Mercator y of latitude lat, from 0 at the top of the map to 1 at the bottom. */
+  public static double mercatorY(double lat) {
+    double sin = Math.sin(Math.toRadians(Math.max(-85.05112878, Math.min(85.05112878, lat))));
+    return 0.5 - Math.log((1 + sin) / (1 - sin)) / (4 * Math.PI);
+  }
+
+  private static double longitude(double x) {
+    return x * 360 - 180;
+  }
+
+  private static double latitude(double y) {
+    return Math.toDegrees(Math.atan(Math.sinh(Math.PI * (1 - 2 * y))));
+  }
+}
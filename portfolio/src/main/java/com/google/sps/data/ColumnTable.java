@@ -0,0 +1,252 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * A table of numbers with a key per row, such as a country, stored by column: each column's
+ * values are a double[] with a bitmap marking the rows that have no value. Built once from a csv
+ * file so that any column can be aggregated without parsing again.
+ */
+public class ColumnTable {
+  /* How the values of a group of rows are combined. Rows without a value are ignored. */
+  public enum Aggregate { SUM, AVG, MIN, MAX, COUNT }
+
+  private final String[] names;
+  private final String[] units;
+  private final String[] keys;
+  // values[column][row], meaningless where the row's bit in nulls[column] is set.
+  private final double[][] values;
+  private final long[][] nulls;
+
+  private ColumnTable(String[] names, String[] units, String[] keys, double[][] values,
+      long[][] nulls) {
+    this.names = names;
+    this.units = units;
+    this.keys = keys;
+    this.values = values;
+    this.nulls = nulls;
+  }
+
+  /* Collects rows read from csv records. */
+  public static class Builder {
+    private final String[] names;
+    private final String[] units;
+    private final int[] sourceColumns;
+    private final List<String> keys = new ArrayList<>();
+    private final double[][] values;
+    private final long[][] nulls;
+
+    /*
+     * Creates a table whose column i has names[i] and units[i] and is read from record column
+     * sourceColumns[i]. Those record columns should be DOUBLE, usually optional, schema columns.
+     */
+    public Builder(String[] names, String[] units, int[] sourceColumns) {
+      this.names = names.clone();
+      this.units = units.clone();
+      this.sourceColumns = sourceColumns.clone();
+      values = new double[names.length][16];
+      nulls = new long[names.length][1];
+    }
+
+    public void add(String key, CsvReader.Record record) {
+      int row = keys.size();
+      keys.add(key);
+      for (int column = 0; column < sourceColumns.length; column++) {
+        if (row == values[column].length) {
+          values[column] = Arrays.copyOf(values[column], 2 * row);
+        }
+        if (row >> 6 == nulls[column].length) {
+          nulls[column] = Arrays.copyOf(nulls[column], 2 * nulls[column].length);
+        }
+        int source = sourceColumns[column];
+        if (record.isNull(source)) {
+          nulls[column][row >> 6] |= 1L << row;
+        } else {
+          values[column][row] = record.getDouble(source);
+        }
+      }
+    }
+
+    public ColumnTable build() {
+      int rows = keys.size();
+      double[][] trimmedValues = new double[names.length][];
+      long[][] trimmedNulls = new long[names.length][];
+      for (int column = 0; column < names.length; column++) {
+        trimmedValues[column] = Arrays.copyOf(values[column], rows);
+        trimmedNulls[column] = Arrays.copyOf(nulls[column], (rows + 63) >> 6);
+      }
+      return new ColumnTable(
+          names, units, keys.toArray(new String[0]), trimmedValues, trimmedNulls);
+    }
+  }
+
+  public int getColumnCount() {
+    return names.length;
+  }
+
+  public int getRowCount() {
+    return keys.length;
+  }
+
+  public String getName(int column) {
+    return names[column];
+  }
+
+  public String getUnit(int column) {
+    return units[column];
+  }
+
+  /* Index of the column with the given name, ignoring case, or -1 if there is none. */
+  public int findColumn(String name) {
+    for (int column = 0; column < names.length; column++) {
+      if (names[column].equalsIgnoreCase(name)) {
+        return column;
+      }
+    }
+    return -1;
+  }
+
+  public String getKey(int row) {
+    return keys[row];
+  }
+
+  public boolean isNull(int column, int row) {
+    return (nulls[column][row >> 6] & (1L << row)) != 0;
+  }
+
+  public double getValue(int column, int row) {
+    return values[column][row];
+  }
+
+  /*
+   * Combines the values of column for the rows sharing each key, in order of each key's first
+   * row. With byKey false every row is one group, keyed by the column name. Groups with no
+   * values are left out.
+   */
+  public Map<String, Double> aggregate(int column, Aggregate aggregate, boolean byKey) {
+    Map<String, int[]> groups = new LinkedHashMap<>();
+    int rows = keys.length;
+    int[] groupOf = new int[rows];
+    for (int row = 0; row < rows; row++) {
+      String key = byKey ? keys[row] : names[column];
+      int[] group = groups.get(key);
+      if (group == null) {
+        group = new int[] {groups.size()};
+        groups.put(key, group);
+      }
+      groupOf[row] = group[0];
+    }
+
+    int groupCount = groups.size();
+    double[] results = new double[groupCount];
+    int[] counts = new int[groupCount];
+    for (int row = 0; row < rows; row++) {
+      if (isNull(column, row)) {
+        continue;
+      }
+      int group = groupOf[row];
+      double value = values[column][row];
+      if (counts[group]++ == 0) {
+        results[group] = value;
+      } else if (aggregate == Aggregate.MIN) {
+        results[group] = Math.min(results[group], value);
+      } else if (aggregate == Aggregate.MAX) {
+        results[group] = Math.max(results[group], value);
+      } else {
+        results[group] += value;
+      }
+    }
+
+    Map<String, Double> aggregated = new LinkedHashMap<>();
+    for (Map.Entry<String, int[]> entry : groups.entrySet()) {
+      int group = entry.getValue()[0];
+      if (counts[group] == 0) {
+        continue;
+      }
+      double result = results[group];
+      if (aggregate == Aggregate.AVG) {
+        result /= counts[group];
+      } else if (aggregate == Aggregate.COUNT) {
+        result = counts[group];
+      }
+      aggregated.put(entry.getKey(), result);
+    }
+    return aggregated;
+  }
+
+  /* Writes the table for readFrom, e.g. into a SnapshotFile. */
+  public void writeTo(DataOutputStream out) throws IOException {
+    out.writeInt(names.length);
+    out.writeInt(keys.length);
+    for (int column = 0; column < names.length; column++) {
+      writeString(names[column], out);
+      writeString(units[column], out);
+    }
+    for (String key : keys) {
+      writeString(key, out);
+    }
+    for (int column = 0; column < names.length; column++) {
+      for (double value : values[column]) {
+        out.writeDouble(value);
+      }
+      for (long word : nulls[column]) {
+        out.writeLong(word);
+      }
+    }
+  }
+
+  /* Reads a table written by writeTo, advancing buffer past it. */
+  public static ColumnTable readFrom(ByteBuffer buffer) {
+    int columns = buffer.getInt();
+    int rows = buffer.getInt();
+    String[] names = new String[columns];
+    String[] units = new String[columns];
+    for (int column = 0; column < columns; column++) {
+      names[column] = readString(buffer);
+      units[column] = readString(buffer);
+    }
+    String[] keys = new String[rows];
+    for (int row = 0; row < rows; row++) {
+      keys[row] = readString(buffer);
+    }
+    double[][] values = new double[columns][];
+    long[][] nulls = new long[columns][];
+    for (int column = 0; column < columns; column++) {
+      values[column] = SnapshotFile.getDoubles(buffer, rows);
+      nulls[column] = SnapshotFile.getLongs(buffer, (rows + 63) >> 6);
+    }
+    return new ColumnTable(names, units, keys, values, nulls);
+  }
+
+  private static void writeString(String value, DataOutputStream out) throws IOException {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(ByteBuffer buffer) {
+    return new String(SnapshotFile.getBytes(buffer, buffer.getInt()), StandardCharsets.UTF_8);
+  }
+}
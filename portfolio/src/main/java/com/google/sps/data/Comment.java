@@ -0,0 +1,68 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+/*
+ * One comment left on the portfolio, with the sentiment score it was given when posted.
+ */
+public class Comment {
+  // Assigned by the repository when the comment is stored; 0 until then.
+  private final long id;
+  private final String name;
+  private final String content;
+  private final float sentiment;
+  // Set for suspected spam, e.g. near-copies of a recent comment.
+  private final boolean flagged;
+
+  public Comment(String name, String content, float sentiment) {
+    this(0, name, content, sentiment, false);
+  }
+
+  public Comment(long id, String name, String content, float sentiment, boolean flagged) {
+    this.id = id;
+    this.name = name;
+    this.content = content;
+    this.sentiment = sentiment;
+    this.flagged = flagged;
+  }
+
+  public Comment withId(long id) {
+    return new Comment(id, name, content, sentiment, flagged);
+  }
+
+  public Comment withFlagged(boolean flagged) {
+    return new Comment(id, name, content, sentiment, flagged);
+  }
+
+  public long getId() {
+    return id;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public String getContent() {
+    return content;
+  }
+
+  public float getSentiment() {
+    return sentiment;
+  }
+
+  public boolean isFlagged() {
+    return flagged;
+  }
+}
@@ -0,0 +1,143 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntFunction;
+
+/*
+ * Read-through cache of serialised comment pages, keyed by page size. Page sizes come from
+ * clients, so at most MAX_PAGES of them are kept, least recently used first out. Every entry is
+ * stamped with the comment version it was built from; writers bump the version instead of
+ * touching entries, so a reader never serves a page older than the last write it can observe.
+ *
+ * In LOCAL mode the version lives in this instance only. In VERSIONED mode it is the comment
+ * repository's version, so writes made on other instances invalidate this instance's pages too.
+ */
+public class CommentCache {
+  /* How the current comment version is tracked. */
+  public enum Mode { LOCAL, VERSIONED }
+
+  private static final String MODE_PROPERTY = "comments.cache.mode";
+  private static final int MAX_PAGES = 32;
+
+  private static final CommentCache instance = new CommentCache(
+      Mode.valueOf(System.getProperty(MODE_PROPERTY, Mode.LOCAL.name()).toUpperCase()),
+      CommentRepositoryFactory.getCommentRepository());
+
+  private final Mode mode;
+  private final CommentRepository repository;
+  private final LruCache<Integer, Page> pages = new LruCache<>(MAX_PAGES);
+  private final AtomicLong localVersion = new AtomicLong();
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder staleMisses = new LongAdder();
+  private final AtomicLong maxServedAgeMillis = new AtomicLong();
+
+  /* One serialised page and the comment version it reflects. */
+  private static class Page {
+    private final long version;
+    private final byte[] json;
+    private final long builtAtMillis;
+
+    private Page(long version, byte[] json) {
+      this.version = version;
+      this.json = json;
+      this.builtAtMillis = System.currentTimeMillis();
+    }
+  }
+
+  public CommentCache(Mode mode, CommentRepository repository) {
+    this.mode = mode;
+    this.repository = repository;
+  }
+
+  /* Returns the cache shared by the comment servlets. */
+  public static CommentCache getInstance() {
+    return instance;
+  }
+
+  /*
+   * Returns the page of the given size, calling loader to build it if there is no entry for
+   * the current version. The version is read before loading, so a write racing with the load
+   * leaves an entry that is already out of date rather than one that hides the write.
+   */
+  public byte[] get(int pageSize, IntFunction<byte[]> loader) {
+    long version = currentVersion();
+    Page page = pages.get(pageSize);
+    if (page != null && page.version == version) {
+      hits.increment();
+      maxServedAgeMillis.accumulateAndGet(
+          System.currentTimeMillis() - page.builtAtMillis, Math::max);
+      return page.json;
+    }
+
+    misses.increment();
+    if (page != null) {
+      staleMisses.increment();
+    }
+    Page built = new Page(version, loader.apply(pageSize));
+    // Keep the newest version if loads raced; replacing an entry is not atomic, but a page
+    // from an older version is only ever a miss, never served.
+    Page current = pages.get(pageSize);
+    if (current == null || built.version >= current.version) {
+      pages.put(pageSize, built);
+    }
+    return built.json;
+  }
+
+  /* Marks every cached page out of date. Call after any write to the comment store. */
+  public void invalidate() {
+    if (mode == Mode.LOCAL) {
+      localVersion.incrementAndGet();
+    } else {
+      repository.incrementVersion();
+    }
+  }
+
+  public Stats getStats() {
+    return new Stats(mode, hits.sum(), misses.sum(), staleMisses.sum(), pages.size(),
+        maxServedAgeMillis.get());
+  }
+
+  private long currentVersion() {
+    return mode == Mode.LOCAL ? localVersion.get() : repository.getVersion();
+  }
+
+  /* Snapshot of cache metrics, serialised as JSON by the stats endpoint. */
+  public static class Stats {
+    private final Mode mode;
+    private final long hits;
+    private final long misses;
+    private final long staleMisses;
+    private final double hitRate;
+    private final int cachedPages;
+    // Age of the oldest page served from the cache so far.
+    private final long maxServedAgeMillis;
+
+    private Stats(Mode mode, long hits, long misses, long staleMisses, int cachedPages,
+        long maxServedAgeMillis) {
+      this.mode = mode;
+      this.hits = hits;
+      this.misses = misses;
+      this.staleMisses = staleMisses;
+      this.hitRate = hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+      this.cachedPages = cachedPages;
+      this.maxServedAgeMillis = maxServedAgeMillis;
+    }
+  }
+}
@@ -0,0 +1,75 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.util.List;
+
+/*
+ * Storage for comments and the small bits of state kept alongside them (cache versions, job
+ * progress). Implementations must be safe to call from concurrent requests.
+ */
+public interface CommentRepository {
+  /* Stores comment and returns it with its assigned id. */
+  Comment add(Comment comment);
+
+  /* Returns up to limit comments in store order, or all of them when limit is not positive. */
+  List<Comment> list(int limit);
+
+  /* Returns the comments with the given ids that still exist, in the order of ids. */
+  List<Comment> get(List<Long> ids);
+
+  /*
+   * Deletes up to batchSize comments, continuing from cursor (null to start at the beginning).
+   * An empty batch means there was nothing left to delete.
+   */
+  DeleteBatch deleteBatch(String cursor, int batchSize);
+
+  /* Returns the current comment version, which only ever goes up. */
+  long getVersion();
+
+  /* Atomically increments the comment version and returns the new value. */
+  long incrementVersion();
+
+  /* Returns the value stored under name, or null if there is none. */
+  String getMetadata(String name);
+
+  void putMetadata(String name, String value);
+
+  /*
+   * Atomically stores value under name if the value there is still expected (null for none),
+   * and returns whether it did. Used where instances race to update the same state.
+   */
+  boolean replaceMetadata(String name, String expected, String value);
+
+  /* Result of one deleteBatch call. */
+  class DeleteBatch {
+    private final int deleted;
+    private final String cursor;
+
+    public DeleteBatch(int deleted, String cursor) {
+      this.deleted = deleted;
+      this.cursor = cursor;
+    }
+
+    public int getDeleted() {
+      return deleted;
+    }
+
+    /* Cursor to pass to the next deleteBatch call. */
+    public String getCursor() {
+      return cursor;
+    }
+  }
+}
@@ -0,0 +1,47 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.nio.file.Paths;
+
+/*
+ * Creates the comment repository shared by the comment servlets. The backend is picked with
+ * the comments.repository system property: "datastore" (the default) or "log", which stores
+ * comments in the file named by comments.log.path. The log path has no default, since the log
+ * is the only copy of the comments and must be on storage that outlives the instance.
+ */
+public class CommentRepositoryFactory {
+  private static final String BACKEND_PROPERTY = "comments.repository";
+  private static final String LOG_PATH_PROPERTY = "comments.log.path";
+  private static final String LOG_BACKEND = "log";
+
+  private static CommentRepository repository;
+
+  public static synchronized CommentRepository getCommentRepository() {
+    if (repository == null) {
+      if (LOG_BACKEND.equals(System.getProperty(BACKEND_PROPERTY))) {
+        String path = System.getProperty(LOG_PATH_PROPERTY);
+        if (path == null) {
+          throw new IllegalStateException(
+              LOG_PATH_PROPERTY + " must be set when " + BACKEND_PROPERTY + " is " + LOG_BACKEND);
+        }
+        repository = new LogCommentRepository(Paths.get(path));
+      } else {
+        repository = new DatastoreCommentRepository();
+      }
+    }
+    return repository;
+  }
+}
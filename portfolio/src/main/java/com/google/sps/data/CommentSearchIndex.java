@@ -0,0 +1,135 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * Full-text index over comment names and content. It is rebuilt from the repository when first
+ * used and then kept current by DataServlet for comments posted through this instance.
+ *
+ * Comments posted through other instances are picked up through the repository version, which
+ * CommentCache bumps on every write in its VERSIONED mode: a search that finds the version has
+ * moved since the index was built rebuilds it, at most once per REFRESH_MILLIS. In LOCAL mode
+ * the version never moves, so each instance only sees its own comments until it restarts;
+ * LOCAL mode is meant for a single instance.
+ */
+public class CommentSearchIndex {
+  private static final int INITIAL_COMMENTS = 16;
+  // Least time between rebuilds for writes made through other instances.
+  private static final long REFRESH_MILLIS = 10 * 1000;
+
+  private static CommentSearchIndex instance;
+
+  private final CommentRepository repository;
+  private final long refreshMillis;
+  // Replaced as a whole by rebuild, so a search reads documents and ids from the same one.
+  private volatile Generation current;
+  private volatile long rebuiltAtMillis;
+
+  /* An inverted index, the comment id of each of its documents and the version it was built at. */
+  private static class Generation {
+    private final InvertedIndex index = new InvertedIndex(new Tokenizer());
+    private final long version;
+    // Comment id of each indexed document, by document number.
+    private long[] commentIds = new long[INITIAL_COMMENTS];
+
+    private Generation(long version) {
+      this.version = version;
+    }
+
+    /*
+     * Indexes comment. The id is recorded under the same lock, so a search that finds the new
+     * document and then takes the lock to look up ids always finds its id.
+     */
+    private synchronized void add(Comment comment) {
+      int document = index.add(comment.getName(), comment.getContent());
+      if (document >= commentIds.length) {
+        commentIds = Arrays.copyOf(commentIds, Math.max(commentIds.length * 2, document + 1));
+      }
+      commentIds[document] = comment.getId();
+    }
+
+    private synchronized List<Long> getCommentIds(int[] documents) {
+      List<Long> ids = new ArrayList<>(documents.length);
+      for (int document : documents) {
+        ids.add(commentIds[document]);
+      }
+      return ids;
+    }
+  }
+
+  /* Builds an index of repository, rebuilding it at most once per refreshMillis. */
+  CommentSearchIndex(CommentRepository repository, long refreshMillis) {
+    this.repository = repository;
+    this.refreshMillis = refreshMillis;
+    rebuild();
+  }
+
+  /* Returns the index shared by the comment servlets, building it on first use. */
+  public static synchronized CommentSearchIndex getInstance() {
+    if (instance == null) {
+      instance = new CommentSearchIndex(
+          CommentRepositoryFactory.getCommentRepository(), REFRESH_MILLIS);
+    }
+    return instance;
+  }
+
+  /* Adds a newly stored comment to the index. Waits for any rebuild, so it is not lost. */
+  public synchronized void add(Comment comment) {
+    current.add(comment);
+  }
+
+  /*
+   * Returns up to limit comments matching query, best match first. Rebuilds the index first if
+   * the repository has been written to since it was built and it is due a refresh.
+   */
+  public List<Comment> search(String query, int limit) {
+    Generation generation = current;
+    if (isStale(generation)) {
+      generation = refresh();
+    }
+    return repository.get(generation.getCommentIds(generation.index.search(query, limit)));
+  }
+
+  private boolean isStale(Generation generation) {
+    return System.currentTimeMillis() - rebuiltAtMillis >= refreshMillis
+        && repository.getVersion() != generation.version;
+  }
+
+  /* Rebuilds a stale index, unless a search waited on here has just done so. */
+  private synchronized Generation refresh() {
+    if (isStale(current)) {
+      rebuild();
+    }
+    return current;
+  }
+
+  /*
+   * Reindexes every comment in the repository, e.g. after they have all been deleted. Searches
+   * keep using the previous index until the new one is complete.
+   */
+  public synchronized void rebuild() {
+    // The version is read first, so a write racing with the listing leaves the index stale.
+    Generation rebuilt = new Generation(repository.getVersion());
+    for (Comment comment : repository.list(0)) {
+      rebuilt.add(comment);
+    }
+    current = rebuilt;
+    rebuiltAtMillis = System.currentTimeMillis();
+  }
+}
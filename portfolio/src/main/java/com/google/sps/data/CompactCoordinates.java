@@ -0,0 +1,102 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.function.IntToDoubleFunction;
+
+/*
+ * Writes coordinate lists in a compact binary format, served instead of JSON to clients that
+ * ask for MEDIA_TYPE. Coordinates are rounded to fixed point in units of 1e-5 degrees (about a
+ * metre) and stored by column: the count, then every latitude, then every longitude, each as
+ * the zigzag varint of its difference from the previous value in the column. Nearby points
+ * listed together therefore take one to three bytes per coordinate instead of a JSON number.
+ *
+ * Varints are little-endian base 128, as in protocol buffers: seven bits per byte, with the
+ * high bit set on every byte but the last. Zigzag maps signed values to unsigned ones so that
+ * small negative numbers stay short.
+ */
+public class CompactCoordinates {
+  public static final String MEDIA_TYPE = "application/x-compact-coordinates";
+
+  private static final double SCALE = 1e5;
+
+  private CompactCoordinates() {}
+
+  /*
+   * True if an Accept header value lists MEDIA_TYPE without ruling it out with q=0. Clients that
+   * send no Accept header, or accept anything, keep getting JSON.
+   */
+  public static boolean isAcceptedBy(String accept) {
+    if (accept == null) {
+      return false;
+    }
+    for (String range : accept.split(",")) {
+      String[] parts = range.trim().split(";");
+      if (parts[0].trim().equalsIgnoreCase(MEDIA_TYPE)) {
+        for (int i = 1; i < parts.length; i++) {
+          if (parts[i].trim().matches("q=0(\\.0*)?")) {
+            return false;
+          }
+        }
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /*
+   * Writes the coordinates of the store's points[0..count) as a count followed by two delta
+   * columns. points may be null to write every point in order.
+   */
+  public static void write(PointStore store, int[] points, int count, OutputStream out)
+      throws IOException {
+    writeVarint(count, out);
+    writeColumn(store::getLat, points, count, out);
+    writeColumn(store::getLng, points, count, out);
+  }
+
+  /* Writes (lats[i], lngs[i]) for every i, in order. */
+  public static void write(double[] lats, double[] lngs, OutputStream out) throws IOException {
+    writeVarint(lats.length, out);
+    writeColumn(i -> lats[i], null, lats.length, out);
+    writeColumn(i -> lngs[i], null, lngs.length, out);
+  }
+
+  private static void writeColumn(IntToDoubleFunction values, int[] points, int count,
+      OutputStream out) throws IOException {
+    long previous = 0;
+    for (int i = 0; i < count; i++) {
+      long value = Math.round(values.applyAsDouble(points == null ? i : points[i]) * SCALE);
+      writeSignedVarint(value - previous, out);
+      previous = value;
+    }
+  }
+
+  /* Writes a non-negative value as a varint. */
+  public static void writeVarint(long value, OutputStream out) throws IOException {
+    while ((value & ~0x7fL) != 0) {
+      out.write((int) ((value & 0x7f) | 0x80));
+      value >>>= 7;
+    }
+    out.write((int) value);
+  }
+
+  /* Writes a value of either sign as a zigzag varint. */
+  public static void writeSignedVarint(long value, OutputStream out) throws IOException {
+    writeVarint((value << 1) ^ (value >> 63), out);
+  }
+}
@@ -0,0 +1,538 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+import javax.servlet.ServletContext;
+
+/*
+ * RFC 4180 CSV parser working on the raw bytes of a file, memory-mapped or read into a buffer.
+ * Quoted fields may contain commas, doubled quotes and line breaks; a record with anything but a
+ * delimiter after a closing quote is malformed and never matches. Cells are only located while
+ * parsing; numbers named in a Schema are parsed straight from the bytes, and strings are decoded
+ * only when asked for. Record positions are byte offsets into the file, so a record can be read
+ * again later without keeping it in memory. Files must be smaller than 2GB.
+ */
+public class CsvReader {
+  /* How a schema column is parsed. */
+  public enum Type { STRING, DOUBLE, LONG }
+
+  private static final byte QUOTE = '"';
+  private static final byte COMMA = ',';
+  private static final byte LF = '\n';
+  private static final byte CR = '\r';
+
+  private static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8,
+      1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+  private final ByteBuffer data;
+
+  /* Receives each record that matches the schema. */
+  public interface RecordHandler {
+    void handle(Record record);
+  }
+
+  /*
+   * The columns a record must have. A record is only passed on if every schema column is
+   * present and non-empty and every numeric column parses, unless the cell is the null value.
+   * Optional columns never reject a record; cells that are missing, empty or do not parse are
+   * null instead.
+   */
+  public static class Schema {
+    private Type[] types = new Type[0];
+    private boolean[] optional = new boolean[0];
+    private byte[] nullValue;
+
+    public Schema column(int index, Type type) {
+      return column(index, type, false);
+    }
+
+    public Schema optionalColumn(int index, Type type) {
+      return column(index, type, true);
+    }
+
+    private Schema column(int index, Type type, boolean isOptional) {
+      if (index >= types.length) {
+        types = Arrays.copyOf(types, index + 1);
+        optional = Arrays.copyOf(optional, index + 1);
+      }
+      types[index] = type;
+      optional[index] = isOptional;
+      return this;
+    }
+
+    /* Cells equal to value are null: they satisfy the schema but have no value. */
+    public Schema nullValue(String value) {
+      nullValue = value.getBytes(StandardCharsets.UTF_8);
+      return this;
+    }
+  }
+
+  /* Reads over the whole of data, which is not modified. */
+  public CsvReader(ByteBuffer data) {
+    this.data = data;
+  }
+
+  /* Memory-maps the file at path. */
+  public static CsvReader map(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      return new CsvReader(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    }
+  }
+
+  /* Reads all of in into memory and closes it. */
+  public static CsvReader read(InputStream in) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (InputStream input = in) {
+      byte[] buffer = new byte[64 * 1024];
+      for (int read = input.read(buffer); read != -1; read = input.read(buffer)) {
+        bytes.write(buffer, 0, read);
+      }
+    }
+    return new CsvReader(ByteBuffer.wrap(bytes.toByteArray()));
+  }
+
+  /*
+   * Opens a web application resource, memory-mapping it when it is a plain file and reading it
+   * through the container otherwise.
+   */
+  public static CsvReader open(ServletContext context, String resource) throws IOException {
+    String path = context.getRealPath(resource);
+    if (path != null && Paths.get(path).toFile().isFile()) {
+      return map(Paths.get(path));
+    }
+    InputStream in = context.getResourceAsStream(resource);
+    if (in == null) {
+      throw new IOException("No such resource: " + resource);
+    }
+    return read(in);
+  }
+
+  /* Size of the underlying data in bytes. */
+  public int size() {
+    return data.limit();
+  }
+
+  /* Calls handler with every record matching schema, in file order. */
+  public void forEach(Schema schema, RecordHandler handler) {
+    parse(0, data.limit(), schema, handler);
+  }
+
+  /*
+   * Splits the file into about chunks contiguous runs of records and parses them in parallel,
+   * each with its own handler from handlers. Returns the handlers in file order, so results
+   * gathered per chunk can be combined in the same order as forEach would produce them.
+   */
+  public <H extends RecordHandler> List<H> forEachParallel(
+      Schema schema, int chunks, Supplier<H> handlers) {
+    int[] boundaries = chunkBoundaries(chunks);
+    List<H> chunkHandlers = new ArrayList<>();
+    for (int i = 0; i + 1 < boundaries.length; i++) {
+      chunkHandlers.add(handlers.get());
+    }
+    IntStream.range(0, chunkHandlers.size()).parallel().forEach(i -> parse(
+        boundaries[i], boundaries[i + 1], schema, chunkHandlers.get(i)));
+    return chunkHandlers;
+  }
+
+  /*
+   * Parses the single record starting at offset, as given by Record.getOffset(). Returns null if
+   * it does not match schema. Each call returns a new record, which the caller may keep.
+   */
+  public Record readAt(int offset, Schema schema) {
+    Record record = new Record();
+    record.parse(offset, data.limit());
+    return record.matches(schema) ? record : null;
+  }
+
+  private void parse(int start, int end, Schema schema, RecordHandler handler) {
+    Record record = new Record();
+    int position = start;
+    while (position < end) {
+      position = record.parse(position, end);
+      if (record.matches(schema)) {
+        handler.handle(record);
+      }
+    }
+  }
+
+  /*
+   * Picks chunk start offsets near equal divisions of the file, moved forward to the next line
+   * break outside quotes. One pass over the bytes tracks quoting, which is far cheaper than
+   * parsing and lets chunks be parsed independently.
+   */
+  private int[] chunkBoundaries(int chunks) {
+    int size = data.limit();
+    int[] boundaries = new int[Math.max(1, chunks) + 1];
+    int count = 1;
+    boolean quoted = false;
+    for (int i = 0; i < size && count < boundaries.length - 1; i++) {
+      byte b = data.get(i);
+      if (b == QUOTE) {
+        quoted = !quoted;
+      } else if (b == LF && !quoted && i + 1 >= (long) count * size / (boundaries.length - 1)) {
+        boundaries[count++] = i + 1;
+      }
+    }
+    boundaries[count++] = size;
+    return Arrays.copyOf(boundaries, count);
+  }
+
+  /*
+   * One parsed record. Cell positions are kept as offsets into the data; values of schema
+   * columns are parsed when the record is matched. A handler must not keep the record after it
+   * returns, since it is reused for the next one.
+   */
+  public class Record {
+    private int offset;
+    private int end;
+    private int columnCount;
+    private boolean malformed;
+    private int[] cellStarts = new int[16];
+    private int[] cellEnds = new int[16];
+    private boolean[] escaped = new boolean[16];
+    private boolean[] nulls = new boolean[16];
+    private double[] doubles = new double[16];
+    private long[] longs = new long[16];
+    private byte[] scratch = new byte[256];
+
+    private Record() {}
+
+    /* Byte offset of the start of this record, for readAt. */
+    public int getOffset() {
+      return offset;
+    }
+
+    /* Byte offset just past the last cell of this record, before its line break. */
+    public int getEnd() {
+      return end;
+    }
+
+    public int getColumnCount() {
+      return columnCount;
+    }
+
+    public boolean isEmpty(int column) {
+      return column >= columnCount || cellStarts[column] == cellEnds[column];
+    }
+
+    /*
+     * Whether the cell equals the schema's null value, or is an optional column's cell with no
+     * value. Only set for schema columns.
+     */
+    public boolean isNull(int column) {
+      return nulls[column];
+    }
+
+    /* Value of a DOUBLE schema column. */
+    public double getDouble(int column) {
+      return doubles[column];
+    }
+
+    /* Value of a LONG schema column. */
+    public long getLong(int column) {
+      return longs[column];
+    }
+
+    /* Decodes the cell as UTF-8, with quoting removed. */
+    public String getString(int column) {
+      int length = copyCell(column);
+      return new String(scratch, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /* Appends the cell's unquoted UTF-8 bytes to out. */
+    public void writeBytes(int column, ByteArrayOutputStream out) {
+      out.write(scratch, 0, copyCell(column));
+    }
+
+    private int copyCell(int column) {
+      int start = cellStarts[column];
+      int length = cellEnds[column] - start;
+      if (scratch.length < length) {
+        scratch = new byte[Math.max(length, 2 * scratch.length)];
+      }
+      int written = 0;
+      for (int i = 0; i < length; i++) {
+        byte b = data.get(start + i);
+        scratch[written++] = b;
+        if (b == QUOTE && escaped[column]) {
+          // Skip the second quote of a doubled pair.
+          i++;
+        }
+      }
+      return written;
+    }
+
+    /* Locates the cells of the record at position. Returns the offset of the next record. */
+    private int parse(int position, int limit) {
+      offset = position;
+      columnCount = 0;
+      malformed = false;
+      while (true) {
+        ensureCapacity(columnCount + 1);
+        boolean hasEscapes = false;
+        int cellStart;
+        int cellEnd;
+        if (position < limit && data.get(position) == QUOTE) {
+          cellStart = ++position;
+          while (position < limit) {
+            if (data.get(position) == QUOTE) {
+              if (position + 1 < limit && data.get(position + 1) == QUOTE) {
+                hasEscapes = true;
+                position += 2;
+                continue;
+              }
+              break;
+            }
+            position++;
+          }
+          cellEnd = position;
+          // Step over the closing quote, and anything stray before the delimiter, which makes
+          // the record malformed.
+          if (position < limit) {
+            position++;
+          }
+          while (position < limit && !isDelimiter(data.get(position))) {
+            malformed = true;
+            position++;
+          }
+        } else {
+          cellStart = position;
+          while (position < limit && !isDelimiter(data.get(position))) {
+            position++;
+          }
+          cellEnd = position;
+        }
+        cellStarts[columnCount] = cellStart;
+        cellEnds[columnCount] = cellEnd;
+        escaped[columnCount] = hasEscapes;
+        columnCount++;
+
+        if (position < limit && data.get(position) == COMMA) {
+          position++;
+          continue;
+        }
+        end = position;
+        if (position < limit && data.get(position) == CR) {
+          position++;
+        }
+        if (position < limit && data.get(position) == LF) {
+          position++;
+        }
+        return position;
+      }
+    }
+
+    private boolean matches(Schema schema) {
+      if (malformed || (columnCount == 1 && cellStarts[0] == cellEnds[0])) {
+        // Malformed record or blank line.
+        return false;
+      }
+      Type[] types = schema.types;
+      ensureCapacity(types.length);
+      for (int column = 0; column < types.length; column++) {
+        Type type = types[column];
+        if (type == null) {
+          continue;
+        }
+        boolean optional = schema.optional[column];
+        if (isEmpty(column)) {
+          if (!optional) {
+            return false;
+          }
+          nulls[column] = true;
+          continue;
+        }
+        int start = cellStarts[column];
+        int end = cellEnds[column];
+        nulls[column] = schema.nullValue != null && equalsBytes(start, end, schema.nullValue);
+        if (nulls[column] || type == Type.STRING) {
+          continue;
+        }
+        if (type == Type.DOUBLE ? !parseDouble(column, start, end)
+            : !parseLong(column, start, end)) {
+          if (!optional) {
+            return false;
+          }
+          nulls[column] = true;
+        }
+      }
+      return true;
+    }
+
+    private boolean parseLong(int column, int start, int end) {
+      start = skipSpaces(start, end);
+      end = trimSpaces(start, end);
+      boolean negative = start < end && data.get(start) == '-';
+      if (start < end && (negative || data.get(start) == '+')) {
+        start++;
+      }
+      if (start == end) {
+        return false;
+      }
+      long value = 0;
+      for (int i = start; i < end; i++) {
+        int digit = data.get(i) - '0';
+        if (digit < 0 || digit > 9 || value > (Long.MAX_VALUE - digit) / 10) {
+          return false;
+        }
+        value = value * 10 + digit;
+      }
+      longs[column] = negative ? -value : value;
+      return true;
+    }
+
+    /*
+     * Parses decimal notation with an optional exponent. Values with at most 15 significant
+     * digits and a small power of ten are exact in a double, so they are converted with one
+     * multiplication or division; anything else falls back to Double.parseDouble.
+     */
+    private boolean parseDouble(int column, int start, int end) {
+      start = skipSpaces(start, end);
+      end = trimSpaces(start, end);
+      int position = start;
+      boolean negative = position < end && data.get(position) == '-';
+      if (position < end && (negative || data.get(position) == '+')) {
+        position++;
+      }
+
+      long mantissa = 0;
+      int significantDigits = 0;
+      int exponent = 0;
+      boolean anyDigits = false;
+      boolean fraction = false;
+      for (; position < end; position++) {
+        byte b = data.get(position);
+        if (b == '.' && !fraction) {
+          fraction = true;
+          continue;
+        }
+        if (b < '0' || b > '9') {
+          break;
+        }
+        anyDigits = true;
+        if (significantDigits < 18) {
+          mantissa = mantissa * 10 + (b - '0');
+          if (mantissa != 0) {
+            significantDigits++;
+          }
+          if (fraction) {
+            exponent--;
+          }
+        } else if (!fraction) {
+          exponent++;
+        }
+      }
+      if (!anyDigits) {
+        return false;
+      }
+
+      if (position < end && (data.get(position) == 'e' || data.get(position) == 'E')) {
+        position++;
+        boolean negativeExponent = position < end && data.get(position) == '-';
+        if (position < end && (negativeExponent || data.get(position) == '+')) {
+          position++;
+        }
+        if (position == end) {
+          return false;
+        }
+        int written = 0;
+        for (; position < end; position++) {
+          int digit = data.get(position) - '0';
+          if (digit < 0 || digit > 9) {
+            return false;
+          }
+          written = Math.min(written * 10 + digit, 100000);
+        }
+        exponent += negativeExponent ? -written : written;
+      }
+      if (position != end) {
+        return false;
+      }
+
+      double value;
+      if (significantDigits <= 15 && Math.abs(exponent) < POWERS_OF_TEN.length) {
+        value = exponent < 0
+            ? mantissa / POWERS_OF_TEN[-exponent]
+            : mantissa * POWERS_OF_TEN[exponent];
+        value = negative ? -value : value;
+      } else {
+        byte[] text = new byte[end - start];
+        for (int i = 0; i < text.length; i++) {
+          text[i] = data.get(start + i);
+        }
+        value = Double.parseDouble(new String(text, StandardCharsets.US_ASCII));
+      }
+      doubles[column] = value;
+      return true;
+    }
+
+    private int skipSpaces(int start, int end) {
+      while (start < end && data.get(start) == ' ') {
+        start++;
+      }
+      return start;
+    }
+
+    private int trimSpaces(int start, int end) {
+      while (end > start && data.get(end - 1) == ' ') {
+        end--;
+      }
+      return end;
+    }
+
+    private boolean equalsBytes(int start, int end, byte[] value) {
+      if (end - start != value.length) {
+        return false;
+      }
+      for (int i = 0; i < value.length; i++) {
+        if (data.get(start + i) != value[i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private void ensureCapacity(int columns) {
+      if (columns <= cellStarts.length) {
+        return;
+      }
+      int capacity = Math.max(columns, 2 * cellStarts.length);
+      cellStarts = Arrays.copyOf(cellStarts, capacity);
+      cellEnds = Arrays.copyOf(cellEnds, capacity);
+      escaped = Arrays.copyOf(escaped, capacity);
+      nulls = Arrays.copyOf(nulls, capacity);
+      doubles = Arrays.copyOf(doubles, capacity);
+      longs = Arrays.copyOf(longs, capacity);
+    }
+  }
+
+  private static boolean isDelimiter(byte b) {
+    return b == COMMA || b == LF || b == CR;
+  }
+}
@@ -0,0 +1,128 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.servlet.ServletContext;
+
+/*
+ * Holds the current version of a dataset built from files, and rebuilds it on a background
+ * thread when any of the files changes. Files are polled for a new modification time or size,
+ * and a change must be seen unchanged on two polls in a row before it is loaded, so a file that
+ * is still being written is not read half-way. The new version replaces the old with a single
+ * volatile write: readers never block, and a request that already has the old version keeps
+ * using it. If a rebuild fails, the old version stays in place until the files change again.
+ */
+public class DatasetHolder<T> {
+  private static final Logger logger = Logger.getLogger(DatasetHolder.class.getName());
+
+  /* Builds one version of the dataset. */
+  public interface Loader<T> {
+    T load() throws IOException;
+  }
+
+  private final String name;
+  private final Loader<T> loader;
+  private final List<Path> files;
+  private final ScheduledExecutorService poller;
+  private volatile T current;
+
+  // Only used by the poller thread.
+  private long[] loadedStamps;
+  private long[] pendingStamps;
+
+  /*
+   * Loads the first version on the calling thread, then checks files every pollSeconds. With
+   * no files, the dataset is loaded once and never reloaded.
+   */
+  public DatasetHolder(String name, Loader<T> loader, List<Path> files, long pollSeconds)
+      throws IOException {
+    this.name = name;
+    this.loader = loader;
+    this.files = files;
+    this.loadedStamps = SnapshotFile.stamp(files);
+    this.current = loader.load();
+    if (files.isEmpty()) {
+      poller = null;
+      return;
+    }
+    poller = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, name + "-reloader");
+      thread.setDaemon(true);
+      return thread;
+    });
+    poller.scheduleWithFixedDelay(this::poll, pollSeconds, pollSeconds, TimeUnit.SECONDS);
+  }
+
+  /*
+   * Returns the paths of those web application resources that are plain files, and so can be
+   * watched for changes.
+   */
+  public static List<Path> filesOf(ServletContext context, String... resources) {
+    List<Path> files = new ArrayList<>();
+    for (String resource : resources) {
+      String path = context.getRealPath(resource);
+      if (path != null && Files.isRegularFile(Paths.get(path))) {
+        files.add(Paths.get(path));
+      }
+    }
+    return files;
+  }
+
+  /* Returns the current version. Callers should read it once per request and keep using it. */
+  public T get() {
+    return current;
+  }
+
+  /* Stops watching the files. */
+  public void close() {
+    if (poller != null) {
+      poller.shutdownNow();
+    }
+  }
+
+  private void poll() {
+    long[] stamps = SnapshotFile.stamp(files);
+    if (Arrays.equals(stamps, loadedStamps)) {
+      pendingStamps = null;
+      return;
+    }
+    if (!Arrays.equals(stamps, pendingStamps)) {
+      // Changed since the last poll; wait for it to settle.
+      pendingStamps = stamps;
+      return;
+    }
+
+    loadedStamps = stamps;
+    pendingStamps = null;
+    try {
+      current = loader.load();
+      logger.info("Reloaded " + name);
+    } catch (IOException | RuntimeException e) {
+      logger.log(Level.WARNING, "Could not reload " + name + "; keeping the previous version", e);
+    }
+  }
+}
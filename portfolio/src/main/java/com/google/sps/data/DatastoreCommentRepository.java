@@ -0,0 +1,198 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.QueryResultList;
+import com.google.appengine.api.datastore.Text;
+import com.google.appengine.api.datastore.Transaction;
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/* Comment repository backed by App Engine Datastore. */
+public class DatastoreCommentRepository implements CommentRepository {
+  private static final String COMMENT_ENTITY = "Comment";
+  private static final String COMMENT_CONTENT = "content";
+  private static final String COMMENT_NAME = "name";
+  private static final String COMMENT_SENTIMENT = "sentiment";
+  private static final String COMMENT_FLAGGED = "flagged";
+  private static final String VERSION_ENTITY = "CommentVersion";
+  private static final String VERSION_NAME = "comments";
+  private static final String VERSION_PROPERTY = "version";
+  private static final String METADATA_ENTITY = "CommentMetadata";
+  private static final String METADATA_VALUE = "value";
+
+  private final DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+  private final Key versionKey = KeyFactory.createKey(VERSION_ENTITY, VERSION_NAME);
+
+  @Override
+  public Comment add(Comment comment) {
+    Entity commEntity = new Entity(COMMENT_ENTITY);
+    commEntity.setProperty(COMMENT_CONTENT, comment.getContent());
+    commEntity.setProperty(COMMENT_NAME, comment.getName());
+    commEntity.setProperty(COMMENT_SENTIMENT, comment.getSentiment());
+    if (comment.isFlagged()) {
+      commEntity.setProperty(COMMENT_FLAGGED, true);
+    }
+    return comment.withId(datastore.put(commEntity).getId());
+  }
+
+  @Override
+  public List<Comment> list(int limit) {
+    FetchOptions fetchOptions =
+        limit > 0 ? FetchOptions.Builder.withLimit(limit) : FetchOptions.Builder.withDefaults();
+    List<Comment> comments = new ArrayList<>();
+    for (Entity entity : datastore.prepare(new Query(COMMENT_ENTITY)).asIterable(fetchOptions)) {
+      comments.add(toComment(entity));
+    }
+    return comments;
+  }
+
+  @Override
+  public List<Comment> get(List<Long> ids) {
+    List<Key> keys = new ArrayList<>(ids.size());
+    for (long id : ids) {
+      keys.add(KeyFactory.createKey(COMMENT_ENTITY, id));
+    }
+    Map<Key, Entity> entities = datastore.get(keys);
+
+    List<Comment> comments = new ArrayList<>(entities.size());
+    for (Key key : keys) {
+      Entity entity = entities.get(key);
+      if (entity != null) {
+        comments.add(toComment(entity));
+      }
+    }
+    return comments;
+  }
+
+  @Override
+  public DeleteBatch deleteBatch(String cursor, int batchSize) {
+    FetchOptions fetchOptions = FetchOptions.Builder.withLimit(batchSize);
+    if (cursor != null) {
+      fetchOptions.startCursor(Cursor.fromWebSafeString(cursor));
+    }
+    Query query = new Query(COMMENT_ENTITY).setKeysOnly();
+    QueryResultList<Entity> batch = datastore.prepare(query).asQueryResultList(fetchOptions);
+
+    List<Key> keys = new ArrayList<>(batch.size());
+    for (Entity entity : batch) {
+      keys.add(entity.getKey());
+    }
+    datastore.delete(keys);
+    return new DeleteBatch(keys.size(), batch.getCursor().toWebSafeString());
+  }
+
+  @Override
+  public long getVersion() {
+    return readVersion(null);
+  }
+
+  @Override
+  public long incrementVersion() {
+    while (true) {
+      Transaction txn = datastore.beginTransaction();
+      try {
+        long version = readVersion(txn) + 1;
+        Entity entity = new Entity(versionKey);
+        entity.setProperty(VERSION_PROPERTY, version);
+        datastore.put(txn, entity);
+        txn.commit();
+        return version;
+      } catch (ConcurrentModificationException e) {
+        // Another instance bumped the version first; retry on top of its value.
+      } finally {
+        if (txn.isActive()) {
+          txn.rollback();
+        }
+      }
+    }
+  }
+
+  @Override
+  public String getMetadata(String name) {
+    return readMetadata(null, name);
+  }
+
+  @Override
+  public void putMetadata(String name, String value) {
+    datastore.put(toMetadataEntity(name, value));
+  }
+
+  @Override
+  public boolean replaceMetadata(String name, String expected, String value) {
+    while (true) {
+      Transaction txn = datastore.beginTransaction();
+      try {
+        if (!Objects.equals(readMetadata(txn, name), expected)) {
+          return false;
+        }
+        datastore.put(txn, toMetadataEntity(name, value));
+        txn.commit();
+        return true;
+      } catch (ConcurrentModificationException e) {
+        // Another instance wrote the entity first; retry against its value.
+      } finally {
+        if (txn.isActive()) {
+          txn.rollback();
+        }
+      }
+    }
+  }
+
+  private String readMetadata(Transaction txn, String name) {
+    Key key = KeyFactory.createKey(METADATA_ENTITY, name);
+    try {
+      Entity entity = txn == null ? datastore.get(key) : datastore.get(txn, key);
+      return ((Text) entity.getProperty(METADATA_VALUE)).getValue();
+    } catch (EntityNotFoundException e) {
+      return null;
+    }
+  }
+
+  private static Entity toMetadataEntity(String name, String value) {
+    Entity entity = new Entity(METADATA_ENTITY, name);
+    entity.setUnindexedProperty(METADATA_VALUE, new Text(value));
+    return entity;
+  }
+
+  private long readVersion(Transaction txn) {
+    try {
+      Entity entity = txn == null ? datastore.get(versionKey) : datastore.get(txn, versionKey);
+      return (long) entity.getProperty(VERSION_PROPERTY);
+    } catch (EntityNotFoundException e) {
+      return 0;
+    }
+  }
+
+  private static Comment toComment(Entity entity) {
+    Number sentiment = (Number) entity.getProperty(COMMENT_SENTIMENT);
+    return new Comment(entity.getKey().getId(), (String) entity.getProperty(COMMENT_NAME),
+        (String) entity.getProperty(COMMENT_CONTENT),
+        sentiment == null ? 0 : sentiment.floatValue(),
+        Boolean.TRUE.equals(entity.getProperty(COMMENT_FLAGGED)));
+  }
+}
@@ -0,0 +1,175 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.gson.Gson;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/*
+ * Background job that deletes every comment in batches. Progress and the repository cursor are
+ * saved as repository metadata after each batch, so a job whose instance went away can be
+ * resumed from where it stopped. The ids of jobs that have not finished are kept in an index,
+ * also in metadata, so every one of them is found again however many jobs were started since.
+ *
+ * Every save replaces exactly the progress this job last saved or read, so only one instance
+ * runs a job at a time: an instance that resumes a stalled job claims it by saving first, and
+ * the instance it took the job from stops at its next save.
+ */
+public class DeleteJob implements Runnable {
+  /* Lifecycle of a delete job. */
+  public enum Status { RUNNING, DONE, FAILED }
+
+  private static final String JOB_METADATA_PREFIX = "delete-job:";
+  // Holds the ids of jobs that have not finished, as a JSON array.
+  private static final String RUNNING_JOBS_METADATA = JOB_METADATA_PREFIX + "running";
+  private static final int BATCH_SIZE = 500;
+  private static final Gson gson = new Gson();
+  private static final Logger logger = Logger.getLogger(DeleteJob.class.getName());
+
+  private final String id;
+  private volatile Status status;
+  private volatile long deleted;
+  private volatile String cursor;
+  private volatile long updated;
+
+  // Not serialised into saved progress or progress responses.
+  private transient CommentRepository repository;
+  private transient Runnable onBatchDeleted;
+  // The progress last saved or read, which the next save must replace.
+  private transient String saved;
+
+  private DeleteJob(String id) {
+    this.id = id;
+    this.status = Status.RUNNING;
+  }
+
+  /* Creates and saves a new job. onBatchDeleted runs after every committed batch. */
+  public static DeleteJob create(CommentRepository repository, Runnable onBatchDeleted) {
+    DeleteJob job = new DeleteJob(UUID.randomUUID().toString()).attach(repository, onBatchDeleted);
+    // Indexed first, so a job is never saved without being found again; ids left in the index
+    // without a saved job are dropped by findStalled.
+    updateRunning(repository, job.id, true);
+    job.save();
+    return job;
+  }
+
+  /* Loads a saved job, or returns null if there is no job with that id. */
+  public static DeleteJob load(CommentRepository repository, String id, Runnable onBatchDeleted) {
+    String json = repository.getMetadata(JOB_METADATA_PREFIX + id);
+    if (json == null) {
+      return null;
+    }
+    DeleteJob job = gson.fromJson(json, DeleteJob.class).attach(repository, onBatchDeleted);
+    job.saved = json;
+    return job;
+  }
+
+  /*
+   * Returns the jobs that are still running but have not saved progress for at least
+   * staleMillis, each claimed for this instance. Jobs another instance claimed or saved first
+   * are left out.
+   */
+  public static List<DeleteJob> findStalled(
+      CommentRepository repository, long staleMillis, Runnable onBatchDeleted) {
+    List<DeleteJob> stalled = new ArrayList<>();
+    for (String id : parseRunning(repository.getMetadata(RUNNING_JOBS_METADATA))) {
+      DeleteJob job = load(repository, id, onBatchDeleted);
+      if (job == null || job.status != Status.RUNNING) {
+        // Its instance went away between indexing and saving it, or after finishing it.
+        updateRunning(repository, id, false);
+      } else if (job.updated < System.currentTimeMillis() - staleMillis && job.save()) {
+        stalled.add(job);
+      }
+    }
+    return stalled;
+  }
+
+  public String getId() {
+    return id;
+  }
+
+  public Status getStatus() {
+    return status;
+  }
+
+  @Override
+  public void run() {
+    try {
+      while (true) {
+        CommentRepository.DeleteBatch batch = repository.deleteBatch(cursor, BATCH_SIZE);
+        if (batch.getDeleted() == 0) {
+          break;
+        }
+        deleted += batch.getDeleted();
+        cursor = batch.getCursor();
+        if (!save()) {
+          logger.warning("Delete job " + id + " was claimed by another instance");
+          return;
+        }
+        onBatchDeleted.run();
+      }
+      status = Status.DONE;
+    } catch (RuntimeException e) {
+      logger.log(Level.SEVERE, "Delete job " + id + " failed", e);
+      status = Status.FAILED;
+    }
+    if (save()) {
+      updateRunning(repository, id, false);
+    }
+  }
+
+  private DeleteJob attach(CommentRepository repository, Runnable onBatchDeleted) {
+    this.repository = repository;
+    this.onBatchDeleted = onBatchDeleted;
+    return this;
+  }
+
+  /* Saves progress, returning false if another instance saved the job since this one did. */
+  private boolean save() {
+    updated = System.currentTimeMillis();
+    String json = gson.toJson(this);
+    if (!repository.replaceMetadata(JOB_METADATA_PREFIX + id, saved, json)) {
+      return false;
+    }
+    saved = json;
+    return true;
+  }
+
+  /* Parses the running job index, which is null before the first job starts. */
+  private static Set<String> parseRunning(String json) {
+    return json == null
+        ? new LinkedHashSet<>()
+        : new LinkedHashSet<>(Arrays.asList(gson.fromJson(json, String[].class)));
+  }
+
+  /* Adds id to or removes it from the running job index, retrying if another instance races. */
+  private static void updateRunning(CommentRepository repository, String id, boolean running) {
+    while (true) {
+      String json = repository.getMetadata(RUNNING_JOBS_METADATA);
+      Set<String> ids = parseRunning(json);
+      if (!(running ? ids.add(id) : ids.remove(id))
+          || repository.replaceMetadata(RUNNING_JOBS_METADATA, json, gson.toJson(ids))) {
+        return;
+      }
+    }
+  }
+}
@@ -0,0 +1,348 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntPredicate;
+
+/*
+ * Inverted index over documents numbered 0, 1, 2, ... in the order they are added, with BM25
+ * ranking. Safe for concurrent searches while documents are being added.
+ */
+public class InvertedIndex {
+  private static final double K1 = 1.2;
+  private static final double B = 0.75;
+  private static final int INITIAL_DOCUMENTS = 16;
+
+  private final Tokenizer tokenizer;
+  private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+  private Map<String, PostingList> postings = new HashMap<>();
+  private int[] documentLengths = new int[INITIAL_DOCUMENTS];
+  private int documentCount;
+  private long totalLength;
+
+  public InvertedIndex(Tokenizer tokenizer) {
+    this.tokenizer = tokenizer;
+  }
+
+  /* Indexes the concatenation of fields as the next document and returns its number. */
+  public int add(String... fields) {
+    Map<String, Integer> frequencies = new HashMap<>();
+    int length = 0;
+    for (String field : fields) {
+      for (String term : tokenizer.tokenize(field)) {
+        frequencies.merge(term, 1, Integer::sum);
+        length++;
+      }
+    }
+
+    lock.writeLock().lock();
+    try {
+      int document = documentCount++;
+      if (document == documentLengths.length) {
+        documentLengths = Arrays.copyOf(
+            documentLengths, Math.max(INITIAL_DOCUMENTS, documentLengths.length * 2));
+      }
+      documentLengths[document] = length;
+      totalLength += length;
+      for (Map.Entry<String, Integer> entry : frequencies.entrySet()) {
+        postings.computeIfAbsent(entry.getKey(), term -> new PostingList())
+            .add(document, entry.getValue());
+      }
+      return document;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /* Returns up to limit documents matching any query term, best BM25 score first. */
+  public int[] search(String query, int limit) {
+    return search(query, limit, document -> true);
+  }
+
+  /*
+   * Like search(query, limit), but only considers documents accepted by filter. Scores are
+   * kept in a table sized to the postings of the query terms, so a query costs time and memory
+   * in proportion to the documents it matches rather than to the whole index.
+   */
+  public int[] search(String query, int limit, IntPredicate filter) {
+    lock.readLock().lock();
+    try {
+      List<PostingList> lists = new ArrayList<>();
+      long postingCount = 0;
+      for (String term : new LinkedHashSet<>(tokenizer.tokenize(query))) {
+        PostingList list = postings.get(term);
+        if (list != null) {
+          lists.add(list);
+          postingCount += list.getDocumentCount();
+        }
+      }
+
+      ScoreTable scores = new ScoreTable((int) Math.min(documentCount, postingCount));
+      double averageLength = documentCount == 0 ? 0 : (double) totalLength / documentCount;
+      for (PostingList list : lists) {
+        double df = list.getDocumentCount();
+        float idf = (float) Math.log(1 + (documentCount - df + 0.5) / (df + 0.5));
+
+        PostingList.Reader reader = list.reader();
+        while (reader.next()) {
+          int document = reader.document();
+          if (!filter.test(document)) {
+            continue;
+          }
+          int frequency = reader.frequency();
+          double norm = K1 * (1 - B + B * documentLengths[document] / averageLength);
+          scores.add(document, (float) (idf * frequency * (K1 + 1) / (frequency + norm)));
+        }
+      }
+      return scores.top(limit);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  public int getDocumentCount() {
+    lock.readLock().lock();
+    try {
+      return documentCount;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /* Bytes held by encoded postings, excluding the term dictionary itself. */
+  public long getPostingBytes() {
+    lock.readLock().lock();
+    try {
+      long bytes = 0;
+      for (PostingList list : postings.values()) {
+        bytes += list.getSizeInBytes();
+      }
+      return bytes;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /*
+   * Releases spare posting capacity, then drops the terms found in the most documents until the
+   * postings fit in maxPostingBytes. Those terms have the lowest idf, so they change rankings the
+   * least, but queries for them alone no longer match. Returns the number of terms dropped.
+   */
+  public int prune(long maxPostingBytes) {
+    lock.writeLock().lock();
+    try {
+      long bytes = 0;
+      for (PostingList list : postings.values()) {
+        list.trim();
+        bytes += list.getSizeInBytes();
+      }
+
+      List<Map.Entry<String, PostingList>> byDocumentCount = new ArrayList<>(postings.entrySet());
+      byDocumentCount.sort(Comparator.comparingInt(
+          (Map.Entry<String, PostingList> entry) -> entry.getValue().getDocumentCount())
+          .reversed());
+      int dropped = 0;
+      for (Map.Entry<String, PostingList> entry : byDocumentCount) {
+        if (bytes <= maxPostingBytes) {
+          break;
+        }
+        bytes -= entry.getValue().getSizeInBytes();
+        postings.remove(entry.getKey());
+        dropped++;
+      }
+      return dropped;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /* Number of distinct terms in the index. */
+  public int getTermCount() {
+    lock.readLock().lock();
+    try {
+      return postings.size();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /* Writes the documents and postings for readFrom. */
+  public void writeTo(DataOutputStream out) throws IOException {
+    lock.readLock().lock();
+    try {
+      out.writeInt(documentCount);
+      out.writeLong(totalLength);
+      for (int i = 0; i < documentCount; i++) {
+        out.writeInt(documentLengths[i]);
+      }
+      out.writeInt(postings.size());
+      for (Map.Entry<String, PostingList> entry : postings.entrySet()) {
+        byte[] term = entry.getKey().getBytes(StandardCharsets.UTF_8);
+        out.writeInt(term.length);
+        out.write(term);
+        entry.getValue().writeTo(out);
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /*
+   * Reads an index written by writeTo, advancing buffer past it. Queries are tokenized by
+   * tokenizer, which should match the one the documents were indexed with.
+   */
+  public static InvertedIndex readFrom(ByteBuffer buffer, Tokenizer tokenizer) {
+    InvertedIndex index = new InvertedIndex(tokenizer);
+    index.documentCount = buffer.getInt();
+    index.totalLength = buffer.getLong();
+    index.documentLengths = SnapshotFile.getInts(buffer, index.documentCount);
+    int termCount = buffer.getInt();
+    index.postings = new HashMap<>(termCount * 4 / 3 + 1);
+    for (int i = 0; i < termCount; i++) {
+      String term = new String(
+          SnapshotFile.getBytes(buffer, buffer.getInt()), StandardCharsets.UTF_8);
+      index.postings.put(term, PostingList.readFrom(buffer));
+    }
+    return index;
+  }
+
+  public void clear() {
+    lock.writeLock().lock();
+    try {
+      postings = new HashMap<>();
+      documentLengths = new int[INITIAL_DOCUMENTS];
+      documentCount = 0;
+      totalLength = 0;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /*
+   * Scores of the documents matched by one query, in an open-addressed table with linear
+   * probing. It is sized for a bound on the documents added and is never resized.
+   */
+  private static class ScoreTable {
+    private static final int EMPTY = -1;
+
+    private final int[] documents;
+    private final float[] scores;
+    private final int mask;
+    private final int shift;
+    private int size;
+
+    /* Creates a table for at most maxDocuments distinct documents, at most half full. */
+    private ScoreTable(int maxDocuments) {
+      int capacity = Integer.highestOneBit(Math.max(1, maxDocuments)) * 4;
+      documents = new int[capacity];
+      Arrays.fill(documents, EMPTY);
+      scores = new float[capacity];
+      mask = capacity - 1;
+      shift = 32 - Integer.numberOfTrailingZeros(capacity);
+    }
+
+    /* Adds score to the document's total. */
+    private void add(int document, float score) {
+      // Multiplicative hashing spreads runs of nearby document numbers across the table.
+      int slot = (document * 0x9e3779b9) >>> shift;
+      while (documents[slot] != document) {
+        if (documents[slot] == EMPTY) {
+          documents[slot] = document;
+          size++;
+          break;
+        }
+        slot = (slot + 1) & mask;
+      }
+      scores[slot] += score;
+    }
+
+    /* Returns the limit best-scoring documents, best first, using a bounded min-heap. */
+    private int[] top(int limit) {
+      int[] heap = new int[Math.min(limit, size)];
+      int heapSize = 0;
+      for (int slot = 0; slot < documents.length; slot++) {
+        if (documents[slot] == EMPTY) {
+          continue;
+        }
+        if (heapSize < heap.length) {
+          heap[heapSize++] = slot;
+          siftUp(heap, heapSize - 1, scores);
+        } else if (heap.length > 0 && scores[slot] > scores[heap[0]]) {
+          heap[0] = slot;
+          siftDown(heap, heapSize, scores);
+        }
+      }
+
+      // Repeatedly move the worst remaining document to the end.
+      for (int end = heapSize - 1; end > 0; end--) {
+        int worst = heap[0];
+        heap[0] = heap[end];
+        heap[end] = worst;
+        siftDown(heap, end, scores);
+      }
+      int[] top = new int[heapSize];
+      for (int i = 0; i < heapSize; i++) {
+        top[i] = documents[heap[i]];
+      }
+      return top;
+    }
+  }
+
+  private static void siftUp(int[] heap, int index, float[] scores) {
+    while (index > 0) {
+      int parent = (index - 1) / 2;
+      if (scores[heap[parent]] <= scores[heap[index]]) {
+        return;
+      }
+      swap(heap, parent, index);
+      index = parent;
+    }
+  }
+
+  private static void siftDown(int[] heap, int size, float[] scores) {
+    int index = 0;
+    while (true) {
+      int smallest = index;
+      for (int child = 2 * index + 1; child <= 2 * index + 2 && child < size; child++) {
+        if (scores[heap[child]] < scores[heap[smallest]]) {
+          smallest = child;
+        }
+      }
+      if (smallest == index) {
+        return;
+      }
+      swap(heap, smallest, index);
+      index = smallest;
+    }
+  }
+
+  private static void swap(int[] array, int i, int j) {
+    int temp = array[i];
+    array[i] = array[j];
+    array[j] = temp;
+  }
+}
@@ -0,0 +1,209 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+
+/*
+ * Static k-d tree for nearest-neighbour queries over points on the Earth. Points are stored as
+ * 3D unit vectors, where straight-line (chord) distance orders points the same way as great
+ * circle distance, so a plain Euclidean k-d tree gives exact haversine neighbours. The tree is
+ * implicit: the median of each range is its root, with its coordinates in direct buffers, off
+ * the heap, in node order.
+ */
+public class KdTree {
+  private static final double EARTH_RADIUS_METERS = 6371008.8;
+
+  private final DoubleBuffer xs;
+  private final DoubleBuffer ys;
+  private final DoubleBuffer zs;
+  // Original index of the point at each node.
+  private final IntBuffer points;
+
+  /* Builds a tree over the points of store, whose coordinates are in degrees. */
+  public KdTree(PointStore store) {
+    int size = store.size();
+    double[][] coordinates = new double[3][size];
+    int[] order = new int[size];
+    for (int i = 0; i < size; i++) {
+      double lat = Math.toRadians(store.getLat(i));
+      double lng = Math.toRadians(store.getLng(i));
+      coordinates[0][i] = Math.cos(lat) * Math.cos(lng);
+      coordinates[1][i] = Math.cos(lat) * Math.sin(lng);
+      coordinates[2][i] = Math.sin(lat);
+      order[i] = i;
+    }
+    build(order, coordinates, 0, size, 0);
+
+    xs = PointStore.allocateDoubles(size);
+    ys = PointStore.allocateDoubles(size);
+    zs = PointStore.allocateDoubles(size);
+    points = PointStore.allocateInts(size);
+    for (int node = 0; node < size; node++) {
+      xs.put(node, coordinates[0][order[node]]);
+      ys.put(node, coordinates[1][order[node]]);
+      zs.put(node, coordinates[2][order[node]]);
+      points.put(node, order[node]);
+    }
+  }
+
+  public int size() {
+    return points.capacity();
+  }
+
+  /*
+   * Finds the nearest neighbours of (lat, lng), up to as many as nearest has room for. Their
+   * indices go into nearest and their great circle distances in meters into distances, closest
+   * first. Returns the number found, which is less than nearest.length only if the tree holds
+   * fewer points.
+   */
+  public int nearest(double lat, double lng, int[] nearest, double[] distances) {
+    double latRadians = Math.toRadians(lat);
+    double lngRadians = Math.toRadians(lng);
+    double x = Math.cos(latRadians) * Math.cos(lngRadians);
+    double y = Math.cos(latRadians) * Math.sin(lngRadians);
+    double z = Math.sin(latRadians);
+
+    // nearest and distances hold a max-heap on squared chord length while searching.
+    int found = search(0, points.capacity(), 0, x, y, z, nearest, distances, 0);
+
+    // Sort the heap in place, closest first, and convert chord lengths to distances.
+    for (int end = found - 1; end > 0; end--) {
+      swap(nearest, distances, 0, end);
+      siftDown(nearest, distances, 0, end);
+    }
+    for (int i = 0; i < found; i++) {
+      distances[i] = 2 * EARTH_RADIUS_METERS * Math.asin(Math.min(1, Math.sqrt(distances[i]) / 2));
+    }
+    return found;
+  }
+
+  private int search(int low, int high, int depth, double x, double y, double z, int[] heap,
+      double[] heapDistances, int heapSize) {
+    if (low >= high) {
+      return heapSize;
+    }
+    int node = (low + high) >>> 1;
+    double nodeX = xs.get(node);
+    double nodeY = ys.get(node);
+    double nodeZ = zs.get(node);
+    double dx = nodeX - x;
+    double dy = nodeY - y;
+    double dz = nodeZ - z;
+    double distance = dx * dx + dy * dy + dz * dz;
+    if (heapSize < heap.length) {
+      heap[heapSize] = points.get(node);
+      heapDistances[heapSize] = distance;
+      siftUp(heap, heapDistances, heapSize++);
+    } else if (heap.length > 0 && distance < heapDistances[0]) {
+      heap[0] = points.get(node);
+      heapDistances[0] = distance;
+      siftDown(heap, heapDistances, 0, heapSize);
+    }
+
+    int axis = depth % 3;
+    double offset = axis == 0 ? x - nodeX : axis == 1 ? y - nodeY : z - nodeZ;
+    int nearLow = offset < 0 ? low : node + 1;
+    int nearHigh = offset < 0 ? node : high;
+    int farLow = offset < 0 ? node + 1 : low;
+    int farHigh = offset < 0 ? high : node;
+    heapSize = search(nearLow, nearHigh, depth + 1, x, y, z, heap, heapDistances, heapSize);
+    // The far side can only hold a closer point if the splitting plane is closer.
+    if (heapSize < heap.length || offset * offset < heapDistances[0]) {
+      heapSize = search(farLow, farHigh, depth + 1, x, y, z, heap, heapDistances, heapSize);
+    }
+    return heapSize;
+  }
+
+  /* Arranges order[low, high) so each range's median on its axis sits at the range's middle. */
+  private static void build(int[] order, double[][] coordinates, int low, int high, int depth) {
+    if (high - low <= 1) {
+      return;
+    }
+    int middle = (low + high) >>> 1;
+    select(order, coordinates[depth % 3], low, high - 1, middle);
+    build(order, coordinates, low, middle, depth + 1);
+    build(order, coordinates, middle + 1, high, depth + 1);
+  }
+
+  /* Quickselect: partitions order[left, right] around the element that belongs at nth. */
+  private static void select(int[] order, double[] keys, int left, int right, int nth) {
+    while (right > left) {
+      double pivot = keys[order[(left + right) >>> 1]];
+      int i = left;
+      int j = right;
+      while (i <= j) {
+        while (keys[order[i]] < pivot) {
+          i++;
+        }
+        while (keys[order[j]] > pivot) {
+          j--;
+        }
+        if (i <= j) {
+          int swap = order[i];
+          order[i++] = order[j];
+          order[j--] = swap;
+        }
+      }
+      if (nth <= j) {
+        right = j;
+      } else if (nth >= i) {
+        left = i;
+      } else {
+        return;
+      }
+    }
+  }
+
+  private static void siftUp(int[] heap, double[] distances, int child) {
+    while (child > 0) {
+      int parent = (child - 1) / 2;
+      if (distances[parent] >= distances[child]) {
+        return;
+      }
+      swap(heap, distances, parent, child);
+      child = parent;
+    }
+  }
+
+  private static void siftDown(int[] heap, double[] distances, int parent, int size) {
+    while (true) {
+      int largest = parent;
+      int left = 2 * parent + 1;
+      int right = left + 1;
+      if (left < size && distances[left] > distances[largest]) {
+        largest = left;
+      }
+      if (right < size && distances[right] > distances[largest]) {
+        largest = right;
+      }
+      if (largest == parent) {
+        return;
+      }
+      swap(heap, distances, parent, largest);
+      parent = largest;
+    }
+  }
+
+  private static void swap(int[] heap, double[] distances, int i, int j) {
+    int point = heap[i];
+    heap[i] = heap[j];
+    heap[j] = point;
+    double distance = distances[i];
+    distances[i] = distances[j];
+    distances[j] = distance;
+  }
+}
@@ -0,0 +1,568 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/*
+ * Comment repository backed by a single append-only log file, for local load testing and small
+ * deployments that should not depend on Datastore.
+ *
+ * Every change is appended as a checksummed record. Writers hand records to one committer
+ * thread, which appends whatever has queued up and syncs once for the whole group. Reads go
+ * through a read-only memory map of the file using an in-memory index of record offsets. The
+ * file is grown ahead of the records, doubling each time, so the map is only replaced a few
+ * times as the log grows; the zeroed tail is dropped on close or recovery. When more than half
+ * the file is superseded records, the committer rewrites the live ones into a fresh file and
+ * swaps it in.
+ *
+ * If a group of records cannot be appended, the log is left in an unknown state, so that write
+ * and every later one fails rather than risking a log that no longer matches the index.
+ *
+ * The log must only be opened by one process at a time, so the comment version is kept in
+ * memory: a restart empties every cache that depends on it anyway.
+ */
+public class LogCommentRepository implements CommentRepository, Closeable {
+  private static final byte COMMENT_RECORD = 1;
+  private static final byte DELETE_RECORD = 2;
+  private static final byte METADATA_RECORD = 3;
+  // Record length and CRC32, both covering the type byte and payload.
+  private static final int HEADER_BYTES = 8;
+  private static final int MAX_GROUP_SIZE = 512;
+  private static final long COMPACT_MIN_DEAD_BYTES = 1 << 20;
+  private static final long MIN_MAP_BYTES = 1 << 20;
+  private static final String COMPACT_SUFFIX = ".compact";
+  // Queued by close to stop the committer once everything before it is committed.
+  private static final PendingWrite CLOSE = new PendingWrite(new byte[0]);
+  private static final Logger logger = Logger.getLogger(LogCommentRepository.class.getName());
+
+  private final Path path;
+  private final Thread committer;
+  private final BlockingQueue<PendingWrite> pending = new LinkedBlockingQueue<>();
+  // Held for reading while offsets are dereferenced, and for writing while compaction swaps files.
+  private final ReentrantReadWriteLock segmentLock = new ReentrantReadWriteLock();
+  private final ConcurrentSkipListMap<Long, Long> commentOffsets = new ConcurrentSkipListMap<>();
+  private final ConcurrentHashMap<String, String> metadata = new ConcurrentHashMap<>();
+  private final AtomicLong nextId = new AtomicLong(1);
+  private final AtomicLong version = new AtomicLong();
+
+  private FileChannel channel;
+  private MappedByteBuffer mapped;
+  private volatile long committedLength;
+  // Why the committer stopped appending, or null while it is healthy.
+  private volatile Throwable failure;
+
+  // Only touched by the committer thread once the constructor returns.
+  private long liveBytes;
+  private final Map<String, Integer> metadataRecordBytes = new HashMap<>();
+
+  /* A record waiting for the committer, completed once it is synced and indexed. */
+  private static class PendingWrite {
+    private final byte[] record;
+    private final CompletableFuture<Void> committed = new CompletableFuture<>();
+
+    private PendingWrite(byte[] record) {
+      this.record = record;
+    }
+  }
+
+  /* Opens or creates the log at path, dropping any torn record left at its end. */
+  public LogCommentRepository(Path path) {
+    this.path = path;
+    try {
+      channel = FileChannel.open(
+          path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+      recover();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+
+    committer = new Thread(this::runCommitter, "comment-log-committer");
+    committer.setDaemon(true);
+    committer.start();
+  }
+
+  @Override
+  public Comment add(Comment comment) {
+    Comment stored = comment.withId(nextId.getAndIncrement());
+    commit(encodeComment(stored));
+    return stored;
+  }
+
+  @Override
+  public List<Comment> list(int limit) {
+    List<Comment> comments = new ArrayList<>();
+    segmentLock.readLock().lock();
+    try {
+      ByteBuffer log = mapping();
+      for (long offset : commentOffsets.values()) {
+        if (limit > 0 && comments.size() == limit) {
+          break;
+        }
+        comments.add(readComment(log, offset));
+      }
+    } finally {
+      segmentLock.readLock().unlock();
+    }
+    return comments;
+  }
+
+  @Override
+  public List<Comment> get(List<Long> ids) {
+    List<Comment> comments = new ArrayList<>(ids.size());
+    segmentLock.readLock().lock();
+    try {
+      ByteBuffer log = mapping();
+      for (long id : ids) {
+        Long offset = commentOffsets.get(id);
+        if (offset != null) {
+          comments.add(readComment(log, offset));
+        }
+      }
+    } finally {
+      segmentLock.readLock().unlock();
+    }
+    return comments;
+  }
+
+  @Override
+  public DeleteBatch deleteBatch(String cursor, int batchSize) {
+    long after = cursor == null ? 0 : Long.parseLong(cursor);
+    List<byte[]> records = new ArrayList<>();
+    for (long id : commentOffsets.tailMap(after, false).keySet()) {
+      if (records.size() == batchSize) {
+        break;
+      }
+      records.add(encodeDelete(id));
+      after = id;
+    }
+    commit(records.toArray(new byte[0][]));
+    return new DeleteBatch(records.size(), Long.toString(after));
+  }
+
+  @Override
+  public long getVersion() {
+    return version.get();
+  }
+
+  @Override
+  public long incrementVersion() {
+    return version.incrementAndGet();
+  }
+
+  @Override
+  public String getMetadata(String name) {
+    return metadata.get(name);
+  }
+
+  @Override
+  public void putMetadata(String name, String value) {
+    synchronized (metadata) {
+      commit(encodeMetadata(name, value));
+    }
+  }
+
+  @Override
+  public boolean replaceMetadata(String name, String expected, String value) {
+    // Metadata writes are serialised, so nothing can change the value between check and commit.
+    synchronized (metadata) {
+      if (!Objects.equals(metadata.get(name), expected)) {
+        return false;
+      }
+      commit(encodeMetadata(name, value));
+      return true;
+    }
+  }
+
+  /*
+   * Waits for every queued write and any compaction it triggers, then closes the log. The
+   * repository must not be used afterwards.
+   */
+  @Override
+  public void close() throws IOException {
+    pending.add(CLOSE);
+    try {
+      committer.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted waiting for comment log to close", e);
+    }
+    if (failure == null) {
+      channel.truncate(committedLength);
+    }
+    channel.close();
+  }
+
+  /*
+   * Queues records for the committer and waits until all of them are durable. Fails at once if
+   * an earlier write has failed.
+   */
+  private void commit(byte[]... records) {
+    Throwable failed = failure;
+    if (failed != null) {
+      throw writeFailure(failed);
+    }
+    List<PendingWrite> writes = new ArrayList<>(records.length);
+    for (byte[] record : records) {
+      writes.add(new PendingWrite(record));
+    }
+    pending.addAll(writes);
+
+    try {
+      for (PendingWrite write : writes) {
+        write.committed.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted waiting for comment log commit", e);
+    } catch (ExecutionException e) {
+      throw writeFailure(e.getCause());
+    }
+  }
+
+  private static RuntimeException writeFailure(Throwable cause) {
+    if (cause instanceof IOException) {
+      return new UncheckedIOException("Comment log write failed", (IOException) cause);
+    }
+    return new IllegalStateException("Comment log write failed", cause);
+  }
+
+  private void runCommitter() {
+    List<PendingWrite> group = new ArrayList<>();
+    while (true) {
+      try {
+        group.add(pending.take());
+      } catch (InterruptedException e) {
+        return;
+      }
+      pending.drainTo(group, MAX_GROUP_SIZE - 1);
+      boolean closing = group.remove(CLOSE);
+
+      // Writes queued before commit saw an earlier failure fail with it.
+      Throwable failed = failure;
+      if (failed == null && !group.isEmpty()) {
+        try {
+          appendGroup(group);
+        } catch (IOException | RuntimeException e) {
+          logger.log(Level.SEVERE, "Could not append to comment log " + path, e);
+          failure = e;
+          failed = e;
+        }
+      }
+      for (PendingWrite write : group) {
+        if (failed == null) {
+          write.committed.complete(null);
+        } else {
+          write.committed.completeExceptionally(failed);
+        }
+      }
+      group.clear();
+
+      if (failed == null
+          && committedLength - liveBytes > Math.max(COMPACT_MIN_DEAD_BYTES, liveBytes)) {
+        try {
+          compact();
+        } catch (IOException | RuntimeException e) {
+          // The current log is kept, and compaction is retried after the next group.
+          logger.log(Level.WARNING, "Could not compact comment log " + path, e);
+        }
+      }
+      if (closing) {
+        return;
+      }
+    }
+  }
+
+  /* Appends a group of records with a single write and sync, then indexes them. */
+  private void appendGroup(List<PendingWrite> group) throws IOException {
+    ByteBuffer[] buffers = new ByteBuffer[group.size()];
+    for (int i = 0; i < buffers.length; i++) {
+      buffers[i] = ByteBuffer.wrap(group.get(i).record);
+    }
+    long offset = committedLength;
+    channel.position(offset);
+    while (buffers[buffers.length - 1].hasRemaining()) {
+      channel.write(buffers);
+    }
+    channel.force(false);
+    committedLength = channel.position();
+
+    segmentLock.readLock().lock();
+    try {
+      ByteBuffer log = mapping();
+      for (PendingWrite write : group) {
+        apply(log, offset);
+        offset += write.record.length;
+      }
+    } finally {
+      segmentLock.readLock().unlock();
+    }
+  }
+
+  /* Rebuilds the index by scanning the log, truncating it after the last intact record. */
+  private void recover() throws IOException {
+    long size = channel.size();
+    checkMappable(size);
+    ByteBuffer log = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+    long offset = 0;
+    while (offset + HEADER_BYTES <= size) {
+      int length = log.getInt((int) offset);
+      if (length <= 0 || offset + HEADER_BYTES + length > size
+          || log.getInt((int) offset + 4) != checksum(log, (int) offset + HEADER_BYTES, length)) {
+        break;
+      }
+      apply(log, offset);
+      offset += HEADER_BYTES + length;
+    }
+
+    if (offset < size) {
+      channel.truncate(offset);
+    }
+    committedLength = offset;
+  }
+
+  /* Updates the in-memory index for the record at offset in log. */
+  private void apply(ByteBuffer log, long offset) {
+    ByteBuffer record = log.duplicate();
+    record.position((int) offset);
+    int size = HEADER_BYTES + record.getInt();
+    record.getInt();
+    byte type = record.get();
+
+    if (type == COMMENT_RECORD) {
+      long id = record.getLong();
+      commentOffsets.put(id, offset);
+      nextId.accumulateAndGet(id + 1, Math::max);
+      liveBytes += size;
+    } else if (type == DELETE_RECORD) {
+      Long deletedOffset = commentOffsets.remove(record.getLong());
+      if (deletedOffset != null) {
+        liveBytes -= HEADER_BYTES + log.getInt(deletedOffset.intValue());
+      }
+    } else if (type == METADATA_RECORD) {
+      String name = readString(record);
+      metadata.put(name, readString(record));
+      Integer previousBytes = metadataRecordBytes.put(name, size);
+      liveBytes += size - (previousBytes == null ? 0 : previousBytes);
+    }
+  }
+
+  /* Rewrites live records into a new file and swaps it in place of the current log. */
+  private void compact() throws IOException {
+    Path compacted = path.resolveSibling(path.getFileName() + COMPACT_SUFFIX);
+    TreeMap<Long, Long> offsets = new TreeMap<>();
+    Map<String, Integer> recordBytes = new HashMap<>();
+    long length = 0;
+
+    try (FileChannel out = FileChannel.open(compacted, StandardOpenOption.CREATE,
+             StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      ByteBuffer log;
+      segmentLock.readLock().lock();
+      try {
+        log = mapping().duplicate();
+      } finally {
+        segmentLock.readLock().unlock();
+      }
+
+      // Only the committer mutates the index, so it cannot change while we copy.
+      for (Map.Entry<Long, Long> entry : commentOffsets.entrySet()) {
+        int offset = entry.getValue().intValue();
+        int size = HEADER_BYTES + log.getInt(offset);
+        log.limit(offset + size).position(offset);
+        length += writeFully(out, log);
+        log.clear();
+        offsets.put(entry.getKey(), length - size);
+      }
+      for (Map.Entry<String, String> entry : metadata.entrySet()) {
+        byte[] record = encodeMetadata(entry.getKey(), entry.getValue());
+        length += writeFully(out, ByteBuffer.wrap(record));
+        recordBytes.put(entry.getKey(), record.length);
+      }
+      out.force(true);
+    }
+
+    segmentLock.writeLock().lock();
+    try {
+      channel.close();
+      try {
+        Files.move(compacted, path, StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+      } finally {
+        // Reopens the old log if the move failed, leaving the index matching it.
+        channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        mapped = null;
+      }
+      commentOffsets.clear();
+      commentOffsets.putAll(offsets);
+      metadataRecordBytes.clear();
+      metadataRecordBytes.putAll(recordBytes);
+      committedLength = length;
+      liveBytes = length;
+    } finally {
+      segmentLock.writeLock().unlock();
+    }
+  }
+
+  /*
+   * Returns a mapping covering every committed record. Callers hold the segment read lock. The
+   * mapping extends to twice the committed length, growing the file with zeros to match, so
+   * it is replaced only when the log has doubled rather than after every commit.
+   */
+  private ByteBuffer mapping() {
+    long length = committedLength;
+    synchronized (this) {
+      if (mapped == null || mapped.capacity() < length) {
+        checkMappable(length);
+        long capacity = Math.min(Integer.MAX_VALUE, Math.max(MIN_MAP_BYTES, 2 * length));
+        try {
+          if (channel.size() < capacity) {
+            // A positional write, so it cannot move the committer's append position.
+            channel.write(ByteBuffer.allocate(1), capacity - 1);
+          }
+          mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, capacity);
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      }
+      return mapped;
+    }
+  }
+
+  private static Comment readComment(ByteBuffer log, long offset) {
+    ByteBuffer record = log.duplicate();
+    record.position((int) offset + HEADER_BYTES + 1);
+    long id = record.getLong();
+    float sentiment = record.getFloat();
+    boolean flagged = record.get() != 0;
+    String name = readString(record);
+    String content = readString(record);
+    return new Comment(id, name, content, sentiment, flagged);
+  }
+
+  private static byte[] encodeComment(Comment comment) {
+    return encode(COMMENT_RECORD, out -> {
+      out.writeLong(comment.getId());
+      out.writeFloat(comment.getSentiment());
+      out.writeBoolean(comment.isFlagged());
+      writeString(out, comment.getName());
+      writeString(out, comment.getContent());
+    });
+  }
+
+  private static byte[] encodeDelete(long id) {
+    return encode(DELETE_RECORD, out -> out.writeLong(id));
+  }
+
+  private static byte[] encodeMetadata(String name, String value) {
+    return encode(METADATA_RECORD, out -> {
+      writeString(out, name);
+      writeString(out, value);
+    });
+  }
+
+  /* Writes the payload of one record. */
+  private interface PayloadWriter {
+    void write(DataOutputStream out) throws IOException;
+  }
+
+  /* Frames a record as length, CRC32, type byte and payload. */
+  private static byte[] encode(byte type, PayloadWriter payload) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      out.writeLong(0);
+      out.writeByte(type);
+      payload.write(out);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+
+    ByteBuffer record = ByteBuffer.wrap(bytes.toByteArray());
+    int length = record.capacity() - HEADER_BYTES;
+    record.putInt(0, length);
+    record.putInt(4, checksum(record, HEADER_BYTES, length));
+    return record.array();
+  }
+
+  private static int checksum(ByteBuffer buffer, int position, int length) {
+    ByteBuffer bytes = buffer.duplicate();
+    bytes.limit(position + length).position(position);
+    CRC32 crc = new CRC32();
+    crc.update(bytes);
+    return (int) crc.getValue();
+  }
+
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    if (value == null) {
+      out.writeInt(-1);
+      return;
+    }
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(ByteBuffer buffer) {
+    int length = buffer.getInt();
+    if (length < 0) {
+      return null;
+    }
+    byte[] bytes = new byte[length];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static long writeFully(FileChannel out, ByteBuffer buffer) throws IOException {
+    long written = 0;
+    while (buffer.hasRemaining()) {
+      written += out.write(buffer);
+    }
+    return written;
+  }
+
+  private static void checkMappable(long length) {
+    if (length > Integer.MAX_VALUE) {
+      throw new IllegalStateException("Comment log is too large to map: " + length + " bytes");
+    }
+  }
+}
@@ -0,0 +1,202 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Spots comments that are near-copies of ones posted recently. Each text gets a 64-bit SimHash
+ * over its words and word pairs, so small edits only flip a few bits: swapping one word
+ * typically moves a fingerprint about 7 bits, while unrelated texts differ in 17 or more.
+ * Fingerprints are indexed by eight 8-bit bands, and only entries sharing a band value with the
+ * new text are compared. Fingerprints within 7 bits always share a band; at the default limit
+ * of 12 bits most do.
+ *
+ * Memory is bounded by a fixed-size ring of fingerprints, oldest first, which also expire after
+ * a time window.
+ */
+public class NearDuplicateDetector {
+  /* What DataServlet does with a near-duplicate. */
+  public enum Action { REJECT, FLAG }
+
+  private static final int BANDS = 8;
+  private static final int BAND_BITS = 64 / BANDS;
+  private static final long BAND_MASK = (1L << BAND_BITS) - 1;
+  private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+  private static final long FNV_PRIME = 0x100000001b3L;
+
+  private static final NearDuplicateDetector instance = new NearDuplicateDetector(
+      Integer.getInteger("comments.dedup.max-distance", 12),
+      Integer.getInteger("comments.dedup.min-terms", 5),
+      Integer.getInteger("comments.dedup.capacity", 100_000),
+      Long.getLong("comments.dedup.window-seconds", 600) * 1000,
+      Action.valueOf(System.getProperty("comments.dedup.action", "reject").toUpperCase()));
+
+  private final Tokenizer tokenizer = new Tokenizer();
+  private final int maxDistance;
+  private final int minTerms;
+  private final long windowMillis;
+  private final Action action;
+
+  // Ring of recent fingerprints; slot head is the oldest of size entries.
+  private final long[] fingerprints;
+  private final long[] addedMillis;
+  private int head;
+  private int size;
+  // Ring slots holding each band value, oldest first.
+  private final Map<Long, ArrayDeque<Integer>> buckets = new HashMap<>();
+
+  /*
+   * Texts within maxDistance bits of a recent one are near-duplicates; texts with fewer than
+   * minTerms terms are never checked. Up to capacity fingerprints are kept for windowMillis.
+   */
+  public NearDuplicateDetector(
+      int maxDistance, int minTerms, int capacity, long windowMillis, Action action) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("Capacity must be at least 1: " + capacity);
+    }
+    this.maxDistance = maxDistance;
+    this.minTerms = minTerms;
+    this.windowMillis = windowMillis;
+    this.action = action;
+    this.fingerprints = new long[capacity];
+    this.addedMillis = new long[capacity];
+  }
+
+  /* Returns the detector configured by the comments.dedup.* system properties. */
+  public static NearDuplicateDetector getInstance() {
+    return instance;
+  }
+
+  public Action getAction() {
+    return action;
+  }
+
+  /*
+   * Returns true if text is a near-duplicate of a recently recorded text. Texts are only
+   * recorded by record, so a text that is never stored is never matched against.
+   */
+  public synchronized boolean check(String text) {
+    List<String> terms = tokenizer.tokenize(text);
+    if (terms.size() < minTerms) {
+      return false;
+    }
+
+    evict(System.currentTimeMillis(), false);
+    long fingerprint = simHash(terms);
+    for (int band = 0; band < BANDS; band++) {
+      ArrayDeque<Integer> bucket = buckets.get(bandKey(fingerprint, band));
+      if (bucket == null) {
+        continue;
+      }
+      for (int slot : bucket) {
+        if (Long.bitCount(fingerprint ^ fingerprints[slot]) <= maxDistance) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /* Remembers text, once it has been stored, so that near-copies of it are caught. */
+  public synchronized void record(String text) {
+    List<String> terms = tokenizer.tokenize(text);
+    if (terms.size() < minTerms) {
+      return;
+    }
+
+    long now = System.currentTimeMillis();
+    evict(now, true);
+    long fingerprint = simHash(terms);
+    int slot = (head + size) % fingerprints.length;
+    fingerprints[slot] = fingerprint;
+    addedMillis[slot] = now;
+    size++;
+    for (int band = 0; band < BANDS; band++) {
+      buckets.computeIfAbsent(bandKey(fingerprint, band), key -> new ArrayDeque<>()).addLast(slot);
+    }
+  }
+
+  /* Drops expired fingerprints, and the oldest one if the ring is full and makeRoom is set. */
+  private void evict(long now, boolean makeRoom) {
+    while (size > 0
+        && ((makeRoom && size == fingerprints.length) || addedMillis[head] < now - windowMillis)) {
+      for (int band = 0; band < BANDS; band++) {
+        Long key = bandKey(fingerprints[head], band);
+        ArrayDeque<Integer> bucket = buckets.get(key);
+        // Slots enter every bucket in ring order, so the oldest is always first.
+        bucket.pollFirst();
+        if (bucket.isEmpty()) {
+          buckets.remove(key);
+        }
+      }
+      head = (head + 1) % fingerprints.length;
+      size--;
+    }
+  }
+
+  /* SimHash over every term and every pair of adjacent terms. */
+  private static long simHash(List<String> terms) {
+    int[] weights = new int[64];
+    for (int i = 0; i < terms.size(); i++) {
+      long termHash = hash(terms.get(i), FNV_OFFSET);
+      addFeature(weights, mix(termHash));
+      if (i + 1 < terms.size()) {
+        addFeature(weights, mix(hash(terms.get(i + 1), termHash * FNV_PRIME)));
+      }
+    }
+
+    long fingerprint = 0;
+    for (int bit = 0; bit < 64; bit++) {
+      if (weights[bit] > 0) {
+        fingerprint |= 1L << bit;
+      }
+    }
+    return fingerprint;
+  }
+
+  private static void addFeature(int[] weights, long hash) {
+    for (int bit = 0; bit < 64; bit++) {
+      weights[bit] += ((hash >>> bit) & 1) == 1 ? 1 : -1;
+    }
+  }
+
+  /* FNV-1a over the characters of term, continuing from seed. */
+  private static long hash(String term, long seed) {
+    long hash = seed;
+    for (int i = 0; i < term.length(); i++) {
+      hash ^= term.charAt(i);
+      hash *= FNV_PRIME;
+    }
+    return hash;
+  }
+
+  /* Spreads FNV output across all 64 bits (MurmurHash3 finaliser). */
+  private static long mix(long hash) {
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53L;
+    hash ^= hash >>> 33;
+    return hash;
+  }
+
+  private static Long bandKey(long fingerprint, int band) {
+    return ((long) band << BAND_BITS) | ((fingerprint >>> (band * BAND_BITS)) & BAND_MASK);
+  }
+}
@@ -0,0 +1,183 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+import java.util.function.IntToDoubleFunction;
+
+/*
+ * Static R-tree over points, packed bottom-up after sorting the points along a Hilbert curve so
+ * that nearby points share leaves. Every node is a bounding box in flat direct buffers, off the
+ * heap, and a box query visits O(log n + k) nodes.
+ */
+public class PackedRTree {
+  private static final int NODE_SIZE = 16;
+  private static final int HILBERT_ORDER = 16;
+  private static final int HILBERT_MAX = (1 << HILBERT_ORDER) - 1;
+
+  private final int size;
+  // Bounding boxes of leaves (the points themselves) followed by each level of parents.
+  private final DoubleBuffer minX;
+  private final DoubleBuffer minY;
+  private final DoubleBuffer maxX;
+  private final DoubleBuffer maxY;
+  // For leaves, the index of the point; for parents, the position of their first child.
+  private final IntBuffer children;
+  // Position of the first node of each level, ending with the total node count.
+  private final int[] levelStarts;
+
+  /* Builds a tree over the points (xs(i), ys(i)) for i from 0 to size - 1. */
+  public PackedRTree(int size, IntToDoubleFunction xs, IntToDoubleFunction ys) {
+    this.size = size;
+    double extentMinX = Double.POSITIVE_INFINITY;
+    double extentMinY = Double.POSITIVE_INFINITY;
+    double extentMaxX = Double.NEGATIVE_INFINITY;
+    double extentMaxY = Double.NEGATIVE_INFINITY;
+    for (int i = 0; i < size; i++) {
+      extentMinX = Math.min(extentMinX, xs.applyAsDouble(i));
+      extentMinY = Math.min(extentMinY, ys.applyAsDouble(i));
+      extentMaxX = Math.max(extentMaxX, xs.applyAsDouble(i));
+      extentMaxY = Math.max(extentMaxY, ys.applyAsDouble(i));
+    }
+
+    // Sort points by Hilbert value, keeping their index in the low bits of the sort key.
+    long[] keys = new long[size];
+    double width = Math.max(extentMaxX - extentMinX, Double.MIN_VALUE);
+    double height = Math.max(extentMaxY - extentMinY, Double.MIN_VALUE);
+    for (int i = 0; i < size; i++) {
+      int hx = (int) (HILBERT_MAX * (xs.applyAsDouble(i) - extentMinX) / width);
+      int hy = (int) (HILBERT_MAX * (ys.applyAsDouble(i) - extentMinY) / height);
+      keys[i] = (hilbert(hx, hy) << 31) | i;
+    }
+    Arrays.sort(keys);
+
+    int nodeCount = size;
+    int levels = 1;
+    for (int count = size; count > 1; count = (count + NODE_SIZE - 1) / NODE_SIZE) {
+      nodeCount += (count + NODE_SIZE - 1) / NODE_SIZE;
+      levels++;
+    }
+    minX = PointStore.allocateDoubles(nodeCount);
+    minY = PointStore.allocateDoubles(nodeCount);
+    maxX = PointStore.allocateDoubles(nodeCount);
+    maxY = PointStore.allocateDoubles(nodeCount);
+    children = PointStore.allocateInts(nodeCount);
+    levelStarts = new int[levels + 1];
+
+    for (int i = 0; i < size; i++) {
+      int point = (int) (keys[i] & Integer.MAX_VALUE);
+      double x = xs.applyAsDouble(point);
+      double y = ys.applyAsDouble(point);
+      minX.put(i, x);
+      maxX.put(i, x);
+      minY.put(i, y);
+      maxY.put(i, y);
+      children.put(i, point);
+    }
+
+    int level = 0;
+    int levelStart = 0;
+    int levelEnd = size;
+    while (levelEnd - levelStart > 1) {
+      levelStarts[++level] = levelEnd;
+      int parent = levelEnd;
+      for (int child = levelStart; child < levelEnd; child += NODE_SIZE, parent++) {
+        double nodeMinX = Double.POSITIVE_INFINITY;
+        double nodeMinY = Double.POSITIVE_INFINITY;
+        double nodeMaxX = Double.NEGATIVE_INFINITY;
+        double nodeMaxY = Double.NEGATIVE_INFINITY;
+        for (int c = child; c < Math.min(child + NODE_SIZE, levelEnd); c++) {
+          nodeMinX = Math.min(nodeMinX, minX.get(c));
+          nodeMinY = Math.min(nodeMinY, minY.get(c));
+          nodeMaxX = Math.max(nodeMaxX, maxX.get(c));
+          nodeMaxY = Math.max(nodeMaxY, maxY.get(c));
+        }
+        minX.put(parent, nodeMinX);
+        minY.put(parent, nodeMinY);
+        maxX.put(parent, nodeMaxX);
+        maxY.put(parent, nodeMaxY);
+        children.put(parent, child);
+      }
+      levelStart = levelEnd;
+      levelEnd = parent;
+    }
+    levelStarts[levels] = levelEnd;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /* Returns the index of the point at position rank in Hilbert order, for 0 <= rank < size(). */
+  public int pointAt(int rank) {
+    return children.get(rank);
+  }
+
+  /* Calls visitor with the index of every point inside the box, edges included. */
+  public void search(
+      double queryMinX, double queryMinY, double queryMaxX, double queryMaxY, IntConsumer visitor) {
+    if (size == 0) {
+      return;
+    }
+    int[] stack = new int[2 * NODE_SIZE * levelStarts.length];
+    int top = 0;
+    // Each stack entry is a node and its level; start from the root.
+    stack[top++] = levelStarts[levelStarts.length - 1] - 1;
+    stack[top++] = levelStarts.length - 2;
+
+    while (top > 0) {
+      int level = stack[--top];
+      int node = stack[--top];
+      if (maxX.get(node) < queryMinX || maxY.get(node) < queryMinY || minX.get(node) > queryMaxX
+          || minY.get(node) > queryMaxY) {
+        continue;
+      }
+      if (level == 0) {
+        visitor.accept(children.get(node));
+        continue;
+      }
+      int first = children.get(node);
+      int end = Math.min(first + NODE_SIZE, levelStarts[level]);
+      for (int child = first; child < end; child++) {
+        stack[top++] = child;
+        stack[top++] = level - 1;
+      }
+    }
+  }
+
+  /* Position of (x, y) along a Hilbert curve filling a 2^16 x 2^16 grid. */
+  private static long hilbert(int x, int y) {
+    long d = 0;
+    for (int s = 1 << (HILBERT_ORDER - 1); s > 0; s >>= 1) {
+      int rx = (x & s) > 0 ? 1 : 0;
+      int ry = (y & s) > 0 ? 1 : 0;
+      d += (long) s * s * ((3 * rx) ^ ry);
+      // Rotate the quadrant so the curve stays continuous.
+      if (ry == 0) {
+        if (rx == 1) {
+          x = HILBERT_MAX - x;
+          y = HILBERT_MAX - y;
+        }
+        int t = x;
+        x = y;
+        y = t;
+      }
+    }
+    return d;
+  }
+}
@@ -0,0 +1,304 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/*
+ * Points kept outside the Java heap, so a dataset of millions of rows gives the garbage
+ * collector nothing to copy or trace and the heap can stay small. Each point is a fixed-width
+ * record of its latitude and longitude as doubles followed by a fixed number of int fields.
+ * Points may also have a string each, stored as UTF-8 in a separate region, where string i runs
+ * from offset i to offset i + 1.
+ *
+ * A store is built into direct buffers, or read without copying from a memory-mapped snapshot.
+ * Direct buffers count against -XX:MaxDirectMemorySize, which defaults to the maximum heap size,
+ * so a small heap serving a large dataset needs it raised. Each region is one buffer, so must
+ * stay under 2GB.
+ */
+public class PointStore {
+  private static final int COORDINATE_BYTES = 16;
+  private static final int COPY_CHUNK = 8192;
+
+  private final int size;
+  private final int intFields;
+  private final int recordBytes;
+  private final ByteBuffer records;
+  // size + 1 ints, or none for points without strings.
+  private final ByteBuffer stringOffsets;
+  private final ByteBuffer stringBytes;
+
+  private PointStore(int size, int intFields, ByteBuffer records, ByteBuffer stringOffsets,
+      ByteBuffer stringBytes) {
+    this.size = size;
+    this.intFields = intFields;
+    this.recordBytes = COORDINATE_BYTES + 4 * intFields;
+    this.records = records;
+    this.stringOffsets = stringOffsets;
+    this.stringBytes = stringBytes;
+  }
+
+  /* Builds a store one point at a time, in the order they are added. */
+  public static class Builder {
+    private final int intFields;
+    private final int recordBytes;
+    private final boolean withStrings;
+    private ByteBuffer records = allocate(1024);
+    private ByteBuffer stringOffsets = allocate(1024);
+    private ByteBuffer stringBytes = allocate(1024);
+    private int size;
+
+    /* Builds points with intFields int fields each, and a string each if withStrings. */
+    public Builder(int intFields, boolean withStrings) {
+      this.intFields = intFields;
+      this.recordBytes = COORDINATE_BYTES + 4 * intFields;
+      this.withStrings = withStrings;
+      if (withStrings) {
+        stringOffsets.putInt(0);
+      }
+    }
+
+    /* Adds a point, with int fields of 0 and an empty string until they are set. */
+    public Builder add(double lat, double lng) {
+      records = ensureRemaining(records, recordBytes);
+      records.putDouble(lat).putDouble(lng);
+      for (int field = 0; field < intFields; field++) {
+        records.putInt(0);
+      }
+      if (withStrings) {
+        stringOffsets = ensureRemaining(stringOffsets, 4);
+        stringOffsets.putInt(stringBytes.position());
+      }
+      size++;
+      return this;
+    }
+
+    /* Sets an int field of the last point added. */
+    public Builder setInt(int field, int value) {
+      records.putInt((size - 1) * recordBytes + COORDINATE_BYTES + 4 * field, value);
+      return this;
+    }
+
+    /* Appends UTF-8 bytes to the string of the last point added. */
+    public Builder appendString(byte[] bytes) {
+      stringBytes = ensureRemaining(stringBytes, bytes.length);
+      stringBytes.put(bytes);
+      stringOffsets.putInt(4 * size, stringBytes.position());
+      return this;
+    }
+
+    public PointStore build() {
+      return new PointStore(size, intFields, trim(records), trim(stringOffsets),
+          trim(stringBytes));
+    }
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public double getLat(int point) {
+    return records.getDouble(point * recordBytes);
+  }
+
+  public double getLng(int point) {
+    return records.getDouble(point * recordBytes + 8);
+  }
+
+  public int getInt(int point, int field) {
+    return records.getInt(point * recordBytes + COORDINATE_BYTES + 4 * field);
+  }
+
+  /* Position of the first byte of the point's string, for getStringByte. */
+  public int getStringStart(int point) {
+    return stringOffsets.getInt(4 * point);
+  }
+
+  /* Position just past the last byte of the point's string. */
+  public int getStringEnd(int point) {
+    return stringOffsets.getInt(4 * point + 4);
+  }
+
+  public byte getStringByte(int position) {
+    return stringBytes.get(position);
+  }
+
+  public String getString(int point) {
+    byte[] bytes = new byte[getStringEnd(point) - getStringStart(point)];
+    ByteBuffer string = stringBytes.duplicate();
+    string.position(getStringStart(point));
+    string.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /* Writes the UTF-8 bytes of the point's string. */
+  public void writeString(int point, OutputStream out) throws IOException {
+    copy(stringBytes, getStringStart(point), getStringEnd(point), out);
+  }
+
+  /* Bytes held outside the heap. */
+  public long getSizeInBytes() {
+    return (long) records.capacity() + stringOffsets.capacity() + stringBytes.capacity();
+  }
+
+  /* Writes the store for readFrom. */
+  public void writeTo(DataOutputStream out) throws IOException {
+    out.writeInt(size);
+    out.writeInt(intFields);
+    out.writeInt(stringOffsets.capacity());
+    out.writeInt(stringBytes.capacity());
+    for (int point = 0; point < size; point++) {
+      out.writeDouble(getLat(point));
+      out.writeDouble(getLng(point));
+      for (int field = 0; field < intFields; field++) {
+        out.writeInt(getInt(point, field));
+      }
+    }
+    for (int position = 0; position < stringOffsets.capacity(); position += 4) {
+      out.writeInt(stringOffsets.getInt(position));
+    }
+    copy(stringBytes, 0, stringBytes.capacity(), out);
+  }
+
+  /*
+   * Reads a store written by writeTo, advancing buffer past it. The store shares the buffer's
+   * memory rather than copying it, so a memory-mapped buffer stays mapped while the store is
+   * in use.
+   */
+  public static PointStore readFrom(ByteBuffer buffer) {
+    int size = buffer.getInt();
+    int intFields = buffer.getInt();
+    int offsetBytes = buffer.getInt();
+    int byteCount = buffer.getInt();
+    ByteBuffer records = region(buffer, size * (COORDINATE_BYTES + 4 * intFields));
+    ByteBuffer stringOffsets = region(buffer, offsetBytes);
+    ByteBuffer stringBytes = region(buffer, byteCount);
+    return new PointStore(size, intFields, records, stringOffsets, stringBytes);
+  }
+
+  /*
+   * Joins stores into one holding all their points in order, such as the chunks of a parallel
+   * parse. The parts must have the same int fields and byte order, and all or none of them
+   * strings. Each region is allocated once at its final size and copied into in bulk.
+   */
+  public static PointStore concat(List<PointStore> parts) {
+    PointStore first = parts.get(0);
+    boolean withStrings = first.stringOffsets.capacity() > 0;
+    ByteOrder order = first.records.order();
+    int size = 0;
+    int byteCount = 0;
+    for (PointStore part : parts) {
+      if (part.intFields != first.intFields || part.records.order() != order
+          || (part.stringOffsets.capacity() > 0) != withStrings) {
+        throw new IllegalArgumentException("Stores to join must have the same layout");
+      }
+      size = Math.addExact(size, part.size);
+      byteCount = Math.addExact(byteCount, part.stringBytes.capacity());
+    }
+
+    ByteBuffer records = allocate(Math.multiplyExact(size, first.recordBytes)).order(order);
+    ByteBuffer stringOffsets = allocate(withStrings ? Math.multiplyExact(4, size + 1) : 0);
+    ByteBuffer stringBytes = allocate(byteCount);
+    for (PointStore part : parts) {
+      records.put(whole(part.records));
+      if (withStrings) {
+        int base = stringBytes.position();
+        for (int point = 0; point < part.size; point++) {
+          stringOffsets.putInt(base + part.getStringStart(point));
+        }
+        stringBytes.put(whole(part.stringBytes));
+      }
+    }
+    if (withStrings) {
+      stringOffsets.putInt(stringBytes.position());
+    }
+    return new PointStore(size, first.intFields, records, stringOffsets, stringBytes);
+  }
+
+  /* A direct buffer of length doubles in native byte order, for indexes over a store. */
+  public static DoubleBuffer allocateDoubles(int length) {
+    return allocate(Math.multiplyExact(8, length)).asDoubleBuffer();
+  }
+
+  /* A direct buffer of length ints in native byte order, for indexes over a store. */
+  public static IntBuffer allocateInts(int length) {
+    return allocate(Math.multiplyExact(4, length)).asIntBuffer();
+  }
+
+  private static ByteBuffer allocate(int capacity) {
+    return ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+  }
+
+  /* Returns buffer, or a copy with twice the capacity or more, with room for length bytes. */
+  private static ByteBuffer ensureRemaining(ByteBuffer buffer, int length) {
+    if (buffer.remaining() >= length) {
+      return buffer;
+    }
+    int capacity = Math.max(Math.multiplyExact(2, buffer.capacity()),
+        Math.addExact(buffer.position(), length));
+    ByteBuffer grown = allocate(capacity);
+    buffer.flip();
+    grown.put(buffer);
+    return grown;
+  }
+
+  /* Copies the written part of a builder's buffer into one of exactly that size. */
+  private static ByteBuffer trim(ByteBuffer buffer) {
+    buffer.flip();
+    ByteBuffer trimmed = allocate(buffer.remaining());
+    trimmed.put(buffer);
+    return trimmed;
+  }
+
+  /* All of buffer, from position 0 to its capacity, without moving buffer itself. */
+  private static ByteBuffer whole(ByteBuffer buffer) {
+    ByteBuffer duplicate = buffer.duplicate();
+    duplicate.clear();
+    return duplicate;
+  }
+
+  /* The next length bytes of buffer as their own buffer, advancing buffer past them. */
+  private static ByteBuffer region(ByteBuffer buffer, int length) {
+    if (length < 0 || buffer.remaining() < length) {
+      throw new BufferUnderflowException();
+    }
+    ByteBuffer region = buffer.slice();
+    region.limit(length);
+    buffer.position(buffer.position() + length);
+    // Slices are always big-endian, so match the buffer they came from.
+    return region.slice().order(buffer.order());
+  }
+
+  private static void copy(ByteBuffer bytes, int start, int end, OutputStream out)
+      throws IOException {
+    ByteBuffer source = bytes.duplicate();
+    source.position(start);
+    byte[] chunk = new byte[Math.min(COPY_CHUNK, end - start)];
+    for (int remaining = end - start; remaining > 0; remaining -= chunk.length) {
+      int length = Math.min(chunk.length, remaining);
+      source.get(chunk, 0, length);
+      out.write(chunk, 0, length);
+    }
+  }
+}
@@ -0,0 +1,132 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/*
+ * Compressed list of (document, term frequency) pairs for one term. Documents must be added in
+ * increasing order; each is stored as a varint gap from the previous one, followed by a varint
+ * frequency, so frequent terms cost about two bytes per document.
+ */
+public class PostingList {
+  private static final int INITIAL_BYTES = 8;
+
+  private byte[] bytes = new byte[INITIAL_BYTES];
+  private int size;
+  private int documentCount;
+  private int lastDocument = -1;
+
+  public void add(int document, int frequency) {
+    if (document <= lastDocument) {
+      throw new IllegalArgumentException(
+          "Postings must be added in document order: " + document + " after " + lastDocument);
+    }
+    writeVarint(document - lastDocument);
+    writeVarint(frequency);
+    lastDocument = document;
+    documentCount++;
+  }
+
+  /* Returns a reader positioned before the first posting. */
+  public Reader reader() {
+    return new Reader();
+  }
+
+  /* Number of documents containing the term. */
+  public int getDocumentCount() {
+    return documentCount;
+  }
+
+  /* Bytes used by the encoded postings. */
+  public int getSizeInBytes() {
+    return size;
+  }
+
+  /* Releases spare capacity once no more postings will be added. */
+  public void trim() {
+    if (bytes.length != size) {
+      bytes = Arrays.copyOf(bytes, size);
+    }
+  }
+
+  /* Writes the postings for readFrom. */
+  public void writeTo(DataOutputStream out) throws IOException {
+    out.writeInt(documentCount);
+    out.writeInt(lastDocument);
+    out.writeInt(size);
+    out.write(bytes, 0, size);
+  }
+
+  /* Reads postings written by writeTo, advancing buffer past them. */
+  public static PostingList readFrom(ByteBuffer buffer) {
+    PostingList list = new PostingList();
+    list.documentCount = buffer.getInt();
+    list.lastDocument = buffer.getInt();
+    list.size = buffer.getInt();
+    list.bytes = SnapshotFile.getBytes(buffer, list.size);
+    return list;
+  }
+
+  private void writeVarint(int value) {
+    if (size + 5 > bytes.length) {
+      bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + 5));
+    }
+    while ((value & ~0x7f) != 0) {
+      bytes[size++] = (byte) ((value & 0x7f) | 0x80);
+      value >>>= 7;
+    }
+    bytes[size++] = (byte) value;
+  }
+
+  /* Decodes postings in document order. */
+  public class Reader {
+    private int position;
+    private int document = -1;
+    private int frequency;
+
+    /* Advances to the next posting, returning false once there are none left. */
+    public boolean next() {
+      if (position >= size) {
+        return false;
+      }
+      document += readVarint();
+      frequency = readVarint();
+      return true;
+    }
+
+    public int document() {
+      return document;
+    }
+
+    public int frequency() {
+      return frequency;
+    }
+
+    private int readVarint() {
+      int value = 0;
+      for (int shift = 0;; shift += 7) {
+        byte b = bytes[position++];
+        value |= (b & 0x7f) << shift;
+        if (b >= 0) {
+          return value;
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,246 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.gson.Gson;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Running sentiment statistics for the comment board: count, mean score, a fixed-bucket
+ * histogram and per-author comment counts. Each write only bumps striped counters, and reads
+ * combine those with the last persisted totals instead of scanning comments.
+ *
+ * Counters hold the changes since the last flush. Flushing adds them to the totals stored in
+ * repository metadata with replaceMetadata, retrying when another instance flushed first, so
+ * instances that share a repository add up each other's writes. Counters are only drawn down
+ * once their flush is stored, so a failed flush leaves them to be flushed again.
+ *
+ * Each reset starts a new generation of the stored totals. An instance whose counters were
+ * recorded against an older generation drops them at its next flush instead of adding counts
+ * of deleted comments back.
+ */
+public class SentimentStats {
+  private static final String STATS_METADATA = "sentiment-stats";
+  private static final int BUCKETS = 20;
+  private static final double MIN_SCORE = -1.0;
+  private static final double BUCKET_WIDTH = 2.0 / BUCKETS;
+  // Scores are summed as fixed point so they fit in a LongAdder.
+  private static final double SCORE_SCALE = 1_000_000;
+  private static final long FLUSH_SECONDS = 60;
+  private static final Gson gson = new Gson();
+
+  private static SentimentStats instance;
+
+  private final CommentRepository repository;
+  private final LongAdder count = new LongAdder();
+  private final LongAdder scaledScoreSum = new LongAdder();
+  private final LongAdder[] histogram = new LongAdder[BUCKETS];
+  private final ConcurrentHashMap<String, LongAdder> authorCounts = new ConcurrentHashMap<>();
+  private volatile Totals persisted;
+
+  /* Totals as stored in repository metadata, or counts waiting to be flushed. */
+  private static class Totals {
+    private long generation;
+    private long count;
+    private long scaledScoreSum;
+    private long[] histogram = new long[BUCKETS];
+    private Map<String, Long> authors = new HashMap<>();
+  }
+
+  SentimentStats(CommentRepository repository) {
+    this.repository = repository;
+    for (int i = 0; i < BUCKETS; i++) {
+      histogram[i] = new LongAdder();
+    }
+
+    String json = repository.getMetadata(STATS_METADATA);
+    if (json == null) {
+      // First run against this repository: seed the totals with one full scan. The seed is
+      // stored only if nothing is stored yet, so when instances start together only one scan
+      // counts and the others adopt it; counts recorded afterwards go through flush.
+      Totals seeded = new Totals();
+      for (Comment comment : repository.list(0)) {
+        add(seeded, comment);
+      }
+      if (repository.replaceMetadata(STATS_METADATA, null, gson.toJson(seeded))) {
+        persisted = seeded;
+        return;
+      }
+      json = repository.getMetadata(STATS_METADATA);
+    }
+    persisted = gson.fromJson(json, Totals.class);
+  }
+
+  /* Returns the statistics shared by the comment servlets, flushed once a minute. */
+  public static synchronized SentimentStats getInstance() {
+    if (instance == null) {
+      instance = new SentimentStats(CommentRepositoryFactory.getCommentRepository());
+      ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "sentiment-stats-flusher");
+        thread.setDaemon(true);
+        return thread;
+      });
+      flusher.scheduleWithFixedDelay(
+          instance::flush, FLUSH_SECONDS, FLUSH_SECONDS, TimeUnit.SECONDS);
+    }
+    return instance;
+  }
+
+  /* Adds a newly stored comment to the statistics. Flagged comments are unscored, so skipped. */
+  public void record(Comment comment) {
+    if (comment.isFlagged()) {
+      return;
+    }
+    count.increment();
+    scaledScoreSum.add(Math.round(comment.getSentiment() * SCORE_SCALE));
+    histogram[bucket(comment.getSentiment())].increment();
+    authorCounts.computeIfAbsent(authorKey(comment.getName()), name -> new LongAdder())
+        .increment();
+  }
+
+  /* Clears the statistics after every comment has been deleted, starting a new generation. */
+  public synchronized void reset() {
+    while (true) {
+      String json = repository.getMetadata(STATS_METADATA);
+      Totals cleared = new Totals();
+      cleared.generation = json == null ? 1 : gson.fromJson(json, Totals.class).generation + 1;
+      if (repository.replaceMetadata(STATS_METADATA, json, gson.toJson(cleared))) {
+        persisted = cleared;
+        drawDown(pending());
+        return;
+      }
+    }
+  }
+
+  /* Adds the counters to the stored totals and draws them down by what was added. */
+  public synchronized void flush() {
+    Totals flushed = pending();
+    while (true) {
+      String json = repository.getMetadata(STATS_METADATA);
+      Totals totals = json == null ? new Totals() : gson.fromJson(json, Totals.class);
+      if (totals.generation != persisted.generation || flushed.count == 0) {
+        // Either another instance reset the totals, so the counters only hold deleted comments,
+        // or there is nothing to add; either way just pick up the stored totals.
+        persisted = totals;
+        drawDown(flushed);
+        return;
+      }
+
+      totals.count += flushed.count;
+      totals.scaledScoreSum += flushed.scaledScoreSum;
+      for (int i = 0; i < BUCKETS; i++) {
+        totals.histogram[i] += flushed.histogram[i];
+      }
+      for (Map.Entry<String, Long> author : flushed.authors.entrySet()) {
+        totals.authors.merge(author.getKey(), author.getValue(), Long::sum);
+      }
+      if (repository.replaceMetadata(STATS_METADATA, json, gson.toJson(totals))) {
+        persisted = totals;
+        drawDown(flushed);
+        return;
+      }
+    }
+  }
+
+  /* Adds a stored comment to totals, skipping it if flagged as record does. */
+  private static void add(Totals totals, Comment comment) {
+    if (comment.isFlagged()) {
+      return;
+    }
+    totals.count++;
+    totals.scaledScoreSum += Math.round(comment.getSentiment() * SCORE_SCALE);
+    totals.histogram[bucket(comment.getSentiment())]++;
+    totals.authors.merge(authorKey(comment.getName()), 1L, Long::sum);
+  }
+
+  /* The counters as they stand, without resetting them. */
+  private Totals pending() {
+    Totals pending = new Totals();
+    pending.count = count.sum();
+    pending.scaledScoreSum = scaledScoreSum.sum();
+    for (int i = 0; i < BUCKETS; i++) {
+      pending.histogram[i] = histogram[i].sum();
+    }
+    for (Map.Entry<String, LongAdder> author : authorCounts.entrySet()) {
+      long authorCount = author.getValue().sum();
+      if (authorCount != 0) {
+        pending.authors.put(author.getKey(), authorCount);
+      }
+    }
+    return pending;
+  }
+
+  /* Subtracts counts taken by pending, keeping whatever was recorded since. */
+  private void drawDown(Totals taken) {
+    count.add(-taken.count);
+    scaledScoreSum.add(-taken.scaledScoreSum);
+    for (int i = 0; i < BUCKETS; i++) {
+      histogram[i].add(-taken.histogram[i]);
+    }
+    for (Map.Entry<String, Long> author : taken.authors.entrySet()) {
+      authorCounts.get(author.getKey()).add(-author.getValue());
+    }
+  }
+
+  /* Returns the current statistics without touching the comments themselves. */
+  public Snapshot getSnapshot() {
+    Totals base = persisted;
+    long total = base.count + count.sum();
+    double scoreSum = (base.scaledScoreSum + scaledScoreSum.sum()) / SCORE_SCALE;
+
+    long[] buckets = new long[BUCKETS];
+    for (int i = 0; i < BUCKETS; i++) {
+      buckets[i] = base.histogram[i] + histogram[i].sum();
+    }
+    Map<String, Long> authors = new HashMap<>(base.authors);
+    for (Map.Entry<String, LongAdder> author : authorCounts.entrySet()) {
+      authors.merge(author.getKey(), author.getValue().sum(), Long::sum);
+    }
+    return new Snapshot(total, total == 0 ? 0 : scoreSum / total, buckets, authors);
+  }
+
+  private static int bucket(float score) {
+    int bucket = (int) ((score - MIN_SCORE) / BUCKET_WIDTH);
+    return Math.max(0, Math.min(BUCKETS - 1, bucket));
+  }
+
+  private static String authorKey(String name) {
+    return name == null ? "" : name;
+  }
+
+  /* Statistics served by /data/stats. */
+  public static class Snapshot {
+    private final long count;
+    private final double averageSentiment;
+    private final double histogramMin = MIN_SCORE;
+    private final double bucketWidth = BUCKET_WIDTH;
+    private final long[] histogram;
+    private final Map<String, Long> authors;
+
+    private Snapshot(long count, double averageSentiment, long[] histogram,
+        Map<String, Long> authors) {
+      this.count = count;
+      this.averageSentiment = averageSentiment;
+      this.histogram = histogram;
+      this.authors = authors;
+    }
+  }
+}
@@ -0,0 +1,187 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/*
+ * Binary cache of data parsed from source files, so that a new instance can map the result of
+ * an earlier parse instead of parsing again. The header records stamps of every source file,
+ * either their modification times and sizes or their sizes and checksums, and the cache is only
+ * used while they all still match. Layout:
+ *
+ *   int magic, int format version, int stamp count, long[stamp count] stamps, contents
+ *
+ * Snapshots written at run time live in the directory given by the datasets.snapshot.dir system
+ * property, or the temporary directory, and are replaced atomically so a reader never sees a
+ * partial one. On App Engine the temporary directory is in memory and private to one instance,
+ * so it only saves reparsing after a reload there; data too slow to parse on every start should
+ * also be snapshotted by the build and packaged with the application, as BigfootSnapshot is.
+ */
+public class SnapshotFile {
+  private static final String DIRECTORY_PROPERTY = "datasets.snapshot.dir";
+  private static final int MAGIC = 0x534e4150;
+  private static final Logger logger = Logger.getLogger(SnapshotFile.class.getName());
+
+  /* Writes the contents of a snapshot. */
+  public interface ContentWriter {
+    void write(DataOutputStream out) throws IOException;
+  }
+
+  private SnapshotFile() {}
+
+  /* Returns where the snapshot with the given name is kept. */
+  public static Path pathFor(String name) {
+    String directory = System.getProperty(DIRECTORY_PROPERTY, System.getProperty("java.io.tmpdir"));
+    return Paths.get(directory, name + ".snapshot");
+  }
+
+  /* Modification time and size of each file, or -1 for files that cannot be read. */
+  public static long[] stamp(List<Path> files) {
+    long[] stamps = new long[2 * files.size()];
+    for (int i = 0; i < files.size(); i++) {
+      try {
+        BasicFileAttributes attributes =
+            Files.readAttributes(files.get(i), BasicFileAttributes.class);
+        stamps[2 * i] = attributes.lastModifiedTime().toMillis();
+        stamps[2 * i + 1] = attributes.size();
+      } catch (IOException e) {
+        stamps[2 * i] = -1;
+        stamps[2 * i + 1] = -1;
+      }
+    }
+    return stamps;
+  }
+
+  /*
+   * Size and CRC32 checksum of each file, or -1 for files that cannot be read. Unlike stamp,
+   * these survive the files being copied, as when the application is deployed, but they cost a
+   * read of every file.
+   */
+  public static long[] stampContents(List<Path> files) {
+    long[] stamps = new long[2 * files.size()];
+    for (int i = 0; i < files.size(); i++) {
+      try (FileChannel channel = FileChannel.open(files.get(i), StandardOpenOption.READ)) {
+        CRC32 checksum = new CRC32();
+        checksum.update(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        stamps[2 * i] = channel.size();
+        stamps[2 * i + 1] = checksum.getValue();
+      } catch (IOException e) {
+        stamps[2 * i] = -1;
+        stamps[2 * i + 1] = -1;
+      }
+    }
+    return stamps;
+  }
+
+  /*
+   * Memory-maps the snapshot at path and returns its contents, positioned just after the
+   * header. Returns null if there is no snapshot, or it was written by another format version
+   * or from source files with different stamps.
+   */
+  public static ByteBuffer read(Path path, long[] stamps, int formatVersion) {
+    if (!Files.isRegularFile(path)) {
+      return null;
+    }
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      if (buffer.remaining() < 12 || buffer.getInt() != MAGIC
+          || buffer.getInt() != formatVersion || buffer.getInt() != stamps.length
+          || buffer.remaining() < 8L * stamps.length) {
+        return null;
+      }
+      for (long stamp : stamps) {
+        if (stamp == -1 || buffer.getLong() != stamp) {
+          return null;
+        }
+      }
+      return buffer.slice();
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Could not read snapshot " + path, e);
+      return null;
+    }
+  }
+
+  /*
+   * Writes a snapshot to path for source files with the given stamps, which should be taken
+   * before the files were parsed. Failures are logged rather than thrown, since the snapshot is
+   * only a cache.
+   */
+  public static void write(Path path, long[] stamps, int formatVersion, ContentWriter contents) {
+    Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+    try {
+      Files.createDirectories(path.toAbsolutePath().getParent());
+      try (DataOutputStream out =
+          new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+        out.writeInt(MAGIC);
+        out.writeInt(formatVersion);
+        out.writeInt(stamps.length);
+        for (long stamp : stamps) {
+          out.writeLong(stamp);
+        }
+        contents.write(out);
+      }
+      Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Could not write snapshot " + path, e);
+    }
+  }
+
+  /* Reads length bytes from buffer, advancing it. */
+  public static byte[] getBytes(ByteBuffer buffer, int length) {
+    byte[] bytes = new byte[length];
+    buffer.get(bytes);
+    return bytes;
+  }
+
+  /* Reads length doubles from buffer, advancing it. */
+  public static double[] getDoubles(ByteBuffer buffer, int length) {
+    double[] values = new double[length];
+    buffer.asDoubleBuffer().get(values);
+    buffer.position(buffer.position() + 8 * length);
+    return values;
+  }
+
+  /* Reads length ints from buffer, advancing it. */
+  public static int[] getInts(ByteBuffer buffer, int length) {
+    int[] values = new int[length];
+    buffer.asIntBuffer().get(values);
+    buffer.position(buffer.position() + 4 * length);
+    return values;
+  }
+
+  /* Reads length longs from buffer, advancing it. */
+  public static long[] getLongs(ByteBuffer buffer, int length) {
+    long[] values = new long[length];
+    buffer.asLongBuffer().get(values);
+    buffer.position(buffer.position() + 8 * length);
+    return values;
+  }
+}
@@ -0,0 +1,80 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Lock-free token bucket, implemented as the generic cell rate algorithm: instead of a token
+ * count it keeps the time at which the bucket would next be full, and admits a request if that
+ * time is no more than one burst ahead of now. Acquiring is a single compare-and-set.
+ */
+public class TokenBucket {
+  private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+  private final int burst;
+  // Time, in System.nanoTime() units, at which every token will have been refilled.
+  private final AtomicLong fullAt;
+  private volatile long nanosPerToken;
+
+  public TokenBucket(double tokensPerSecond, int burst) {
+    this.burst = burst;
+    this.nanosPerToken = toNanosPerToken(tokensPerSecond);
+    this.fullAt = new AtomicLong(System.nanoTime());
+  }
+
+  /* Takes one token. Returns 0 on success, or how many nanoseconds until one is available. */
+  public long tryAcquire() {
+    long now = System.nanoTime();
+    while (true) {
+      long current = fullAt.get();
+      long interval = nanosPerToken;
+      long next = Math.max(current, now) + interval;
+      long waitNanos = next - burst * interval - now;
+      if (waitNanos > 0) {
+        return waitNanos;
+      }
+      if (fullAt.compareAndSet(current, next)) {
+        return 0;
+      }
+    }
+  }
+
+  /* Returns a token taken by tryAcquire, e.g. when the request was refused for another reason. */
+  public void release() {
+    long interval = nanosPerToken;
+    long now = System.nanoTime();
+    // A full bucket stays full: fullAt never falls behind now.
+    fullAt.getAndUpdate(current -> Math.max(now, current - interval));
+  }
+
+  /* True if the bucket has refilled completely, i.e. it has been idle for a while. */
+  public boolean isFull() {
+    return fullAt.get() - System.nanoTime() <= 0;
+  }
+
+  public double getRate() {
+    return (double) NANOS_PER_SECOND / nanosPerToken;
+  }
+
+  public void setRate(double tokensPerSecond) {
+    nanosPerToken = toNanosPerToken(tokensPerSecond);
+  }
+
+  private static long toNanosPerToken(double tokensPerSecond) {
+    return Math.max(1, (long) (NANOS_PER_SECOND / tokensPerSecond));
+  }
+}
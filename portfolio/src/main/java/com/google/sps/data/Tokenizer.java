@@ -0,0 +1,66 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/*
+ * Splits text into lower-case search terms: maximal runs of letters and digits, minus any stop
+ * words.
+ */
+public class Tokenizer {
+  /* Common English words that carry little meaning in a search. */
+  public static final Set<String> ENGLISH_STOP_WORDS = Collections.unmodifiableSet(
+      new HashSet<>(Arrays.asList("a", "an", "and", "are", "as", "at", "be", "but", "by", "for",
+          "if", "in", "into", "is", "it", "no", "not", "of", "on", "or", "such", "that", "the",
+          "their", "then", "there", "these", "they", "this", "to", "was", "will", "with")));
+
+  private final Set<String> stopWords;
+
+  public Tokenizer() {
+    this(Collections.emptySet());
+  }
+
+  public Tokenizer(Set<String> stopWords) {
+    this.stopWords = stopWords;
+  }
+
+  public List<String> tokenize(String text) {
+    List<String> terms = new ArrayList<>();
+    if (text == null) {
+      return terms;
+    }
+
+    StringBuilder term = new StringBuilder();
+    for (int i = 0; i <= text.length(); i++) {
+      char c = i < text.length() ? text.charAt(i) : ' ';
+      if (Character.isLetterOrDigit(c)) {
+        term.append(Character.toLowerCase(c));
+      } else if (term.length() > 0) {
+        String token = term.toString();
+        if (!stopWords.contains(token)) {
+          terms.add(token);
+        }
+        term.setLength(0);
+      }
+    }
+    return terms;
+  }
+}
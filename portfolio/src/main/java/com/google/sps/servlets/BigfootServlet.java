@@ -15,74 +15,481 @@
 package com.google.sps.servlets;
 
 import com.google.gson.Gson;
-import com.google.sps.data.Bigfoot;
+import com.google.sps.data.BigfootDataset;
+import com.google.sps.data.BigfootDetails;
+import com.google.sps.data.BigfootSnapshot;
+import com.google.sps.data.BoundingBox;
+import com.google.sps.data.Cluster;
+import com.google.sps.data.ClusterPyramid;
+import com.google.sps.data.CompactCoordinates;
+import com.google.sps.data.CsvReader;
+import com.google.sps.data.DatasetHolder;
+import com.google.sps.data.InvertedIndex;
+import com.google.sps.data.KdTree;
+import com.google.sps.data.LruCache;
+import com.google.sps.data.PackedRTree;
+import com.google.sps.data.PointStore;
+import com.google.sps.data.SnapshotFile;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Scanner;
+import java.util.Map;
+import java.util.logging.Logger;
+import java.util.stream.IntStream;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-@WebServlet("/bigfoot-data")
+@WebServlet({"/bigfoot-data", "/bigfoot-data/*"})
 public class BigfootServlet extends HttpServlet {
-  private static final String JSON_TYPE = "application/json";
+  private static final String JSON_TYPE = "application/json; charset=UTF-8";
   private static final String DATA_FILE = "/WEB-INF/bfro_reports_geocoded.csv";
-  private static final String FILE_DELIM = ",";
+  private static final String BBOX_PARAMETER = "bbox";
+  private static final String ZOOM_PARAMETER = "zoom";
+  private static final String FROM_PARAMETER = "from";
+  private static final String TO_PARAMETER = "to";
+  private static final String YEARS_PATH = "/years";
+  private static final String NEAREST_PATH = "/nearest";
+  private static final String SEARCH_PATH = "/search";
+  private static final String QUERY_PARAMETER = "q";
+  private static final String LIMIT_PARAMETER = "limit";
+  private static final String LAT_PARAMETER = "lat";
+  private static final String LNG_PARAMETER = "lng";
+  private static final String K_PARAMETER = "k";
+  private static final int DEFAULT_NEIGHBOURS = 10;
+  private static final int MAX_NEIGHBOURS = 100;
+  private static final int DEFAULT_SEARCH_RESULTS = 20;
+  private static final int MAX_SEARCH_RESULTS = 100;
+  private static final int DETAILS_CACHE_SIZE = 1024;
+  private static final long RELOAD_POLL_SECONDS = 10;
+  // Where an instance saves its own parse when the packaged snapshot does not match the csv file.
+  private static final Path SNAPSHOT_PATH = SnapshotFile.pathFor("bigfoot-data");
+  private static final Gson gson = new Gson();
+  private static final Logger logger = Logger.getLogger(BigfootServlet.class.getName());
 
-  private static final int DESCR_INDEX = 0;
-  private static final int LOC_INDEX = 1;
-  private static final int TITLE_INDEX = 5;
-  private static final int LAT_INDEX = 6;
-  private static final int LNG_INDEX = 7;
-  private static final int DATE_INDEX = 8;
+  // Current version of the data, rebuilt when the csv file changes.
+  private DatasetHolder<Snapshot> data;
 
-  // Stores latitude, longitude, and title of each Bigfoot sighting in csv file.
-  private ArrayList<Bigfoot> bigfootArr = new ArrayList<>();
+  /*
+   * Everything built from one version of the csv file. Details are read from the file on
+   * demand, so a new version of the file should be renamed into place rather than rewritten, or
+   * requests still using the old version may read the new bytes.
+   */
+  private static class Snapshot {
+    // The csv file, memory-mapped where possible.
+    private final CsvReader source;
 
-  @Override
-  public void init() {
-    Scanner scanner = new Scanner(getServletContext().getResourceAsStream(DATA_FILE));
-
-    while (scanner.hasNextLine()) {
-      String line = scanner.nextLine();
-      String[] cells = line.split(FILE_DELIM);
-      if (cells.length < DATE_INDEX + 1) {
-        continue;
+    // Marker fields of every sighting in the csv file, stored off the heap.
+    private final BigfootDataset sightings;
+
+    // Details JSON of recently opened sightings, by id.
+    private final LruCache<Integer, byte[]> detailsCache = new LruCache<>(DETAILS_CACHE_SIZE);
+
+    // Marker JSON for every sighting, serialised once per version.
+    private final StaticPayload payload;
+
+    // The same markers in the CompactCoordinates format.
+    private final StaticPayload compactPayload;
+
+    // Number of sightings in each year, as {"year": count}.
+    private final StaticPayload yearsPayload;
+
+    // Spatial index over sightings, with x = longitude and y = latitude.
+    private final PackedRTree sightingIndex;
+
+    // Nearest-neighbour index over sightings.
+    private final KdTree neighbourIndex;
+
+    // Sightings clustered for each map zoom level up to ClusterPyramid.MAX_ZOOM.
+    private final ClusterPyramid clusters;
+
+    // Full-text index over titles and descriptions, with documents numbered as sightings.
+    private final InvertedIndex searchIndex;
+
+    private Snapshot(CsvReader source, BigfootSnapshot parsed) {
+      this.source = source;
+      sightings = parsed.getSightings();
+      payload = new StaticPayload(JSON_TYPE, parsed.getJson());
+      ByteArrayOutputStream compact = new ByteArrayOutputStream();
+      try {
+        writeCompact(Collections.emptyList(), sightings, null, sightings.size(), compact);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
       }
+      compactPayload = new StaticPayload(CompactCoordinates.MEDIA_TYPE, compact.toByteArray());
 
-      String description = String.valueOf(cells[DESCR_INDEX]);
-      String location = String.valueOf(cells[LOC_INDEX]);
-      String title = String.valueOf(cells[TITLE_INDEX]);
-      String latStr = String.valueOf(cells[LAT_INDEX]);
-      String lngStr = String.valueOf(cells[LNG_INDEX]);
-      String date = String.valueOf(cells[DATE_INDEX]);
-      if (description.isEmpty() || location.isEmpty() || title.isEmpty() || latStr.isEmpty()
-          || lngStr.isEmpty() || date.isEmpty()) {
-        continue;
+      Map<Integer, Integer> years = new LinkedHashMap<>();
+      int[] yearCounts = sightings.getYearCounts();
+      for (int i = 0; i < yearCounts.length; i++) {
+        years.put(sightings.getFirstYear() + i, yearCounts[i]);
       }
+      yearsPayload =
+          new StaticPayload(JSON_TYPE, gson.toJson(years).getBytes(StandardCharsets.UTF_8));
 
-      Double lat;
-      Double lng;
-      try {
-        lat = Double.valueOf(latStr);
-        lng = Double.valueOf(lngStr);
-      } catch (NumberFormatException e) {
-        continue;
+      PointStore points = sightings.getPoints();
+      sightingIndex = new PackedRTree(points.size(), points::getLng, points::getLat);
+      clusters = new ClusterPyramid(points);
+      neighbourIndex = new KdTree(points);
+
+      // Pruned again in case this instance was given a smaller budget than the build.
+      searchIndex = parsed.getSearchIndex();
+      int dropped = searchIndex.prune(BigfootSnapshot.SEARCH_BUDGET_BYTES);
+      logger.info("Search index holds " + searchIndex.getTermCount() + " terms in "
+          + searchIndex.getPostingBytes() + " bytes of postings; dropped " + dropped
+          + " more of the most frequent terms to fit");
+    }
+
+    /*
+     * Builds a snapshot of the csv file. The build packages the parsed columns, marker JSON and
+     * search index in BigfootSnapshot.RESOURCE, and instances map that instead of parsing while
+     * it matches the csv file. Otherwise, as in local runs with an edited file, the instance
+     * parses the file and saves the result under SNAPSHOT_PATH for its later loads.
+     */
+    private static Snapshot load(ServletContext context) throws IOException {
+      List<Path> files = DatasetHolder.filesOf(context, DATA_FILE);
+      long[] stamps = SnapshotFile.stampContents(files);
+      CsvReader source = CsvReader.open(context, DATA_FILE);
+
+      List<Path> snapshots = new ArrayList<>();
+      if (!files.isEmpty()) {
+        snapshots.addAll(DatasetHolder.filesOf(context, BigfootSnapshot.RESOURCE));
+        snapshots.add(SNAPSHOT_PATH);
+      }
+      for (Path path : snapshots) {
+        ByteBuffer saved = SnapshotFile.read(path, stamps, BigfootSnapshot.VERSION);
+        if (saved != null) {
+          try {
+            return new Snapshot(source, BigfootSnapshot.readFrom(saved));
+          } catch (BufferUnderflowException e) {
+            logger.warning("Truncated snapshot " + path);
+          }
+        }
       }
 
-      Bigfoot newSighting = new Bigfoot(lat, lng, title, description, location, date);
-      bigfootArr.add(newSighting);
+      logger.info("No snapshot matches " + DATA_FILE + "; parsing it");
+      BigfootSnapshot parsed = BigfootSnapshot.parse(source);
+      if (!files.isEmpty()) {
+        SnapshotFile.write(SNAPSHOT_PATH, stamps, BigfootSnapshot.VERSION, parsed::writeTo);
+      }
+      return new Snapshot(source, parsed);
     }
-    scanner.close();
   }
 
+  @Override
+  public void init() throws ServletException {
+    try {
+      data = new DatasetHolder<>("bigfoot-data",
+          () -> Snapshot.load(getServletContext()),
+          DatasetHolder.filesOf(getServletContext(), DATA_FILE), RELOAD_POLL_SECONDS);
+    } catch (IOException e) {
+      throw new ServletException("Could not read " + DATA_FILE, e);
+    }
+  }
+
+  @Override
+  public void destroy() {
+    data.close();
+  }
+
+  /*
+   * Returns the marker of every sighting, or only those inside the viewport given by bbox and
+   * dated within from and to, which are inclusive ISO dates. With a zoom at or below
+   * ClusterPyramid.MAX_ZOOM, nearby matching sightings come back as clusters, and only sightings
+   * far from any other are returned as markers.
+   * Clients that accept CompactCoordinates.MEDIA_TYPE get clusters and markers in that format
+   * instead of JSON; see writeCompact.
+   * /bigfoot-data/years returns the number of sightings in each year.
+   * /bigfoot-data/nearest?lat=&lng=&k= returns the k sightings closest to a point.
+   * /bigfoot-data/search?q=&bbox=&limit= returns the markers of sightings matching q.
+   * /bigfoot-data/{id} returns the details of one sighting.
+   */
   @Override
   public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    Snapshot snapshot = data.get();
+    String path = request.getPathInfo();
+    if (YEARS_PATH.equals(path)) {
+      snapshot.yearsPayload.write(request, response);
+      return;
+    }
+    if (NEAREST_PATH.equals(path)) {
+      doGetNearest(snapshot, request, response);
+      return;
+    }
+    if (SEARCH_PATH.equals(path)) {
+      doGetSearch(snapshot, request, response);
+      return;
+    }
+    if (path != null && !path.equals("/")) {
+      doGetDetails(snapshot, path.substring(1), response);
+      return;
+    }
+
+    String bboxParam = request.getParameter(BBOX_PARAMETER);
+    String fromParam = request.getParameter(FROM_PARAMETER);
+    String toParam = request.getParameter(TO_PARAMETER);
+    String zoomParam = request.getParameter(ZOOM_PARAMETER);
+    boolean compact = CompactCoordinates.isAcceptedBy(request.getHeader("Accept"));
+    response.addHeader("Vary", "Accept");
+    if (bboxParam == null && fromParam == null && toParam == null) {
+      (compact ? snapshot.compactPayload : snapshot.payload).write(request, response);
+      return;
+    }
+
+    BoundingBox bbox;
+    int fromDay;
+    int toDay;
+    int zoom;
+    try {
+      bbox = bboxParam == null ? null : BoundingBox.parse(bboxParam);
+      fromDay = fromParam == null ? Integer.MIN_VALUE : parseEpochDay(fromParam);
+      toDay = toParam == null ? Integer.MAX_VALUE : parseEpochDay(toParam);
+      zoom = zoomParam == null ? Integer.MAX_VALUE : Integer.parseInt(zoomParam);
+    } catch (IllegalArgumentException e) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+      return;
+    }
+    boolean dated = fromParam != null || toParam != null;
+
+    List<Cluster> groups = new ArrayList<>();
+    IntStream.Builder markers = IntStream.builder();
+    ClusterPyramid.Visitor addCluster = (lat, lng, count, point) -> {
+      if (count == 1) {
+        markers.add(point);
+      } else {
+        groups.add(new Cluster(lat, lng, count));
+      }
+    };
+
+    boolean clustered = zoom <= ClusterPyramid.MAX_ZOOM;
+    if (clustered && !dated) {
+      snapshot.clusters.search(zoom, bbox, addCluster);
+    } else {
+      IntStream.Builder matches = IntStream.builder();
+      if (bbox != null) {
+        bbox.search(snapshot.sightingIndex, index -> {
+          int day = snapshot.sightings.getEpochDay(index);
+          if (!dated || (day != BigfootDataset.NO_DATE && day >= fromDay && day <= toDay)) {
+            matches.add(index);
+          }
+        });
+      } else {
+        snapshot.sightings.searchDates(fromDay, toDay, matches::add);
+      }
+      int[] points = matches.build().toArray();
+      if (clustered) {
+        // The pyramid covers every sighting, so date-filtered matches are clustered here.
+        ClusterPyramid.cluster(zoom, points, snapshot.sightings.getPoints(), addCluster);
+      } else {
+        Arrays.stream(points).forEach(markers::add);
+      }
+    }
+
+    int[] singles = markers.build().toArray();
+    if (compact) {
+      response.setContentType(CompactCoordinates.MEDIA_TYPE);
+      OutputStream out = new BufferedOutputStream(response.getOutputStream());
+      writeCompact(groups, snapshot.sightings, singles, singles.length, out);
+      out.flush();
+      return;
+    }
+
+    response.setContentType(JSON_TYPE);
+    OutputStream out = new BufferedOutputStream(response.getOutputStream());
+    out.write('[');
+    int written = 0;
+    for (Cluster group : groups) {
+      if (written++ > 0) {
+        out.write(',');
+      }
+      out.write(gson.toJson(group).getBytes(StandardCharsets.UTF_8));
+    }
+    for (int index : singles) {
+      if (written++ > 0) {
+        out.write(',');
+      }
+      snapshot.sightings.writeJson(index, out);
+    }
+    out.write(']');
+    out.flush();
+  }
+
+  /*
+   * Writes clusters and markers in the CompactCoordinates format: the cluster coordinates, then
+   * each cluster's count as a varint, then the markers as written by
+   * BigfootDataset.writeCompact.
+   */
+  private static void writeCompact(List<Cluster> groups, BigfootDataset sightings,
+      int[] points, int count, OutputStream out) throws IOException {
+    double[] lats = new double[groups.size()];
+    double[] lngs = new double[groups.size()];
+    for (int i = 0; i < groups.size(); i++) {
+      lats[i] = groups.get(i).getLat();
+      lngs[i] = groups.get(i).getLng();
+    }
+    CompactCoordinates.write(lats, lngs, out);
+    for (Cluster group : groups) {
+      CompactCoordinates.writeVarint(group.getCount(), out);
+    }
+    sightings.writeCompact(points, count, out);
+  }
+
+  /* Writes the nearest sightings, closest first, as [{"distanceMeters", "marker"}]. */
+  private void doGetNearest(Snapshot snapshot, HttpServletRequest request,
+      HttpServletResponse response) throws IOException {
+    String latParam = request.getParameter(LAT_PARAMETER);
+    String lngParam = request.getParameter(LNG_PARAMETER);
+    String kParam = request.getParameter(K_PARAMETER);
+    if (latParam == null || lngParam == null) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "lat and lng are required");
+      return;
+    }
+
+    double lat;
+    double lng;
+    int k;
+    try {
+      lat = Double.parseDouble(latParam);
+      lng = Double.parseDouble(lngParam);
+      k = kParam == null ? DEFAULT_NEIGHBOURS : Integer.parseInt(kParam);
+    } catch (NumberFormatException e) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+      return;
+    }
+    if (Math.abs(lat) > 90 || Math.abs(lng) > 180 || k < 1 || k > MAX_NEIGHBOURS) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+          "lat, lng or k out of range; k must be from 1 to " + MAX_NEIGHBOURS);
+      return;
+    }
+
+    int[] nearest = new int[k];
+    double[] distances = new double[k];
+    int found = snapshot.neighbourIndex.nearest(lat, lng, nearest, distances);
+
+    response.setContentType(JSON_TYPE);
+    OutputStream out = new BufferedOutputStream(response.getOutputStream());
+    out.write('[');
+    for (int i = 0; i < found; i++) {
+      if (i > 0) {
+        out.write(',');
+      }
+      out.write(("{\"distanceMeters\":" + Math.round(distances[i]) + ",\"marker\":")
+          .getBytes(StandardCharsets.UTF_8));
+      snapshot.sightings.writeJson(nearest[i], out);
+      out.write('}');
+    }
+    out.write(']');
+    out.flush();
+  }
+
+  /*
+   * Writes the markers of up to limit sightings whose title or description match q, best BM25
+   * match first, optionally only those inside bbox.
+   */
+  private void doGetSearch(Snapshot snapshot, HttpServletRequest request,
+      HttpServletResponse response) throws IOException {
+    String query = request.getParameter(QUERY_PARAMETER);
+    String bboxParam = request.getParameter(BBOX_PARAMETER);
+    String limitParam = request.getParameter(LIMIT_PARAMETER);
+    if (query == null) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "q is required");
+      return;
+    }
+
+    BoundingBox bbox;
+    int limit;
+    try {
+      bbox = bboxParam == null ? null : BoundingBox.parse(bboxParam);
+      limit = limitParam == null ? DEFAULT_SEARCH_RESULTS : Integer.parseInt(limitParam);
+    } catch (IllegalArgumentException e) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+      return;
+    }
+    if (limit < 1 || limit > MAX_SEARCH_RESULTS) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+          "limit must be from 1 to " + MAX_SEARCH_RESULTS);
+      return;
+    }
+
+    int[] matches;
+    if (bbox == null) {
+      matches = snapshot.searchIndex.search(query, limit);
+    } else {
+      BitSet inside = new BitSet(snapshot.sightings.size());
+      bbox.search(snapshot.sightingIndex, inside::set);
+      matches = snapshot.searchIndex.search(query, limit, inside::get);
+    }
+
+    response.addHeader("Vary", "Accept");
+    OutputStream out;
+    if (CompactCoordinates.isAcceptedBy(request.getHeader("Accept"))) {
+      response.setContentType(CompactCoordinates.MEDIA_TYPE);
+      out = new BufferedOutputStream(response.getOutputStream());
+      writeCompact(Collections.emptyList(), snapshot.sightings, matches, matches.length, out);
+    } else {
+      response.setContentType(JSON_TYPE);
+      out = new BufferedOutputStream(response.getOutputStream());
+      out.write('[');
+      for (int i = 0; i < matches.length; i++) {
+        if (i > 0) {
+          out.write(',');
+        }
+        snapshot.sightings.writeJson(matches[i], out);
+      }
+      out.write(']');
+    }
+    out.flush();
+  }
+
+  private static int parseEpochDay(String date) {
+    try {
+      return Math.toIntExact(LocalDate.parse(date).toEpochDay());
+    } catch (DateTimeParseException e) {
+      throw new IllegalArgumentException("Dates must be formatted as yyyy-mm-dd: " + date);
+    }
+  }
+
+  private void doGetDetails(Snapshot snapshot, String id, HttpServletResponse response)
+      throws IOException {
+    int index;
+    try {
+      index = Integer.parseInt(id);
+    } catch (NumberFormatException e) {
+      index = -1;
+    }
+    if (index < 0 || index >= snapshot.sightings.size()) {
+      response.sendError(HttpServletResponse.SC_NOT_FOUND);
+      return;
+    }
+
+    byte[] json = snapshot.detailsCache.get(index);
+    if (json == null) {
+      CsvReader.Record record = snapshot.source.readAt(
+          snapshot.sightings.getRecordOffset(index), BigfootSnapshot.SCHEMA);
+      BigfootDetails details = new BigfootDetails(index,
+          record.getString(BigfootSnapshot.DESCR_INDEX),
+          record.getString(BigfootSnapshot.LOC_INDEX),
+          record.getString(BigfootSnapshot.DATE_INDEX));
+      json = gson.toJson(details).getBytes(StandardCharsets.UTF_8);
+      snapshot.detailsCache.put(index, json);
+    }
     response.setContentType(JSON_TYPE);
-    Gson gson = new Gson();
-    String json = gson.toJson(bigfootArr);
-    response.getWriter().println(json);
+    response.getOutputStream().write(json);
   }
-}
\ No newline at end of file
+}
@@ -15,76 +15,236 @@
 package com.google.sps.servlets;
 
 import com.google.gson.Gson;
+import com.google.sps.data.ColumnTable;
+import com.google.sps.data.CsvReader;
+import com.google.sps.data.DatasetHolder;
+import com.google.sps.data.LruCache;
+import com.google.sps.data.SnapshotFile;
 import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
-import java.util.Scanner;
+import java.util.List;
+import java.util.Map;
+import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-@WebServlet("/chart-data")
+@WebServlet({"/chart-data", "/chart-data/*"})
 public class ChartServlet extends HttpServlet {
-  private static final String JSON_TYPE = "application/json";
+  private static final String JSON_TYPE = "application/json; charset=UTF-8";
   private static final String DATA_FILE = "/WEB-INF/edible_food_2011.csv";
   private static final String COUNTRY_FILE = "/WEB-INF/country_name_map.csv";
   private static final int CSV_INDEX = 0;
   private static final int GEO_INDEX = 1;
   private static final String UNDEFINED_DATA = "*";
-  private static final String FILE_DELIM = ",";
+  private static final int ISO_INDEX = 0;
   private static final int COUNTRY_INDEX = 1;
-  private static final int RICE_INDEX = 4;
+  // Column holding the label of each header row; food columns start after it.
+  private static final int LABEL_INDEX = 2;
+  private static final String NAME_LABEL = "FOOD";
+  private static final String UNIT_LABEL = "UNIT";
+  // The ISO code cell of the header row naming the key columns.
+  private static final String ISO_HEADER = "ISO3";
 
-  // Stores data in the form "geochart_country_name: rice_supplies."
-  private LinkedHashMap<String, Double> countryMap = new LinkedHashMap<>();
+  private static final String COLUMNS_PATH = "/columns";
+  private static final String COLUMN_PARAMETER = "column";
+  private static final String AGG_PARAMETER = "agg";
+  private static final String GROUP_PARAMETER = "group";
+  private static final String TOP_PARAMETER = "top";
+  private static final String DEFAULT_COLUMN = "Rice (Milled Equivalent)";
+  private static final String GROUP_BY_COUNTRY = "country";
+  private static final String GROUP_NONE = "none";
+  private static final int RESULT_CACHE_SIZE = 1024;
 
-  // Stores data in the form "csv_country_name : geochart_country_name."
-  private LinkedHashMap<String, String> countryNameMap = new LinkedHashMap<>();
+  private static final CsvReader.Schema COUNTRY_SCHEMA = new CsvReader.Schema()
+      .column(CSV_INDEX, CsvReader.Type.STRING)
+      .column(GEO_INDEX, CsvReader.Type.STRING);
+  private static final CsvReader.Schema LABEL_SCHEMA = new CsvReader.Schema()
+      .column(LABEL_INDEX, CsvReader.Type.STRING);
 
-  @Override
-  public void init() {
-    fillCountryNameMap();
+  private static final long RELOAD_POLL_SECONDS = 10;
+  private static final Path SNAPSHOT_PATH = SnapshotFile.pathFor("chart-data");
+  // Change whenever the snapshot contents change shape.
+  private static final int SNAPSHOT_VERSION = 2;
+  private static final Gson gson = new Gson();
+
+  // Current version of the data, rebuilt when either csv file changes.
+  private DatasetHolder<Snapshot> data;
+
+  /* Everything built from one version of the csv files. */
+  private static class Snapshot {
+    // Supply of every food by country, keyed by geochart country name.
+    private final ColumnTable table;
+
+    // Name and unit of every food column, as [{"name", "unit"}].
+    private final StaticPayload columnsPayload;
 
-    Scanner scanner = new Scanner(getServletContext().getResourceAsStream(DATA_FILE));
+    // Serialised aggregates by cache key; see doGet.
+    private final LruCache<String, StaticPayload> results = new LruCache<>(RESULT_CACHE_SIZE);
 
-    while (scanner.hasNextLine()) {
-      String line = scanner.nextLine();
-      String[] cells = line.split(FILE_DELIM);
-      if (cells.length < RICE_INDEX + 1) {
-        continue;
+    private Snapshot(ColumnTable table) {
+      this.table = table;
+      List<Map<String, String>> columns = new ArrayList<>();
+      for (int column = 0; column < table.getColumnCount(); column++) {
+        Map<String, String> description = new LinkedHashMap<>();
+        description.put("name", table.getName(column));
+        description.put("unit", table.getUnit(column));
+        columns.add(description);
       }
+      columnsPayload =
+          new StaticPayload(JSON_TYPE, gson.toJson(columns).getBytes(StandardCharsets.UTF_8));
+    }
+  }
+
+  @Override
+  public void init() throws ServletException {
+    try {
+      data = new DatasetHolder<>("chart-data", this::load,
+          DatasetHolder.filesOf(getServletContext(), DATA_FILE, COUNTRY_FILE),
+          RELOAD_POLL_SECONDS);
+    } catch (IOException e) {
+      throw new ServletException("Could not read chart data", e);
+    }
+  }
 
-      String country = String.valueOf(cells[COUNTRY_INDEX]);
-      String riceStr = String.valueOf(cells[RICE_INDEX]);
-      if (country.isEmpty() || riceStr.isEmpty()) {
-        continue;
+  @Override
+  public void destroy() {
+    data.close();
+  }
+
+  /*
+   * Loads every food column from the csv files, or maps the table from the binary snapshot of
+   * an earlier load while the files are unchanged.
+   */
+  private Snapshot load() throws IOException {
+    List<Path> files = DatasetHolder.filesOf(getServletContext(), DATA_FILE, COUNTRY_FILE);
+    long[] stamps = SnapshotFile.stamp(files);
+    ByteBuffer saved =
+        files.isEmpty() ? null : SnapshotFile.read(SNAPSHOT_PATH, stamps, SNAPSHOT_VERSION);
+    if (saved != null) {
+      try {
+        return new Snapshot(ColumnTable.readFrom(saved));
+      } catch (BufferUnderflowException e) {
+        // Truncated snapshot; parse the csv files and replace it.
       }
+    }
 
-      Double riceConsump = riceStr.equals(UNDEFINED_DATA) ? 0.0 : Double.valueOf(riceStr);
+    // Stores data in the form "csv_country_name : geochart_country_name."
+    LinkedHashMap<String, String> countryNameMap = new LinkedHashMap<>();
+    CsvReader.open(getServletContext(), COUNTRY_FILE).forEach(COUNTRY_SCHEMA,
+        record -> countryNameMap.put(record.getString(CSV_INDEX), record.getString(GEO_INDEX)));
 
-      String countryName =
-          countryNameMap.containsKey(country) ? countryNameMap.get(country) : country;
-      countryMap.put(countryName, riceConsump);
+    // The header rows labelled FOOD and UNIT name the food columns and their units.
+    CsvReader reader = CsvReader.open(getServletContext(), DATA_FILE);
+    Map<String, List<String>> headers = new LinkedHashMap<>();
+    reader.forEach(LABEL_SCHEMA, record -> {
+      List<String> cells = new ArrayList<>();
+      for (int column = LABEL_INDEX + 1; column < record.getColumnCount(); column++) {
+        cells.add(record.getString(column));
+      }
+      headers.put(record.getString(LABEL_INDEX), cells);
+    });
+    List<String> names = headers.get(NAME_LABEL);
+    List<String> units = headers.get(UNIT_LABEL);
+    if (names == null) {
+      throw new IOException(DATA_FILE + " has no " + NAME_LABEL + " header row");
     }
-    scanner.close();
-  }
 
-  private void fillCountryNameMap() {
-    Scanner countryScanner = new Scanner(getServletContext().getResourceAsStream(COUNTRY_FILE));
+    int[] sourceColumns = new int[names.size()];
+    String[] unitArray = new String[names.size()];
+    CsvReader.Schema schema = new CsvReader.Schema()
+        .column(ISO_INDEX, CsvReader.Type.STRING)
+        .column(COUNTRY_INDEX, CsvReader.Type.STRING)
+        .nullValue(UNDEFINED_DATA);
+    for (int i = 0; i < names.size(); i++) {
+      sourceColumns[i] = LABEL_INDEX + 1 + i;
+      unitArray[i] = units != null && i < units.size() ? units.get(i) : "";
+      schema.optionalColumn(sourceColumns[i], CsvReader.Type.DOUBLE);
+    }
 
-    while (countryScanner.hasNextLine()) {
-      String line = countryScanner.nextLine();
-      String[] cells = line.split(FILE_DELIM);
-      countryNameMap.put(cells[CSV_INDEX], cells[GEO_INDEX]);
+    ColumnTable.Builder builder =
+        new ColumnTable.Builder(names.toArray(new String[0]), unitArray, sourceColumns);
+    reader.forEach(schema, record -> {
+      if (ISO_HEADER.equals(record.getString(ISO_INDEX))) {
+        return;
+      }
+      String country = record.getString(COUNTRY_INDEX);
+      builder.add(countryNameMap.getOrDefault(country, country), record);
+    });
+    ColumnTable table = builder.build();
+
+    if (!files.isEmpty()) {
+      SnapshotFile.write(SNAPSHOT_PATH, stamps, SNAPSHOT_VERSION, table::writeTo);
     }
-    countryScanner.close();
+    return new Snapshot(table);
   }
 
+  /*
+   * Returns a food column aggregated by country as JSON of {"geochart_country_name": value}.
+   * Parameters, all optional:
+   *   column: food name from the FOOD header row, Rice (Milled Equivalent) by default.
+   *   agg: sum, avg, min, max or count of the values in each group; sum by default.
+   *   group: country, the default, groups rows by country; none aggregates every row into one
+   *       value keyed by the column name.
+   *   top: keeps only the top largest groups, largest first.
+   * Rows without a value for the column are left out. /chart-data/columns lists every column's
+   * name and unit.
+   */
   @Override
   public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
-    response.setContentType(JSON_TYPE);
-    Gson gson = new Gson();
-    String json = gson.toJson(countryMap);
-    response.getWriter().println(json);
+    Snapshot snapshot = data.get();
+    if (COLUMNS_PATH.equals(request.getPathInfo())) {
+      snapshot.columnsPayload.write(request, response);
+      return;
+    }
+
+    String columnParam = request.getParameter(COLUMN_PARAMETER);
+    String aggParam = request.getParameter(AGG_PARAMETER);
+    String groupParam = request.getParameter(GROUP_PARAMETER);
+    String topParam = request.getParameter(TOP_PARAMETER);
+
+    int column = snapshot.table.findColumn(columnParam == null ? DEFAULT_COLUMN : columnParam);
+    ColumnTable.Aggregate aggregate;
+    int top;
+    try {
+      aggregate = aggParam == null
+          ? ColumnTable.Aggregate.SUM
+          : ColumnTable.Aggregate.valueOf(aggParam.toUpperCase());
+      top = topParam == null ? 0 : Integer.parseInt(topParam);
+    } catch (IllegalArgumentException e) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+      return;
+    }
+    boolean byCountry = groupParam == null || groupParam.equals(GROUP_BY_COUNTRY);
+    if (column < 0 || (topParam != null && top < 1)
+        || !(byCountry || groupParam.equals(GROUP_NONE))) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+          "column must be listed by /chart-data/columns, group must be country or none, and top"
+          + " must be positive");
+      return;
+    }
+
+    String key = column + "/" + aggregate + "/" + byCountry + "/" + top;
+    StaticPayload payload = snapshot.results.get(key);
+    if (payload == null) {
+      Map<String, Double> result = snapshot.table.aggregate(column, aggregate, byCountry);
+      if (top > 0) {
+        Map<String, Double> largest = new LinkedHashMap<>();
+        result.entrySet().stream()
+            .sorted(Map.Entry.<String, Double>comparingByValue().reversed())
+            .limit(top)
+            .forEach(entry -> largest.put(entry.getKey(), entry.getValue()));
+        result = largest;
+      }
+      payload = new StaticPayload(JSON_TYPE, gson.toJson(result).getBytes(StandardCharsets.UTF_8));
+      snapshot.results.put(key, payload);
+    }
+    payload.write(request, response);
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,57 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.gson.Gson;
+import com.google.sps.data.Comment;
+import com.google.sps.data.CommentSearchIndex;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/* Returns comments whose name or content match q, best match first. */
+@WebServlet("/data/search")
+public class CommentSearchServlet extends HttpServlet {
+  private static final String QUERY_PARAMETER = "q";
+  private static final String MAX_PARAMETER = "max-input";
+  private static final int DEFAULT_RESULTS = 10;
+
+  @Override
+  public void init() {
+    // Build the index at startup rather than on the first search.
+    CommentSearchIndex.getInstance();
+  }
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    String query = request.getParameter(QUERY_PARAMETER);
+    int maxResults;
+    try {
+      maxResults = Integer.parseInt(request.getParameter(MAX_PARAMETER));
+    } catch (Exception e) {
+      maxResults = DEFAULT_RESULTS;
+    }
+
+    List<Comment> comments = query == null || maxResults <= 0
+        ? Collections.<Comment>emptyList()
+        : CommentSearchIndex.getInstance().search(query, maxResults);
+    response.setContentType("application/json;");
+    response.getWriter().println(new Gson().toJson(comments));
+  }
+}
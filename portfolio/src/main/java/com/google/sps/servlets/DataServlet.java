@@ -14,18 +14,19 @@
 
 package com.google.sps.servlets;
 
-import com.google.appengine.api.datastore.DatastoreService;
-import com.google.appengine.api.datastore.DatastoreServiceFactory;
-import com.google.appengine.api.datastore.Entity;
-import com.google.appengine.api.datastore.FetchOptions;
-import com.google.appengine.api.datastore.PreparedQuery;
-import com.google.appengine.api.datastore.Query;
 import com.google.cloud.language.v1.Document;
 import com.google.cloud.language.v1.LanguageServiceClient;
 import com.google.cloud.language.v1.Sentiment;
 import com.google.gson.Gson;
+import com.google.sps.data.Comment;
+import com.google.sps.data.CommentCache;
+import com.google.sps.data.CommentRepository;
+import com.google.sps.data.CommentRepositoryFactory;
+import com.google.sps.data.CommentSearchIndex;
+import com.google.sps.data.NearDuplicateDetector;
+import com.google.sps.data.SentimentStats;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
@@ -37,33 +38,48 @@ public class DataServlet extends HttpServlet {
   private static final String COMMENT_PARAMETER = "comment-input";
   private static final String NAME_PARAMETER = "name-input";
   private static final String MAX_PARAMETER = "max-input";
-  private static final DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
-  private static final String COMMENT_CONTENT = "content";
-  private static final String COMMENT_NAME = "name";
-  private static final String COMMENT_SENTIMENT = "sentiment";
+  private static final CommentRepository repository =
+      CommentRepositoryFactory.getCommentRepository();
+  private static final int ALL_COMMENTS = -1;
+  private static final CommentCache cache = CommentCache.getInstance();
+  private static final SentimentStats stats = SentimentStats.getInstance();
+  private static final NearDuplicateDetector duplicates = NearDuplicateDetector.getInstance();
 
   @Override
   public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
     String name = request.getParameter(NAME_PARAMETER);
     String comment = request.getParameter(COMMENT_PARAMETER);
 
+    // Catch near-copies of recent comments before paying for sentiment analysis.
+    boolean duplicate = duplicates.check(comment);
+    if (duplicate && duplicates.getAction() == NearDuplicateDetector.Action.REJECT) {
+      response.sendError(HttpServletResponse.SC_CONFLICT, "Comment duplicates a recent comment.");
+      return;
+    }
+
     response.setContentType("text/html;");
     response.getWriter().println(name + ": " + comment);
 
-    // Perform sentiment analysis.
-    Document doc =
-        Document.newBuilder().setContent(comment).setType(Document.Type.PLAIN_TEXT).build();
-    LanguageServiceClient languageService = LanguageServiceClient.create();
-    Sentiment sentiment = languageService.analyzeSentiment(doc).getDocumentSentiment();
-    float score = sentiment.getScore();
-    languageService.close();
+    // Perform sentiment analysis. Flagged duplicates are stored unscored.
+    float score = 0;
+    if (!duplicate) {
+      Document doc =
+          Document.newBuilder().setContent(comment).setType(Document.Type.PLAIN_TEXT).build();
+      LanguageServiceClient languageService = LanguageServiceClient.create();
+      Sentiment sentiment = languageService.analyzeSentiment(doc).getDocumentSentiment();
+      score = sentiment.getScore();
+      languageService.close();
+    }
 
-    // Store comment in Datastore.
-    Entity commEntity = new Entity(DataServletConsts.COMMENT_ENTITY);
-    commEntity.setProperty(COMMENT_CONTENT, comment);
-    commEntity.setProperty(COMMENT_NAME, name);
-    commEntity.setProperty(COMMENT_SENTIMENT, score);
-    datastore.put(commEntity);
+    // Store comment in the repository.
+    Comment stored = repository.add(new Comment(name, comment, score).withFlagged(duplicate));
+    if (!duplicate) {
+      // Only once stored, so a failed post does not block a retry as its own duplicate.
+      duplicates.record(comment);
+    }
+    stats.record(stored);
+    CommentSearchIndex.getInstance().add(stored);
+    cache.invalidate();
 
     // Redirect back to main page.
     response.sendRedirect("/index.html");
@@ -71,24 +87,24 @@ public class DataServlet extends HttpServlet {
 
   @Override
   public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
-    Query query = new Query(DataServletConsts.COMMENT_ENTITY);
-    PreparedQuery results = datastore.prepare(query);
-
     // Process user-selected maximum number of comments.
     String numCommentsStr = request.getParameter(MAX_PARAMETER);
     int numComments;
     try {
       numComments = Integer.parseInt(numCommentsStr);
     } catch (Exception e) {
-      numComments = -1;
+      numComments = ALL_COMMENTS;
     }
 
-    FetchOptions fetchOptions = numComments > 0 ? FetchOptions.Builder.withLimit(numComments)
-                                                : FetchOptions.Builder.withDefaults();
-    List<Entity> messages = results.asList(fetchOptions);
-
-    String json = new Gson().toJson(messages);
+    byte[] json = cache.get(numComments > 0 ? numComments : ALL_COMMENTS, this::loadComments);
     response.setContentType("application/json;");
-    response.getWriter().println(json);
+    response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+    response.getOutputStream().write(json);
+  }
+
+  /* Reads up to numComments comments from the repository and serialises them as JSON. */
+  private byte[] loadComments(int numComments) {
+    List<Comment> messages = repository.list(numComments);
+    return new Gson().toJson(messages).getBytes(StandardCharsets.UTF_8);
   }
 }
\ No newline at end of file
@@ -1,3 +0,0 @@
-package com.google.sps.servlets;
-
-public class DataServletConsts { public static final String COMMENT_ENTITY = "Comment"; }
\ No newline at end of file
@@ -14,35 +14,81 @@
 
 package com.google.sps.servlets;
 
-import com.google.appengine.api.datastore.DatastoreService;
-import com.google.appengine.api.datastore.DatastoreServiceFactory;
-import com.google.appengine.api.datastore.Entity;
-import com.google.appengine.api.datastore.FetchOptions;
-import com.google.appengine.api.datastore.Key;
-import com.google.appengine.api.datastore.KeyFactory;
-import com.google.appengine.api.datastore.PreparedQuery;
-import com.google.appengine.api.datastore.Query;
 import com.google.gson.Gson;
+import com.google.sps.data.CommentCache;
+import com.google.sps.data.CommentRepository;
+import com.google.sps.data.CommentRepositoryFactory;
+import com.google.sps.data.CommentSearchIndex;
+import com.google.sps.data.DeleteJob;
+import com.google.sps.data.SentimentStats;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+/*
+ * Starts background jobs that delete every comment, and reports their progress. POST returns
+ * {"jobId": ...} straight away; GET with job-id returns the job's status and deleted count.
+ */
 @WebServlet("/delete-data")
 public class DeleteServlet extends HttpServlet {
-  private static final DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+  private static final String JOB_PARAMETER = "job-id";
+  // Running jobs that have not saved progress for this long lost their instance.
+  private static final long STALLED_MILLIS = 60 * 1000;
+  private static final CommentRepository repository =
+      CommentRepositoryFactory.getCommentRepository();
+  private static final Runnable invalidateCache = CommentCache.getInstance()::invalidate;
+
+  private final ExecutorService jobExecutor = Executors.newSingleThreadExecutor();
+
+  @Override
+  public void init() {
+    for (DeleteJob stalled : DeleteJob.findStalled(repository, STALLED_MILLIS, invalidateCache)) {
+      runJob(stalled);
+    }
+  }
+
+  @Override
+  public void destroy() {
+    jobExecutor.shutdownNow();
+  }
 
   @Override
   public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
-    Query query = new Query(DataServletConsts.COMMENT_ENTITY);
-    PreparedQuery results = datastore.prepare(query);
+    DeleteJob job = DeleteJob.create(repository, invalidateCache);
+    runJob(job);
+
+    response.setStatus(HttpServletResponse.SC_ACCEPTED);
+    response.setContentType("application/json;");
+    response.getWriter().println(
+        new Gson().toJson(Collections.singletonMap("jobId", job.getId())));
+  }
 
-    for (Entity entity : results.asIterable()) {
-      Key key = entity.getKey();
-      datastore.delete(key);
+  /* Runs job in the background, clearing derived comment data once every comment is gone. */
+  private void runJob(DeleteJob job) {
+    jobExecutor.execute(() -> {
+      job.run();
+      if (job.getStatus() == DeleteJob.Status.DONE) {
+        SentimentStats.getInstance().reset();
+        CommentSearchIndex.getInstance().rebuild();
+      }
+    });
+  }
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    String jobId = request.getParameter(JOB_PARAMETER);
+    DeleteJob job = jobId == null ? null : DeleteJob.load(repository, jobId, invalidateCache);
+    if (job == null) {
+      response.sendError(HttpServletResponse.SC_NOT_FOUND);
+      return;
     }
+
+    response.setContentType("application/json;");
+    response.getWriter().println(new Gson().toJson(job));
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,108 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.GZIPOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/*
+ * A response body that never changes once built: the bytes, a gzip copy and a strong ETag for
+ * each are computed up front, so serving it is a byte copy or a 304.
+ */
+public class StaticPayload {
+  private static final String GZIP = "gzip";
+  private static final String GZIP_ETAG_SUFFIX = "-gzip";
+
+  private final String contentType;
+  private final byte[] body;
+  private final byte[] gzipBody;
+  private final String etag;
+  private final String gzipEtag;
+
+  public StaticPayload(String contentType, byte[] body) {
+    this.contentType = contentType;
+    this.body = body;
+    this.gzipBody = gzip(body);
+    String hash = sha256Hex(body);
+    // Each content coding is its own representation, so each gets its own strong ETag.
+    this.etag = "\"" + hash + "\"";
+    this.gzipEtag = "\"" + hash + GZIP_ETAG_SUFFIX + "\"";
+  }
+
+  public void write(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    boolean useGzip = acceptsGzip(request.getHeader("Accept-Encoding"));
+    String tag = useGzip ? gzipEtag : etag;
+    response.setHeader("ETag", tag);
+    // Added rather than set, so servlets that also negotiate on other headers can list them.
+    response.addHeader("Vary", "Accept-Encoding");
+    response.setHeader("Cache-Control", "no-cache");
+
+    String ifNoneMatch = request.getHeader("If-None-Match");
+    if (ifNoneMatch != null && (ifNoneMatch.contains(tag) || ifNoneMatch.trim().equals("*"))) {
+      response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+      return;
+    }
+
+    byte[] bytes = useGzip ? gzipBody : body;
+    response.setContentType(contentType);
+    if (useGzip) {
+      response.setHeader("Content-Encoding", GZIP);
+    }
+    response.setContentLength(bytes.length);
+    response.getOutputStream().write(bytes);
+  }
+
+  /* True if Accept-Encoding lists gzip without ruling it out with q=0. */
+  private static boolean acceptsGzip(String acceptEncoding) {
+    if (acceptEncoding == null) {
+      return false;
+    }
+    for (String coding : acceptEncoding.split(",")) {
+      String[] parts = coding.trim().split(";");
+      if (parts[0].trim().equalsIgnoreCase(GZIP)) {
+        return parts.length == 1 || !parts[1].trim().matches("q=0(\\.0*)?");
+      }
+    }
+    return false;
+  }
+
+  private static byte[] gzip(byte[] bytes) {
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream(bytes.length / 4);
+    try (GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+      out.write(bytes);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return compressed.toByteArray();
+  }
+
+  private static String sha256Hex(byte[] bytes) {
+    try {
+      StringBuilder hex = new StringBuilder();
+      for (byte b : MessageDigest.getInstance("SHA-256").digest(bytes)) {
+        hex.append(String.format("%02x", b));
+      }
+      return hex.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is always available", e);
+    }
+  }
+}
@@ -0,0 +1,167 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.sps.data.TokenBucket;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.annotation.WebFilter;
+import javax.servlet.annotation.WebInitParam;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/*
+ * Admission control for write endpoints. Each POST must get a token from its client's bucket
+ * and from a global bucket, or it is turned away at once with 429 and Retry-After, before it
+ * can tie up a request thread on Datastore or the language API. GETs pass straight through.
+ * A client token is given back if the global bucket refuses, so a busy server does not also
+ * spend its clients' allowances.
+ *
+ * At most MAX_CLIENTS clients are tracked. Once that many are, idle clients are swept out at
+ * most once a second, and new clients are turned away until there is room.
+ *
+ * The global rate follows downstream latency: it is cut by a quarter whenever the moving
+ * average of admitted requests' latency is over target, and otherwise creeps back up.
+ */
+@WebFilter(urlPatterns = {"/data", "/delete-data"},
+    initParams = {
+      @WebInitParam(name = "client-rate", value = "1"),
+      @WebInitParam(name = "client-burst", value = "5"),
+      @WebInitParam(name = "global-rate", value = "20"),
+      @WebInitParam(name = "global-burst", value = "40"),
+      @WebInitParam(name = "target-latency-ms", value = "500")
+    })
+public class WriteRateLimitFilter implements Filter {
+  private static final String WRITE_METHOD = "POST";
+  private static final int MAX_CLIENTS = 10_000;
+  private static final double MIN_GLOBAL_RATE = 1;
+  private static final double DECREASE_FACTOR = 0.75;
+  private static final double INCREASE_STEP = 1;
+  // Weight of the newest sample in the latency moving average.
+  private static final double LATENCY_ALPHA = 0.2;
+  private static final long ADJUST_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+  private static final long SWEEP_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  private final ConcurrentHashMap<String, TokenBucket> clientBuckets = new ConcurrentHashMap<>();
+  private double clientRate;
+  private int clientBurst;
+  private double maxGlobalRate;
+  private long targetLatencyNanos;
+  private TokenBucket globalBucket;
+
+  // Raw bits of the latency moving average, in nanoseconds.
+  private final AtomicLong averageLatencyBits = new AtomicLong(Double.doubleToLongBits(0));
+  private final AtomicLong lastAdjustNanos = new AtomicLong(System.nanoTime());
+  private final AtomicLong lastSweepNanos =
+      new AtomicLong(System.nanoTime() - SWEEP_INTERVAL_NANOS);
+
+  @Override
+  public void init(FilterConfig config) {
+    clientRate = Double.parseDouble(config.getInitParameter("client-rate"));
+    clientBurst = Integer.parseInt(config.getInitParameter("client-burst"));
+    maxGlobalRate = Double.parseDouble(config.getInitParameter("global-rate"));
+    targetLatencyNanos = TimeUnit.MILLISECONDS.toNanos(
+        Long.parseLong(config.getInitParameter("target-latency-ms")));
+    globalBucket =
+        new TokenBucket(maxGlobalRate, Integer.parseInt(config.getInitParameter("global-burst")));
+  }
+
+  @Override
+  public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+      throws IOException, ServletException {
+    if (!WRITE_METHOD.equals(((HttpServletRequest) request).getMethod())) {
+      chain.doFilter(request, response);
+      return;
+    }
+
+    TokenBucket clientBucket = clientBucket(request.getRemoteAddr());
+    long waitNanos = clientBucket == null ? SWEEP_INTERVAL_NANOS : clientBucket.tryAcquire();
+    if (waitNanos == 0) {
+      waitNanos = globalBucket.tryAcquire();
+      if (waitNanos > 0) {
+        clientBucket.release();
+      }
+    }
+    if (waitNanos > 0) {
+      HttpServletResponse httpResponse = (HttpServletResponse) response;
+      long retrySeconds = Math.max(1, (waitNanos + 999_999_999) / 1_000_000_000);
+      httpResponse.setHeader("Retry-After", Long.toString(retrySeconds));
+      httpResponse.sendError(429, "Too many requests");
+      return;
+    }
+
+    long start = System.nanoTime();
+    try {
+      chain.doFilter(request, response);
+    } finally {
+      recordLatency(System.nanoTime() - start);
+    }
+  }
+
+  @Override
+  public void destroy() {}
+
+  /* Returns the client's bucket, or null if it is new and there is no room to track it. */
+  private TokenBucket clientBucket(String client) {
+    TokenBucket bucket = clientBuckets.get(client);
+    if (bucket != null) {
+      return bucket;
+    }
+    if (clientBuckets.size() >= MAX_CLIENTS) {
+      long now = System.nanoTime();
+      long lastSweep = lastSweepNanos.get();
+      if (now - lastSweep >= SWEEP_INTERVAL_NANOS
+          && lastSweepNanos.compareAndSet(lastSweep, now)) {
+        // Idle clients' buckets are full again, so dropping them loses nothing.
+        clientBuckets.values().removeIf(TokenBucket::isFull);
+      }
+      if (clientBuckets.size() >= MAX_CLIENTS) {
+        return null;
+      }
+    }
+    return clientBuckets.computeIfAbsent(client, key -> new TokenBucket(clientRate, clientBurst));
+  }
+
+  /* Folds a sample into the latency average and adjusts the global rate at most once a second. */
+  private void recordLatency(long latencyNanos) {
+    long bits;
+    double average;
+    do {
+      bits = averageLatencyBits.get();
+      double previous = Double.longBitsToDouble(bits);
+      average = previous == 0 ? latencyNanos
+                              : previous + LATENCY_ALPHA * (latencyNanos - previous);
+    } while (!averageLatencyBits.compareAndSet(bits, Double.doubleToLongBits(average)));
+
+    long now = System.nanoTime();
+    long lastAdjust = lastAdjustNanos.get();
+    if (now - lastAdjust < ADJUST_INTERVAL_NANOS
+        || !lastAdjustNanos.compareAndSet(lastAdjust, now)) {
+      return;
+    }
+    double rate = globalBucket.getRate();
+    globalBucket.setRate(average > targetLatencyNanos
+            ? Math.max(MIN_GLOBAL_RATE, rate * DECREASE_FACTOR)
+            : Math.min(maxGlobalRate, rate + INCREASE_STEP));
+  }
+}
@@ -16,6 +16,8 @@ const COMMENTS_ID = 'comments-container';
 const MAX_ID = 'max-input';
 const DATA_URL = '/data?max-input=';
 const DELETE_URL = '/delete-data';
+const DELETE_STATUS_URL = '/delete-data?job-id=';
+const DELETE_POLL_MS = 500;
 
 /*
  * Fetches message from /data and displays it on the DOM.
@@ -25,9 +27,9 @@ function getComments() {
   fetch(DATA_URL + num).then(response => response.json()).then((mssg) => {
     const mssgElem = document.getElementById(COMMENTS_ID);
     mssg.forEach((line) => {
-      mssgElem.appendChild(createLine(
-          line.propertyMap.name + ': ' + line.propertyMap.content +
-          ' (score: ' + line.propertyMap.sentiment + ')'));
+      const score = line.flagged ? 'flagged' : 'score: ' + line.sentiment;
+      mssgElem.appendChild(
+          createLine(line.name + ': ' + line.content + ' (' + score + ')'));
     });
   });
 }
@@ -45,8 +47,21 @@ function createLine(text) {
  * Remove comments from /data.
  */
 function removeComments() {
-  const response = fetch(DELETE_URL, {method: 'POST'});
-  response.then(refresh);
+  fetch(DELETE_URL, {method: 'POST'})
+      .then(response => response.json())
+      .then(job => waitForDelete(job.jobId));
+}
+
+/*
+ * Polls the background delete job, refreshing comments as it progresses.
+ */
+function waitForDelete(jobId) {
+  fetch(DELETE_STATUS_URL + jobId).then(response => response.json()).then((job) => {
+    refresh();
+    if (job.status === 'RUNNING') {
+      setTimeout(() => waitForDelete(jobId), DELETE_POLL_MS);
+    }
+  });
 }
 
 /*
@@ -1,37 +1,166 @@
 const MAP_ID = 'map-container';
 const mapKey = config.MAP_KEY;
 const BIGFOOT_URL = '/bigfoot-data';
+const COMPACT_TYPE = 'application/x-compact-coordinates';
+/** Fixed-point scale of coordinates in the compact format. */
+const COORDINATE_SCALE = 1e5;
 
 window.onload = addScriptToHead();
 
+/** Markers currently on the map, replaced whenever the viewport changes. */
+let markers = [];
+
 /** Creates a map and adds it to the page. */
 function createMap() {
-  fetch(BIGFOOT_URL).then(response => response.json()).then((bigfootArr) => {
-    const map = new google.maps.Map(
-        document.getElementById(MAP_ID),
-        // Centered at Googleplex (Mountain View).
-        {center: {lat: 37.422, lng: -122.084}, zoom: 5});
-
-    bigfootArr.forEach((sighting) => {
-      const marker = new google.maps.Marker({
-        position: {lat: sighting.lat, lng: sighting.lng},
-        map: map,
-        title: sighting.title,
-        animation: google.maps.Animation.DROP
+  const map = new google.maps.Map(
+      document.getElementById(MAP_ID),
+      // Centered at Googleplex (Mountain View).
+      {center: {lat: 37.422, lng: -122.084}, zoom: 5});
+  map.addListener('idle', () => showSightings(map));
+}
+
+/**
+ * Fetches the sightings inside the map's viewport, clustered for the current
+ * zoom, and shows them as markers.
+ */
+function showSightings(map) {
+  const bbox = map.getBounds().toUrlValue();
+  fetch(
+      BIGFOOT_URL + '?zoom=' + map.getZoom() + '&bbox=' + bbox,
+      {headers: {'Accept': COMPACT_TYPE + ', application/json;q=0.5'}})
+      .then(readSightings)
+      .then((bigfootArr) => {
+        markers.forEach(marker => marker.setMap(null));
+        markers = bigfootArr.map(
+            item => item.count ? createClusterMarker(map, item) :
+                                 createMarker(map, item));
+      });
+}
+
+/**
+ * Reads a sightings response as a list of clusters and markers, decoding the
+ * compact binary format when the server sent it and JSON otherwise.
+ */
+function readSightings(response) {
+  const type = response.headers.get('Content-Type') || '';
+  if (!type.startsWith(COMPACT_TYPE)) {
+    return response.json();
+  }
+  return response.arrayBuffer().then(
+      buffer => decodeSightings(new Uint8Array(buffer)));
+}
+
+/**
+ * Decodes clusters and markers in the compact format: cluster coordinates and
+ * counts, then marker coordinates, ids and titles. Coordinates and ids are
+ * zigzag varint deltas by column; see CompactCoordinates.java and
+ * BigfootDataset.writeCompact.
+ */
+function decodeSightings(bytes) {
+  let position = 0;
+
+  function readVarint() {
+    let value = 0;
+    let scale = 1;
+    let byte;
+    do {
+      byte = bytes[position++];
+      value += (byte & 0x7f) * scale;
+      scale *= 128;
+    } while (byte & 0x80);
+    return value;
+  }
+
+  function readSignedVarint() {
+    const value = readVarint();
+    return value % 2 ? -(value + 1) / 2 : value / 2;
+  }
+
+  function readColumn(count) {
+    const column = new Float64Array(count);
+    let value = 0;
+    for (let i = 0; i < count; i++) {
+      value += readSignedVarint();
+      column[i] = value;
+    }
+    return column;
+  }
+
+  function readCoordinates(into) {
+    const count = readVarint();
+    const lats = readColumn(count);
+    const lngs = readColumn(count);
+    for (let i = 0; i < count; i++) {
+      into.push({
+        lat: lats[i] / COORDINATE_SCALE,
+        lng: lngs[i] / COORDINATE_SCALE
       });
-      let info = '<div>' +
-          '<p><b>Title:</b> ' + sanitize(sighting.title) + '</p>' +
-          '<p><b>Date:</b> ' + sanitize(sighting.date) + '</p>' +
-          '<p><b>Location:</b> ' + sanitize(sighting.location) + '</p>' +
-          '<p><b>Description:</b> ' + sanitize(sighting.description) + '</p>' +
-          '</div>';
-      const infoWindow = new google.maps.InfoWindow({content: info});
-      marker.addListener('click', () => {
-        infoWindow.open(map, marker);
-        animateMarkerBounce(marker);
-      })
-    })
+    }
+    return into.slice(into.length - count);
+  }
+
+  const items = [];
+  readCoordinates(items).forEach((cluster) => {
+    cluster.count = readVarint();
+  });
+  const sightings = readCoordinates(items);
+  const ids = readColumn(sightings.length);
+  const titleLengths = sightings.map(() => readVarint());
+  const titleBytes = readVarint();
+  const titles =
+      new TextDecoder().decode(bytes.subarray(position, position + titleBytes));
+  let start = 0;
+  sightings.forEach((sighting, i) => {
+    sighting.id = ids[i];
+    sighting.title = titles.substr(start, titleLengths[i]);
+    start += titleLengths[i];
+  });
+  return items;
+}
+
+/** Creates a marker labelled with a cluster's size that zooms in on click. */
+function createClusterMarker(map, cluster) {
+  const position = {lat: cluster.lat, lng: cluster.lng};
+  const marker = new google.maps.Marker({
+    position: position,
+    map: map,
+    label: String(cluster.count),
+    title: cluster.count + ' sightings'
+  });
+  marker.addListener('click', () => {
+    map.setCenter(position);
+    map.setZoom(map.getZoom() + 2);
+  });
+  return marker;
+}
+
+/**
+ * Creates a marker for one sighting. Its details are fetched and shown in an
+ * info window when the marker is clicked.
+ */
+function createMarker(map, sighting) {
+  const marker = new google.maps.Marker({
+    position: {lat: sighting.lat, lng: sighting.lng},
+    map: map,
+    title: sighting.title
+  });
+  const infoWindow = new google.maps.InfoWindow();
+  marker.addListener('click', () => {
+    animateMarkerBounce(marker);
+    fetch(BIGFOOT_URL + '/' + sighting.id)
+        .then(response => response.json())
+        .then((details) => {
+          infoWindow.setContent('<div>' +
+              '<p><b>Title:</b> ' + sanitize(sighting.title) + '</p>' +
+              '<p><b>Date:</b> ' + sanitize(details.date) + '</p>' +
+              '<p><b>Location:</b> ' + sanitize(details.location) + '</p>' +
+              '<p><b>Description:</b> ' + sanitize(details.description) +
+              '</p>' +
+              '</div>');
+          infoWindow.open(map, marker);
+        });
   });
+  return marker;
 }
 
 function sanitize(unsafeContent) {
@@ -0,0 +1,86 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class CommentSearchIndexTest {
+  private Path directory;
+  private LogCommentRepository repository;
+
+  @Before
+  public void setUp() throws IOException {
+    directory = Files.createTempDirectory("comment-search");
+    repository = new LogCommentRepository(directory.resolve("comments.log"));
+    repository.add(new Comment("Ann", "the first comment", 0));
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    repository.close();
+    for (Path file : Files.list(directory).toArray(Path[]::new)) {
+      Files.delete(file);
+    }
+    Files.delete(directory);
+  }
+
+  @Test
+  public void addedCommentIsFound() {
+    CommentSearchIndex index = new CommentSearchIndex(repository, Long.MAX_VALUE);
+    index.add(repository.add(new Comment("Bob", "a second comment", 0)));
+    Assert.assertEquals(Arrays.asList("a second comment", "the first comment"),
+        contents(index.search("second comment", 10)));
+  }
+
+  @Test
+  public void commentWrittenElsewhereIsFoundOnceVersionMoves() {
+    CommentSearchIndex index = new CommentSearchIndex(repository, 0);
+    // Stored through another instance, which bumps the version as CommentCache does.
+    repository.add(new Comment("Bob", "posted elsewhere", 0));
+    Assert.assertTrue(index.search("elsewhere", 10).isEmpty());
+    repository.incrementVersion();
+    Assert.assertEquals(
+        Collections.singletonList("posted elsewhere"), contents(index.search("elsewhere", 10)));
+  }
+
+  @Test
+  public void refreshWaitsForInterval() {
+    CommentSearchIndex index = new CommentSearchIndex(repository, Long.MAX_VALUE);
+    repository.add(new Comment("Bob", "posted elsewhere", 0));
+    repository.incrementVersion();
+    Assert.assertTrue(index.search("elsewhere", 10).isEmpty());
+  }
+
+  private static List<String> contents(List<Comment> comments) {
+    List<String> contents = new ArrayList<>();
+    for (Comment comment : comments) {
+      contents.add(comment.getContent());
+    }
+    return contents;
+  }
+}
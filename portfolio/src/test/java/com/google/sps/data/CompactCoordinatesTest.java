@@ -0,0 +1,150 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class CompactCoordinatesTest {
+  @Test
+  public void varintsRoundTrip() throws IOException {
+    long[] values = {0, 1, 127, 128, 300, 16383, 16384, Integer.MAX_VALUE, Long.MAX_VALUE};
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (long value : values) {
+      CompactCoordinates.writeVarint(value, out);
+    }
+    ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
+    for (long value : values) {
+      Assert.assertEquals(value, readVarint(in));
+    }
+    Assert.assertEquals(-1, in.read());
+
+    // Seven bits per byte.
+    out.reset();
+    CompactCoordinates.writeVarint(16383, out);
+    Assert.assertEquals(2, out.size());
+  }
+
+  @Test
+  public void signedVarintsRoundTrip() throws IOException {
+    long[] values = {0, -1, 1, -64, 63, -65, 64, Long.MIN_VALUE, Long.MAX_VALUE};
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (long value : values) {
+      CompactCoordinates.writeSignedVarint(value, out);
+    }
+    ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
+    for (long value : values) {
+      Assert.assertEquals(value, readSignedVarint(in));
+    }
+
+    // Small negative numbers stay one byte.
+    out.reset();
+    CompactCoordinates.writeSignedVarint(-64, out);
+    Assert.assertEquals(1, out.size());
+  }
+
+  @Test
+  public void coordinatesRoundTripToFivePlaces() throws IOException {
+    Random random = new Random(42);
+    double[] lats = new double[1000];
+    double[] lngs = new double[1000];
+    for (int i = 0; i < lats.length; i++) {
+      lats[i] = random.nextDouble() * 180 - 90;
+      lngs[i] = random.nextDouble() * 360 - 180;
+    }
+    lats[0] = -90;
+    lngs[0] = -180;
+    lats[1] = 90;
+    lngs[1] = 180;
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    CompactCoordinates.write(lats, lngs, out);
+    double[][] decoded = decode(out.toByteArray());
+    Assert.assertEquals(lats.length, decoded[0].length);
+    for (int i = 0; i < lats.length; i++) {
+      Assert.assertEquals(lats[i], decoded[0][i], 0.5e-5 + 1e-9);
+      Assert.assertEquals(lngs[i], decoded[1][i], 0.5e-5 + 1e-9);
+    }
+  }
+
+  @Test
+  public void storeSubsetMatchesArrays() throws IOException {
+    PointStore.Builder builder = new PointStore.Builder(0, false);
+    for (int i = 0; i < 10; i++) {
+      builder.add(i * 1.5, -i * 2.25);
+    }
+    PointStore store = builder.build();
+    int[] points = {7, 2, 9};
+
+    ByteArrayOutputStream fromStore = new ByteArrayOutputStream();
+    CompactCoordinates.write(store, points, 2, fromStore);
+    ByteArrayOutputStream fromArrays = new ByteArrayOutputStream();
+    CompactCoordinates.write(new double[] {10.5, 3}, new double[] {-15.75, -4.5}, fromArrays);
+    Assert.assertArrayEquals(fromArrays.toByteArray(), fromStore.toByteArray());
+
+    ByteArrayOutputStream all = new ByteArrayOutputStream();
+    CompactCoordinates.write(store, null, store.size(), all);
+    Assert.assertEquals(10, decode(all.toByteArray())[0].length);
+  }
+
+  @Test
+  public void acceptHeader() {
+    Assert.assertFalse(CompactCoordinates.isAcceptedBy(null));
+    Assert.assertFalse(CompactCoordinates.isAcceptedBy("*/*"));
+    Assert.assertTrue(CompactCoordinates.isAcceptedBy(
+        "application/json, application/x-compact-coordinates;q=0.9"));
+    Assert.assertFalse(CompactCoordinates.isAcceptedBy("application/x-compact-coordinates; q=0"));
+    Assert.assertFalse(CompactCoordinates.isAcceptedBy("application/x-compact-coordinates;q=0.0"));
+  }
+
+  /* Decodes the format as the browser does: a count, then latitude and longitude columns. */
+  private static double[][] decode(byte[] bytes) {
+    ByteArrayInputStream in = new ByteArrayInputStream(bytes);
+    int count = (int) readVarint(in);
+    double[][] columns = new double[2][count];
+    for (double[] column : columns) {
+      long value = 0;
+      for (int i = 0; i < count; i++) {
+        value += readSignedVarint(in);
+        column[i] = value / 1e5;
+      }
+    }
+    Assert.assertEquals(-1, in.read());
+    return columns;
+  }
+
+  private static long readVarint(ByteArrayInputStream in) {
+    long value = 0;
+    for (int shift = 0; ; shift += 7) {
+      int b = in.read();
+      value |= (long) (b & 0x7f) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+  }
+
+  private static long readSignedVarint(ByteArrayInputStream in) {
+    long zigzag = readVarint(in);
+    return (zigzag >>> 1) ^ -(zigzag & 1);
+  }
+}
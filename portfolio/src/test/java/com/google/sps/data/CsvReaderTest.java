@@ -0,0 +1,175 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class CsvReaderTest {
+  private static final CsvReader.Schema TWO_STRINGS = new CsvReader.Schema()
+      .column(0, CsvReader.Type.STRING)
+      .column(1, CsvReader.Type.STRING);
+  private static final CsvReader.Schema ONE_DOUBLE =
+      new CsvReader.Schema().column(0, CsvReader.Type.DOUBLE);
+
+  @Test
+  public void quotedFieldsKeepCommasQuotesAndLineBreaks() {
+    CsvReader reader = reader("plain,\"a, b\"\n\"say \"\"hi\"\"\",\"two\r\nlines\"\n");
+    Assert.assertEquals(
+        Arrays.asList(Arrays.asList("plain", "a, b"), Arrays.asList("say \"hi\"", "two\r\nlines")),
+        strings(reader, TWO_STRINGS, 2));
+  }
+
+  @Test
+  public void crlfEndsRecords() {
+    CsvReader reader = reader("a,b\r\nc,d\r\n\r\ne,f");
+    Assert.assertEquals(
+        Arrays.asList(Arrays.asList("a", "b"), Arrays.asList("c", "d"), Arrays.asList("e", "f")),
+        strings(reader, TWO_STRINGS, 2));
+  }
+
+  @Test
+  public void emptyQuotedFieldIsEmpty() {
+    CsvReader reader = reader("\"\",x\n");
+    Assert.assertTrue(strings(reader, TWO_STRINGS, 2).isEmpty());
+    Assert.assertEquals(
+        Collections.singletonList(Arrays.asList("", "x")),
+        strings(reader, new CsvReader.Schema().column(1, CsvReader.Type.STRING), 2));
+  }
+
+  @Test
+  public void bytesAfterClosingQuoteAreMalformed() {
+    CsvReader reader = reader("\"a\"b,c\nd,e\n");
+    Assert.assertEquals(
+        Collections.singletonList(Arrays.asList("d", "e")), strings(reader, TWO_STRINGS, 2));
+  }
+
+  @Test
+  public void readAtReturnsRecordThatOutlivesLaterCalls() {
+    CsvReader reader = reader("a,\"multi\nline\"\nc,d\n");
+    List<Integer> offsets = new ArrayList<>();
+    reader.forEach(TWO_STRINGS, record -> offsets.add(record.getOffset()));
+
+    CsvReader.Record first = reader.readAt(offsets.get(0), TWO_STRINGS);
+    CsvReader.Record second = reader.readAt(offsets.get(1), TWO_STRINGS);
+    Assert.assertEquals("multi\nline", first.getString(1));
+    Assert.assertEquals("d", second.getString(1));
+  }
+
+  @Test
+  public void parallelParseMatchesSequential() {
+    StringBuilder csv = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+      csv.append(i).append(",\"line ").append(i).append("\nstill, quoted\"\r\n");
+    }
+    CsvReader reader = reader(csv.toString());
+    List<List<String>> expected = strings(reader, TWO_STRINGS, 2);
+
+    List<List<String>> actual = new ArrayList<>();
+    for (Collector collector : reader.forEachParallel(TWO_STRINGS, 7, Collector::new)) {
+      actual.addAll(collector.rows);
+    }
+    Assert.assertEquals(1000, expected.size());
+    Assert.assertEquals(expected, actual);
+  }
+
+  @Test
+  public void parseDoubleMatchesDoubleParseDouble() {
+    String[] values = {"0", "-0", "0.0", "1", "-1", "0.1", "0.3", "3.14159", "-122.419416",
+        "37.774929", ".5", "5.", "+7", "1e0", "1E5", "1e-5", "1e22", "1e23", "1e-22", "1e-23",
+        "123456789012345", "1234567890123456", "9007199254740993", "123456789012345678901234",
+        "0.000000000000000000001", "1.7976931348623157e308", "1.7976931348623159e308",
+        "4.9e-324", "2.4e-324", "2.2250738585072014E-308", "2.2250738585072011E-308",
+        "1e400", "1e-400", " 12.5 ", "0000000000000000000001.5"};
+    for (String value : values) {
+      List<Double> parsed = doubles(reader(value + "\n"));
+      Assert.assertEquals(value, 1, parsed.size());
+      Assert.assertEquals(value, Double.doubleToLongBits(Double.parseDouble(value.trim())),
+          Double.doubleToLongBits(parsed.get(0)));
+    }
+  }
+
+  @Test
+  public void parseDoubleRejectsMalformedNumbers() {
+    for (String value : new String[] {"", "-", ".", "e5", "1e", "1e+", "1.2.3", "1x", "abc"}) {
+      Assert.assertTrue(value, doubles(reader(value + "\n")).isEmpty());
+    }
+  }
+
+  @Test
+  public void parseLongRejectsOverflow() {
+    CsvReader.Schema schema = new CsvReader.Schema().column(0, CsvReader.Type.LONG);
+    List<Long> parsed = new ArrayList<>();
+    reader("9223372036854775807\n-9223372036854775807\n9223372036854775808\n")
+        .forEach(schema, record -> parsed.add(record.getLong(0)));
+    Assert.assertEquals(Arrays.asList(Long.MAX_VALUE, -Long.MAX_VALUE), parsed);
+  }
+
+  @Test
+  public void nullValueAndOptionalColumns() {
+    CsvReader.Schema schema = new CsvReader.Schema()
+        .column(0, CsvReader.Type.DOUBLE)
+        .optionalColumn(1, CsvReader.Type.DOUBLE)
+        .nullValue("NA");
+    List<String> rows = new ArrayList<>();
+    reader("1,2\nNA,3\n4,x\n5\n,6\n").forEach(schema, record -> rows.add(
+        (record.isNull(0) ? "null" : record.getDouble(0)) + ","
+            + (record.isNull(1) ? "null" : record.getDouble(1))));
+    Assert.assertEquals(
+        Arrays.asList("1.0,2.0", "null,3.0", "4.0,null", "5.0,null"), rows);
+  }
+
+  /* Gathers rows of one chunk of a parallel parse. */
+  private static class Collector implements CsvReader.RecordHandler {
+    private final List<List<String>> rows = new ArrayList<>();
+
+    @Override
+    public void handle(CsvReader.Record record) {
+      rows.add(Arrays.asList(record.getString(0), record.getString(1)));
+    }
+  }
+
+  private static CsvReader reader(String csv) {
+    return new CsvReader(ByteBuffer.wrap(csv.getBytes(StandardCharsets.UTF_8)));
+  }
+
+  private static List<List<String>> strings(
+      CsvReader reader, CsvReader.Schema schema, int columns) {
+    List<List<String>> rows = new ArrayList<>();
+    reader.forEach(schema, record -> {
+      List<String> row = new ArrayList<>();
+      for (int column = 0; column < columns; column++) {
+        row.add(record.getString(column));
+      }
+      rows.add(row);
+    });
+    return rows;
+  }
+
+  private static List<Double> doubles(CsvReader reader) {
+    List<Double> values = new ArrayList<>();
+    reader.forEach(ONE_DOUBLE, record -> values.add(record.getDouble(0)));
+    return values;
+  }
+}
@@ -0,0 +1,124 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class InvertedIndexTest {
+  private static final String[][] DOCUMENTS = {
+    {"Footprints by the creek", "Large footprints in the mud near the creek bed"},
+    {"Howling at night", "Loud howls heard from the ridge after dark"},
+    {"Creek crossing", "Tall figure crossing the creek, then gone into the trees"},
+  };
+
+  @Test
+  public void searchRanksByRelevance() {
+    InvertedIndex index = index();
+    Assert.assertArrayEquals(new int[] {0, 2}, index.search("footprints creek", 10));
+    Assert.assertArrayEquals(new int[] {1}, index.search("howls", 10));
+    Assert.assertArrayEquals(new int[] {2}, index.search("creek", 10, document -> document > 0));
+  }
+
+  @Test
+  public void searchInLargeIndexMatchesBruteForce() {
+    InvertedIndex index = new InvertedIndex(tokenizer());
+    Random random = new Random(42);
+    List<Integer> withRare = new ArrayList<>();
+    for (int i = 0; i < 20000; i++) {
+      StringBuilder text = new StringBuilder("common");
+      // Repeating the rare term gives each match a distinct score.
+      int repeats = random.nextInt(50) == 0 ? 1 + withRare.size() : 0;
+      for (int j = 0; j < repeats; j++) {
+        text.append(" rare");
+      }
+      if (repeats > 0) {
+        withRare.add(i);
+      }
+      index.add(text.toString());
+    }
+
+    Collections.reverse(withRare);
+    int[] expected = withRare.stream().mapToInt(Integer::intValue).toArray();
+    Assert.assertArrayEquals(expected, index.search("rare", expected.length + 10));
+    Assert.assertArrayEquals(Arrays.copyOf(expected, 5), index.search("rare", 5));
+    Assert.assertEquals(0, index.search("rare", 0).length);
+    Assert.assertEquals(20000, index.search("common", 100000).length);
+  }
+
+  @Test
+  public void readFromRestoresWrittenIndex() throws IOException {
+    InvertedIndex index = index();
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    index.writeTo(new DataOutputStream(bytes));
+    ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+    InvertedIndex read = InvertedIndex.readFrom(buffer, tokenizer());
+
+    Assert.assertFalse(buffer.hasRemaining());
+    Assert.assertEquals(index.getDocumentCount(), read.getDocumentCount());
+    Assert.assertEquals(index.getTermCount(), read.getTermCount());
+    Assert.assertEquals(index.getPostingBytes(), read.getPostingBytes());
+    for (String query : new String[] {"creek", "footprints creek", "dark ridge", "missing"}) {
+      Assert.assertArrayEquals(query, index.search(query, 10), read.search(query, 10));
+    }
+    // A read index keeps accepting documents.
+    Assert.assertEquals(3, read.add("Creek sighting", "Another report"));
+    Assert.assertEquals(3, read.search("creek", 10).length);
+  }
+
+  @Test
+  public void readFromEmptyIndexAcceptsDocuments() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    new InvertedIndex(tokenizer()).writeTo(new DataOutputStream(bytes));
+    InvertedIndex read = InvertedIndex.readFrom(ByteBuffer.wrap(bytes.toByteArray()), tokenizer());
+    Assert.assertEquals(0, read.add(DOCUMENTS[0]));
+    Assert.assertArrayEquals(new int[] {0}, read.search("mud", 10));
+  }
+
+  @Test
+  public void pruneDropsMostFrequentTerms() {
+    InvertedIndex index = index();
+    int terms = index.getTermCount();
+    Assert.assertEquals(0, index.prune(Long.MAX_VALUE));
+    Assert.assertTrue(index.prune(index.getPostingBytes() - 1) > 0);
+    Assert.assertTrue(index.getTermCount() < terms);
+    // "creek" is in the most documents, so it goes first.
+    Assert.assertEquals(0, index.search("creek", 10).length);
+  }
+
+  private static InvertedIndex index() {
+    InvertedIndex index = new InvertedIndex(tokenizer());
+    for (String[] document : DOCUMENTS) {
+      index.add(document);
+    }
+    return index;
+  }
+
+  private static Tokenizer tokenizer() {
+    return new Tokenizer(Tokenizer.ENGLISH_STOP_WORDS);
+  }
+}
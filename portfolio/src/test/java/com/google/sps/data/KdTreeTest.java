@@ -0,0 +1,84 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class KdTreeTest {
+  private static final double EARTH_RADIUS_METERS = 6371008.8;
+
+  @Test
+  public void nearestMatchesBruteForce() {
+    Random random = new Random(11);
+    for (int size : new int[] {1, 2, 10, 1000}) {
+      PointStore.Builder builder = new PointStore.Builder(0, false);
+      for (int i = 0; i < size; i++) {
+        // Include points near the poles and on both sides of the antimeridian.
+        builder.add(random.nextDouble() * 180 - 90, random.nextDouble() * 360 - 180);
+      }
+      PointStore store = builder.build();
+      KdTree tree = new KdTree(store);
+      Assert.assertEquals(size, tree.size());
+
+      for (int query = 0; query < 100; query++) {
+        double lat = random.nextDouble() * 180 - 90;
+        double lng = random.nextDouble() * 360 - 180;
+        int k = 1 + random.nextInt(8);
+        int[] nearest = new int[k];
+        double[] distances = new double[k];
+        int found = tree.nearest(lat, lng, nearest, distances);
+        Assert.assertEquals(Math.min(k, size), found);
+
+        double[] expected = new double[size];
+        for (int i = 0; i < size; i++) {
+          expected[i] = haversine(lat, lng, store.getLat(i), store.getLng(i));
+        }
+        double[] sorted = expected.clone();
+        Arrays.sort(sorted);
+        for (int i = 0; i < found; i++) {
+          Assert.assertEquals(sorted[i], distances[i], 1e-3);
+          Assert.assertEquals(expected[nearest[i]], distances[i], 1e-3);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void antimeridianNeighbourIsNearest() {
+    PointStore store = new PointStore.Builder(0, false)
+        .add(0, 179.9)
+        .add(0, 170)
+        .build();
+    int[] nearest = new int[1];
+    double[] distances = new double[1];
+    new KdTree(store).nearest(0, -179.9, nearest, distances);
+    Assert.assertEquals(0, nearest[0]);
+    Assert.assertEquals(haversine(0, -179.9, 0, 179.9), distances[0], 1e-3);
+  }
+
+  private static double haversine(double lat1, double lng1, double lat2, double lng2) {
+    double dLat = Math.toRadians(lat2 - lat1);
+    double dLng = Math.toRadians(lng2 - lng1);
+    double a = Math.sin(dLat / 2) * Math.sin(dLat / 2) + Math.cos(Math.toRadians(lat1))
+        * Math.cos(Math.toRadians(lat2)) * Math.sin(dLng / 2) * Math.sin(dLng / 2);
+    return 2 * EARTH_RADIUS_METERS * Math.asin(Math.min(1, Math.sqrt(a)));
+  }
+}
@@ -0,0 +1,258 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class LogCommentRepositoryTest {
+  private Path directory;
+  private Path path;
+
+  @Before
+  public void setUp() throws IOException {
+    directory = Files.createTempDirectory("comment-log");
+    path = directory.resolve("comments.log");
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    for (Path file : Files.list(directory).toArray(Path[]::new)) {
+      Files.delete(file);
+    }
+    Files.delete(directory);
+  }
+
+  @Test
+  public void reopenRecoversCommentsDeletesAndMetadata() throws IOException {
+    try (LogCommentRepository repository = new LogCommentRepository(path)) {
+      repository.add(new Comment("Ann", "first", 0.5f));
+      repository.add(new Comment("Bob", "second", -0.25f));
+      repository.add(new Comment("Cat", "third", 0));
+      repository.deleteBatch(null, 1);
+      repository.putMetadata("key", "old");
+      repository.putMetadata("key", "new");
+    }
+
+    try (LogCommentRepository repository = new LogCommentRepository(path)) {
+      List<Comment> comments = repository.list(0);
+      Assert.assertEquals(Arrays.asList("second", "third"), contents(comments));
+      Assert.assertEquals(-0.25f, comments.get(0).getSentiment(), 0);
+      Assert.assertEquals("new", repository.getMetadata("key"));
+      // Ids carry on after the highest one recovered.
+      Assert.assertEquals(4, repository.add(new Comment("Dan", "fourth", 0)).getId());
+    }
+  }
+
+  @Test
+  public void reopenDropsTornRecord() throws IOException {
+    try (LogCommentRepository repository = new LogCommentRepository(path)) {
+      repository.add(new Comment("Ann", "kept", 0));
+      repository.add(new Comment("Bob", "torn", 0));
+    }
+    // Cut the last record short, as a crash partway through a write would.
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+      channel.truncate(channel.size() - 3);
+    }
+
+    try (LogCommentRepository repository = new LogCommentRepository(path)) {
+      Assert.assertEquals(Collections.singletonList("kept"), contents(repository.list(0)));
+      repository.add(new Comment("Cat", "after", 0));
+    }
+    try (LogCommentRepository repository = new LogCommentRepository(path)) {
+      Assert.assertEquals(Arrays.asList("kept", "after"), contents(repository.list(0)));
+    }
+  }
+
+  @Test
+  public void reopenDropsRecordWithBadChecksum() throws IOException {
+    try (LogCommentRepository repository = new LogCommentRepository(path)) {
+      repository.add(new Comment("Ann", "kept", 0));
+      repository.add(new Comment("Bob", "corrupt", 0));
+    }
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+      channel.write(ByteBuffer.wrap(new byte[] {'X'}), channel.size() - 1);
+    }
+
+    try (LogCommentRepository repository = new LogCommentRepository(path)) {
+      Assert.assertEquals(Collections.singletonList("kept"), contents(repository.list(0)));
+    }
+  }
+
+  @Test
+  public void closeDropsMappedHeadroom() throws IOException {
+    try (LogCommentRepository repository = new LogCommentRepository(path)) {
+      repository.add(new Comment("Ann", "first", 0));
+      Assert.assertEquals(1, repository.list(0).size());
+      // Reading maps the log with room to grow, zero-filling the file past the last record.
+      Assert.assertTrue(Files.size(path) >= 1 << 20);
+      repository.add(new Comment("Bob", "second", 0));
+      Assert.assertEquals(2, repository.list(0).size());
+    }
+
+    Assert.assertTrue(Files.size(path) < 1024);
+    try (LogCommentRepository repository = new LogCommentRepository(path)) {
+      Assert.assertEquals(Arrays.asList("first", "second"), contents(repository.list(0)));
+    }
+  }
+
+  @Test
+  public void recoveryDropsZeroedTail() throws IOException {
+    try (LogCommentRepository repository = new LogCommentRepository(path)) {
+      repository.add(new Comment("Ann", "kept", 0));
+    }
+    // As left by a crash after the file was grown for a larger mapping.
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+      channel.write(ByteBuffer.allocate(1), (1 << 20) - 1);
+    }
+
+    try (LogCommentRepository repository = new LogCommentRepository(path)) {
+      Assert.assertEquals(Collections.singletonList("kept"), contents(repository.list(0)));
+      repository.add(new Comment("Bob", "after", 0));
+    }
+    try (LogCommentRepository repository = new LogCommentRepository(path)) {
+      Assert.assertEquals(Arrays.asList("kept", "after"), contents(repository.list(0)));
+    }
+  }
+
+  @Test
+  public void compactionKeepsOnlyLiveRecords() throws IOException {
+    char[] padding = new char[10 * 1024];
+    Arrays.fill(padding, 'x');
+    String deleted = new String(padding);
+
+    try (LogCommentRepository repository = new LogCommentRepository(path)) {
+      repository.putMetadata("key", "value");
+      for (int i = 0; i < 300; i++) {
+        repository.add(new Comment("Ann", deleted, 0));
+      }
+      Assert.assertTrue(Files.size(path) > 3_000_000);
+      repository.deleteBatch(null, 300);
+      repository.add(new Comment("Bob", "survivor", 0));
+    }
+
+    // The committer may see the deletes in several groups, but compacts whenever superseded
+    // records pass 1MB and the live ones, so at most 1MB of them can be left.
+    Assert.assertTrue(Files.size(path) < (1 << 20) + 4096);
+    try (LogCommentRepository repository = new LogCommentRepository(path)) {
+      Assert.assertEquals(Collections.singletonList("survivor"), contents(repository.list(0)));
+      Assert.assertEquals("value", repository.getMetadata("key"));
+      Assert.assertEquals(302, repository.add(new Comment("Cat", "next", 0)).getId());
+    }
+  }
+
+  @Test
+  public void deleteBatchRacingAddKeepsIndexAndLogConsistent() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    List<Comment> remaining;
+    try (LogCommentRepository repository = new LogCommentRepository(path)) {
+      List<Future<?>> adders = new ArrayList<>();
+      for (int thread = 0; thread < 3; thread++) {
+        adders.add(executor.submit(() -> {
+          for (int i = 0; i < 500; i++) {
+            repository.add(new Comment("Ann", "racing", 0));
+          }
+        }));
+      }
+      String cursor = null;
+      while (!allDone(adders)) {
+        cursor = repository.deleteBatch(cursor, 20).getCursor();
+      }
+      for (Future<?> adder : adders) {
+        adder.get();
+      }
+
+      remaining = repository.list(0);
+      Set<Long> ids = new HashSet<>();
+      for (Comment comment : remaining) {
+        Assert.assertTrue(ids.add(comment.getId()));
+      }
+    } finally {
+      executor.shutdown();
+      executor.awaitTermination(1, TimeUnit.MINUTES);
+    }
+
+    try (LogCommentRepository repository = new LogCommentRepository(path)) {
+      Assert.assertEquals(ids(remaining), ids(repository.list(0)));
+      // With nothing racing, one pass from the start deletes everything left.
+      String cursor = null;
+      while (true) {
+        CommentRepository.DeleteBatch batch = repository.deleteBatch(cursor, 100);
+        if (batch.getDeleted() == 0) {
+          break;
+        }
+        cursor = batch.getCursor();
+      }
+      Assert.assertTrue(repository.list(0).isEmpty());
+    }
+  }
+
+  @Test
+  public void replaceMetadataOnlyReplacesExpectedValue() throws IOException {
+    try (LogCommentRepository repository = new LogCommentRepository(path)) {
+      Assert.assertTrue(repository.replaceMetadata("key", null, "one"));
+      Assert.assertFalse(repository.replaceMetadata("key", null, "two"));
+      Assert.assertFalse(repository.replaceMetadata("key", "two", "three"));
+      Assert.assertTrue(repository.replaceMetadata("key", "one", "two"));
+      Assert.assertEquals("two", repository.getMetadata("key"));
+    }
+  }
+
+  private static boolean allDone(List<Future<?>> futures) {
+    for (Future<?> future : futures) {
+      if (!future.isDone()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static List<String> contents(List<Comment> comments) {
+    List<String> contents = new ArrayList<>();
+    for (Comment comment : comments) {
+      contents.add(comment.getContent());
+    }
+    return contents;
+  }
+
+  private static List<Long> ids(List<Comment> comments) {
+    List<Long> ids = new ArrayList<>();
+    for (Comment comment : comments) {
+      ids.add(comment.getId());
+    }
+    return ids;
+  }
+}
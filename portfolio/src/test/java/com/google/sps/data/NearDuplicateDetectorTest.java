@@ -0,0 +1,61 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class NearDuplicateDetectorTest {
+  private static final String TEXT = "the quick brown fox jumps over the lazy dog";
+  private static final String OTHER_TEXT = "a completely different comment about the weather today";
+  private static final long WINDOW_MILLIS = 60 * 1000;
+
+  @Test
+  public void checkDoesNotRecord() {
+    NearDuplicateDetector detector = detector(10);
+    Assert.assertFalse(detector.check(TEXT));
+    Assert.assertFalse(detector.check(TEXT));
+  }
+
+  @Test
+  public void recordedTextIsCaught() {
+    NearDuplicateDetector detector = detector(10);
+    detector.record(TEXT);
+    Assert.assertTrue(detector.check(TEXT));
+    Assert.assertFalse(detector.check(OTHER_TEXT));
+  }
+
+  @Test
+  public void fullRingEvictsOldest() {
+    NearDuplicateDetector detector = detector(1);
+    detector.record(TEXT);
+    detector.record(OTHER_TEXT);
+    Assert.assertFalse(detector.check(TEXT));
+    Assert.assertTrue(detector.check(OTHER_TEXT));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void zeroCapacityIsRejected() {
+    detector(0);
+  }
+
+  private static NearDuplicateDetector detector(int capacity) {
+    return new NearDuplicateDetector(
+        12, 5, capacity, WINDOW_MILLIS, NearDuplicateDetector.Action.REJECT);
+  }
+}
@@ -0,0 +1,106 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class PackedRTreeTest {
+  @Test
+  public void searchMatchesBruteForce() {
+    Random random = new Random(7);
+    // Sizes around node boundaries, and clustered points with duplicates.
+    for (int size : new int[] {0, 1, 15, 16, 17, 256, 257, 5000}) {
+      double[] xs = new double[size];
+      double[] ys = new double[size];
+      for (int i = 0; i < size; i++) {
+        xs[i] = i % 10 == 0 ? 5 : random.nextDouble() * 360 - 180;
+        ys[i] = i % 10 == 0 ? 5 : random.nextGaussian() * 20;
+      }
+      PackedRTree tree = new PackedRTree(size, i -> xs[i], i -> ys[i]);
+      Assert.assertEquals(size, tree.size());
+
+      for (int query = 0; query < 200; query++) {
+        double minX = random.nextDouble() * 400 - 200;
+        double minY = random.nextDouble() * 120 - 60;
+        double maxX = minX + random.nextDouble() * 100;
+        double maxY = minY + random.nextDouble() * 40;
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+          if (xs[i] >= minX && xs[i] <= maxX && ys[i] >= minY && ys[i] <= maxY) {
+            expected.add(i);
+          }
+        }
+        List<Integer> actual = new ArrayList<>();
+        tree.search(minX, minY, maxX, maxY, actual::add);
+        Collections.sort(actual);
+        Assert.assertEquals(expected, actual);
+      }
+    }
+  }
+
+  @Test
+  public void edgesAreIncluded() {
+    double[] xs = {0, 1, 2};
+    double[] ys = {0, 1, 2};
+    PackedRTree tree = new PackedRTree(3, i -> xs[i], i -> ys[i]);
+    List<Integer> found = new ArrayList<>();
+    tree.search(1, 1, 2, 2, found::add);
+    Collections.sort(found);
+    Assert.assertEquals(2, found.size());
+    Assert.assertEquals(1, (int) found.get(0));
+    Assert.assertEquals(2, (int) found.get(1));
+  }
+
+  @Test
+  public void pointsAreEachRankedOnce() {
+    int size = 1000;
+    Random random = new Random(3);
+    double[] xs = new double[size];
+    double[] ys = new double[size];
+    for (int i = 0; i < size; i++) {
+      xs[i] = random.nextDouble();
+      ys[i] = random.nextDouble();
+    }
+    PackedRTree tree = new PackedRTree(size, i -> xs[i], i -> ys[i]);
+    boolean[] seen = new boolean[size];
+    for (int rank = 0; rank < size; rank++) {
+      Assert.assertFalse(seen[tree.pointAt(rank)]);
+      seen[tree.pointAt(rank)] = true;
+    }
+  }
+
+  @Test
+  public void boundingBoxSearchCrossesAntimeridian() {
+    double[] lngs = {179.5, -179.5, 0, 170, -170};
+    double[] lats = {10, 10, 10, 10, 10};
+    PackedRTree tree = new PackedRTree(lngs.length, i -> lngs[i], i -> lats[i]);
+    BoundingBox box = BoundingBox.parse("0,175,20,-175");
+    List<Integer> found = new ArrayList<>();
+    box.search(tree, found::add);
+    Collections.sort(found);
+    Assert.assertEquals(2, found.size());
+    for (int i = 0; i < lngs.length; i++) {
+      Assert.assertEquals(found.contains(i), box.contains(lats[i], lngs[i]));
+    }
+  }
+}
@@ -0,0 +1,124 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class PointStoreTest {
+  private static final String[] STRINGS = {"", "plain", "café   👣", ""};
+
+  @Test
+  public void builderKeepsEveryField() {
+    PointStore store = build(5000);
+    check(store, 5000);
+  }
+
+  @Test
+  public void snapshotRoundTrip() throws IOException {
+    PointStore store = build(5000);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      store.writeTo(out);
+      out.writeInt(0x12345678);
+    }
+
+    ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+    PointStore read = PointStore.readFrom(buffer);
+    check(read, 5000);
+    // The buffer is left just past the store.
+    Assert.assertEquals(0x12345678, buffer.getInt());
+    Assert.assertFalse(buffer.hasRemaining());
+  }
+
+  @Test
+  public void emptyStoreRoundTrip() throws IOException {
+    PointStore empty = new PointStore.Builder(1, false).build();
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      empty.writeTo(out);
+    }
+    Assert.assertEquals(0, PointStore.readFrom(ByteBuffer.wrap(bytes.toByteArray())).size());
+  }
+
+  @Test
+  public void concatJoinsPartsInOrder() {
+    PointStore joined = PointStore.concat(
+        Arrays.asList(build(0, 1000), build(1000, 1000), build(1000, 5000)));
+    check(joined, 5000);
+    Assert.assertEquals(build(5000).getSizeInBytes(), joined.getSizeInBytes());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void concatRejectsDifferentFields() {
+    PointStore.concat(Arrays.asList(build(10), new PointStore.Builder(1, true).build()));
+  }
+
+  @Test
+  public void writeStringCopiesUtf8Bytes() throws IOException {
+    PointStore store = build(4);
+    for (int i = 0; i < 4; i++) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      store.writeString(i, out);
+      Assert.assertArrayEquals(STRINGS[i].getBytes(StandardCharsets.UTF_8), out.toByteArray());
+    }
+  }
+
+  private static PointStore build(int size) {
+    return build(0, size);
+  }
+
+  /* Points from to to, with two int fields and a string, all derived from the index. */
+  private static PointStore build(int from, int to) {
+    PointStore.Builder builder = new PointStore.Builder(2, true);
+    for (int i = from; i < to; i++) {
+      builder.add(lat(i), lng(i)).setInt(0, i).setInt(1, -7 * i);
+      // Appended in two pieces, splitting multi-byte characters.
+      byte[] string = STRINGS[i % STRINGS.length].getBytes(StandardCharsets.UTF_8);
+      int half = string.length / 2;
+      builder.appendString(Arrays.copyOfRange(string, 0, half));
+      builder.appendString(Arrays.copyOfRange(string, half, string.length));
+    }
+    return builder.build();
+  }
+
+  private static void check(PointStore store, int size) {
+    Assert.assertEquals(size, store.size());
+    for (int i = 0; i < size; i++) {
+      Assert.assertEquals(lat(i), store.getLat(i), 0);
+      Assert.assertEquals(lng(i), store.getLng(i), 0);
+      Assert.assertEquals(i, store.getInt(i, 0));
+      Assert.assertEquals(-7 * i, store.getInt(i, 1));
+      Assert.assertEquals(STRINGS[i % STRINGS.length], store.getString(i));
+    }
+  }
+
+  private static double lat(int i) {
+    return (i % 1800) / 10.0 - 90;
+  }
+
+  private static double lng(int i) {
+    return -(i % 3600) / 10.0 + 180 + 1e-9;
+  }
+}
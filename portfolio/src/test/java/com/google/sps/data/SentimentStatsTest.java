@@ -0,0 +1,79 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.gson.Gson;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class SentimentStatsTest {
+  private Path directory;
+  private LogCommentRepository repository;
+
+  @Before
+  public void setUp() throws IOException {
+    directory = Files.createTempDirectory("sentiment-stats");
+    repository = new LogCommentRepository(directory.resolve("comments.log"));
+    repository.add(new Comment("Ann", "good", 0.5f));
+    repository.add(new Comment("Bob", "bad", -0.5f));
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    repository.close();
+    for (Path file : Files.list(directory).toArray(Path[]::new)) {
+      Files.delete(file);
+    }
+    Files.delete(directory);
+  }
+
+  @Test
+  public void instancesStartingTogetherSeedOnce() {
+    SentimentStats first = new SentimentStats(repository);
+    SentimentStats second = new SentimentStats(repository);
+    first.flush();
+    second.flush();
+
+    Assert.assertEquals(2, count(first));
+    Assert.assertEquals(2, count(second));
+    Assert.assertEquals(2, count(new SentimentStats(repository)));
+  }
+
+  @Test
+  public void recordedCountsAreFlushedOnce() {
+    SentimentStats first = new SentimentStats(repository);
+    SentimentStats second = new SentimentStats(repository);
+    Comment stored = repository.add(new Comment("Cat", "fine", 0));
+    first.record(stored);
+    first.flush();
+    second.flush();
+
+    Assert.assertEquals(3, count(second));
+    Assert.assertEquals(3, count(new SentimentStats(repository)));
+  }
+
+  /* The count served to clients, read back from the JSON the stats servlet writes. */
+  private static long count(SentimentStats stats) {
+    return new Gson().toJsonTree(stats.getSnapshot()).getAsJsonObject().get("count").getAsLong();
+  }
+}
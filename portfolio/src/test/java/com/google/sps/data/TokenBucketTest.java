@@ -0,0 +1,54 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class TokenBucketTest {
+  // Slow enough that no token refills while a test runs.
+  private static final double RATE = 0.01;
+
+  @Test
+  public void admitsBurstThenRefuses() {
+    TokenBucket bucket = new TokenBucket(RATE, 2);
+    Assert.assertEquals(0, bucket.tryAcquire());
+    Assert.assertEquals(0, bucket.tryAcquire());
+    Assert.assertTrue(bucket.tryAcquire() > 0);
+  }
+
+  @Test
+  public void releasedTokenCanBeTakenAgain() {
+    TokenBucket bucket = new TokenBucket(RATE, 2);
+    bucket.tryAcquire();
+    bucket.tryAcquire();
+    bucket.release();
+    Assert.assertEquals(0, bucket.tryAcquire());
+    Assert.assertTrue(bucket.tryAcquire() > 0);
+  }
+
+  @Test
+  public void releaseDoesNotOverfill() {
+    TokenBucket bucket = new TokenBucket(RATE, 2);
+    bucket.release();
+    Assert.assertTrue(bucket.isFull());
+    Assert.assertEquals(0, bucket.tryAcquire());
+    Assert.assertEquals(0, bucket.tryAcquire());
+    Assert.assertTrue(bucket.tryAcquire() > 0);
+  }
+}
@@ -0,0 +1,202 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Number of sightings in each year, indexed by year offset in a primitive array. The counts
+ * loaded at startup are kept as prefix sums, and sightings added since are kept in a Fenwick
+ * tree, so the total over any range of years takes O(log n) even while sightings are being
+ * added. Safe for concurrent use; reads share a lock and additions take it exclusively.
+ */
+public class SightingCounts {
+  private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+  /** Year counted by counts[0]. */
+  private int firstYear;
+
+  /** Sightings in each year from firstYear on. */
+  private int[] counts;
+
+  /** loadedPrefix[i] is the number of loaded sightings before year loadedFirstYear + i. */
+  private final int loadedFirstYear;
+  private final long[] loadedPrefix;
+
+  /**
+   * Fenwick tree over sightings added since loading, indexed from 1 by year offset + 1. Each
+   * node holds the sum of a power-of-two run of years ending at its index.
+   */
+  private long[] added;
+
+  /** Creates counts for consecutive years, with loaded[i] sightings in year firstYear + i. */
+  public SightingCounts(int firstYear, int[] loaded) {
+    this.firstYear = firstYear;
+    this.counts = loaded.clone();
+    this.loadedFirstYear = firstYear;
+    this.loadedPrefix = new long[loaded.length + 1];
+    for (int i = 0; i < loaded.length; i++) {
+      loadedPrefix[i + 1] = loadedPrefix[i] + loaded[i];
+    }
+    this.added = new long[loaded.length + 1];
+  }
+
+  /** Creates counts from a year to sightings map, filling missing years in between with 0. */
+  public static SightingCounts fromMap(Map<Integer, Integer> sightings) {
+    if (sightings.isEmpty()) {
+      return new SightingCounts(0, new int[0]);
+    }
+    int first = sightings.keySet().stream().min(Integer::compare).get();
+    int last = sightings.keySet().stream().max(Integer::compare).get();
+    int[] loaded = new int[last - first + 1];
+    for (Map.Entry<Integer, Integer> entry : sightings.entrySet()) {
+      loaded[entry.getKey() - first] += entry.getValue();
+    }
+    return new SightingCounts(first, loaded);
+  }
+
+  /** First year with a count, or 0 if there are none. */
+  public int getFirstYear() {
+    lock.readLock().lock();
+    try {
+      return firstYear;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /** Last year with a count, or -1 if there are none. */
+  public int getLastYear() {
+    lock.readLock().lock();
+    try {
+      return firstYear + counts.length - 1;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /** Adds sightings to year, extending the range of years if needed. Returns the new count. */
+  public int add(int year, int sightings) {
+    lock.writeLock().lock();
+    try {
+      if (counts.length == 0 || year < firstYear || year >= firstYear + counts.length) {
+        extend(year);
+      }
+      int offset = year - firstYear;
+      counts[offset] = Math.addExact(counts[offset], sightings);
+      for (int node = offset + 1; node < added.length; node += node & -node) {
+        added[node] += sightings;
+      }
+      return counts[offset];
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /** Total sightings from year from to year to, both inclusive. */
+  public long sum(int from, int to) {
+    lock.readLock().lock();
+    try {
+      return sumLocked(from, to);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Totals for consecutive buckets of bucketYears years, the first starting at from and the
+   * last ending at or after to, keyed by each bucket's first year. With bucketYears 1 this is
+   * every year's count.
+   */
+  public Map<Integer, Long> rollUp(int from, int to, int bucketYears) {
+    Map<Integer, Long> buckets = new LinkedHashMap<>();
+    lock.readLock().lock();
+    try {
+      for (long start = from; start <= to; start += bucketYears) {
+        int year = (int) start;
+        buckets.put(year, sumLocked(year, (int) Math.min(to, start + bucketYears - 1)));
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+    return buckets;
+  }
+
+  /** Every year's count, in year order. */
+  public Map<Integer, Integer> toMap() {
+    lock.readLock().lock();
+    try {
+      Map<Integer, Integer> map = new LinkedHashMap<>();
+      for (int i = 0; i < counts.length; i++) {
+        map.put(firstYear + i, counts[i]);
+      }
+      return map;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  private long sumLocked(int from, int to) {
+    from = Math.max(from, firstYear);
+    to = Math.min(to, firstYear + counts.length - 1);
+    if (from > to) {
+      return 0;
+    }
+    return loadedBefore(to + 1) - loadedBefore(from)
+        + addedBefore(to + 1 - firstYear) - addedBefore(from - firstYear);
+  }
+
+  /** Loaded sightings in the years before year. */
+  private long loadedBefore(int year) {
+    int offset = Math.max(0, Math.min(loadedPrefix.length - 1, year - loadedFirstYear));
+    return loadedPrefix[offset];
+  }
+
+  /** Added sightings in the years before offset, that is in counts[0..offset). */
+  private long addedBefore(int offset) {
+    long sum = 0;
+    for (int node = offset; node > 0; node -= node & -node) {
+      sum += added[node];
+    }
+    return sum;
+  }
+
+  /** Widens the range of years to include year and rebuilds the Fenwick tree over it. */
+  private void extend(int newYear) {
+    int newFirst = counts.length == 0 ? newYear : Math.min(firstYear, newYear);
+    int newLast = counts.length == 0 ? newYear : Math.max(firstYear + counts.length - 1, newYear);
+    int[] newCounts = new int[newLast - newFirst + 1];
+    if (counts.length > 0) {
+      System.arraycopy(counts, 0, newCounts, firstYear - newFirst, counts.length);
+    }
+
+    // A Fenwick tree is built in linear time by pushing each node's sum up to its parent.
+    long[] newAdded = new long[newCounts.length + 1];
+    for (int offset = 0; offset < newCounts.length; offset++) {
+      int year = newFirst + offset;
+      long loaded = loadedBefore(year + 1) - loadedBefore(year);
+      newAdded[offset + 1] += newCounts[offset] - loaded;
+      int parent = offset + 1 + ((offset + 1) & -(offset + 1));
+      if (parent < newAdded.length) {
+        newAdded[parent] += newAdded[offset + 1];
+      }
+    }
+    firstYear = newFirst;
+    counts = newCounts;
+    added = newAdded;
+  }
+}
@@ -15,41 +15,121 @@
 package com.google.sps.servlets;
 
 import com.google.gson.Gson;
+import com.google.sps.data.CsvReader;
+import com.google.sps.data.SightingCounts;
 import java.io.IOException;
+import java.time.Year;
+import java.util.Collections;
 import java.util.LinkedHashMap;
-import java.util.Scanner;
+import java.util.Map;
+import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-/** Returns bigfoot data as a JSON object, e.g. {"2017": 52, "2018": 34}] */
+/**
+ * Returns bigfoot data as a JSON object, e.g. {"2017": 52, "2018": 34}. With from, to or bucket
+ * parameters, returns the totals of consecutive buckets of years instead. POST adds sightings.
+ */
 @WebServlet("/bigfoot-data")
 public class BigfootDataServlet extends HttpServlet {
+  private static final String DATA_FILE = "/WEB-INF/bigfoot-sightings-by-year.csv";
+  private static final int YEAR_INDEX = 0;
+  private static final int SIGHTINGS_INDEX = 1;
+  private static final CsvReader.Schema SCHEMA = new CsvReader.Schema()
+      .column(YEAR_INDEX, CsvReader.Type.LONG)
+      .column(SIGHTINGS_INDEX, CsvReader.Type.LONG);
 
-  private LinkedHashMap<Integer, Integer> bigfootSightings = new LinkedHashMap<>();
+  private static final String FROM_PARAMETER = "from";
+  private static final String TO_PARAMETER = "to";
+  private static final String BUCKET_PARAMETER = "bucket";
+  private static final String YEAR_PARAMETER = "year";
+  private static final String COUNT_PARAMETER = "count";
+  private static final int MAX_BUCKETS = 1000;
+  private static final int MAX_ADDED_SIGHTINGS = 1000;
+  private static final int EARLIEST_YEAR = 1800;
 
-  @Override
-  public void init() {
-    Scanner scanner = new Scanner(getServletContext().getResourceAsStream(
-        "/WEB-INF/bigfoot-sightings-by-year.csv"));
-    while (scanner.hasNextLine()) {
-      String line = scanner.nextLine();
-      String[] cells = line.split(",");
-
-      Integer year = Integer.valueOf(cells[0]);
-      Integer sightings = Integer.valueOf(cells[1]);
+  private SightingCounts bigfootSightings;
 
-      bigfootSightings.put(year, sightings);
+  @Override
+  public void init() throws ServletException {
+    Map<Integer, Integer> loaded = new LinkedHashMap<>();
+    try {
+      CsvReader.open(getServletContext(), DATA_FILE).forEach(SCHEMA, record -> loaded
+          .put((int) record.getLong(YEAR_INDEX), (int) record.getLong(SIGHTINGS_INDEX)));
+    } catch (IOException e) {
+      throw new ServletException("Could not read " + DATA_FILE, e);
     }
-    scanner.close();
+    bigfootSightings = SightingCounts.fromMap(loaded);
   }
 
+  /**
+   * Returns every year's count, or with any of from, to and bucket, the total of each run of
+   * bucket years from from to to, keyed by the run's first year. from and to default to the
+   * first and last years with data and bucket defaults to 1.
+   */
   @Override
   public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    String fromParam = request.getParameter(FROM_PARAMETER);
+    String toParam = request.getParameter(TO_PARAMETER);
+    String bucketParam = request.getParameter(BUCKET_PARAMETER);
+    Map<Integer, ? extends Number> result;
+    if (fromParam == null && toParam == null && bucketParam == null) {
+      result = bigfootSightings.toMap();
+    } else {
+      int from;
+      int to;
+      int bucket;
+      try {
+        from = fromParam == null ? bigfootSightings.getFirstYear() : Integer.parseInt(fromParam);
+        to = toParam == null ? bigfootSightings.getLastYear() : Integer.parseInt(toParam);
+        bucket = bucketParam == null ? 1 : Integer.parseInt(bucketParam);
+      } catch (NumberFormatException e) {
+        response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+        return;
+      }
+      if (bucket < 1 || ((long) to - from) / bucket >= MAX_BUCKETS) {
+        response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+            "bucket must be positive and give at most " + MAX_BUCKETS + " buckets");
+        return;
+      }
+      result = from > to ? Collections.emptyMap() : bigfootSightings.rollUp(from, to, bucket);
+    }
+
     response.setContentType("application/json");
     Gson gson = new Gson();
-    String json = gson.toJson(bigfootSightings);
+    String json = gson.toJson(result);
     response.getWriter().println(json);
   }
+
+  /**
+   * Adds count sightings, 1 by default, to year and returns the year's new count as
+   * {"year": count}.
+   */
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response)
+      throws IOException {
+    String countParam = request.getParameter(COUNT_PARAMETER);
+    int year;
+    int count;
+    try {
+      year = Integer.parseInt(request.getParameter(YEAR_PARAMETER));
+      count = countParam == null ? 1 : Integer.parseInt(countParam);
+    } catch (NumberFormatException e) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "year and count must be integers");
+      return;
+    }
+    int thisYear = Year.now().getValue();
+    if (year < EARLIEST_YEAR || year > thisYear || count < 1 || count > MAX_ADDED_SIGHTINGS) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "year must be from " + EARLIEST_YEAR
+          + " to " + thisYear + " and count from 1 to " + MAX_ADDED_SIGHTINGS);
+      return;
+    }
+
+    int total = bigfootSightings.add(year, count);
+    response.setContentType("application/json");
+    Gson gson = new Gson();
+    response.getWriter().println(gson.toJson(Collections.singletonMap(year, total)));
+  }
 }
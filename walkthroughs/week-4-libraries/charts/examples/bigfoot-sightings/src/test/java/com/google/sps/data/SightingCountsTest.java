@@ -0,0 +1,100 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class SightingCountsTest {
+  @Test
+  public void sumsMatchBruteForceWhileAdding() {
+    Random random = new Random(5);
+    int[] loaded = new int[50];
+    Map<Integer, Long> expected = new HashMap<>();
+    for (int i = 0; i < loaded.length; i++) {
+      loaded[i] = random.nextInt(100);
+      expected.put(1950 + i, (long) loaded[i]);
+    }
+    SightingCounts counts = new SightingCounts(1950, loaded);
+
+    for (int step = 0; step < 2000; step++) {
+      // Mostly inside the loaded years, sometimes extending them either way.
+      int year = 1930 + random.nextInt(110);
+      int sightings = random.nextInt(5);
+      long count = expected.merge(year, (long) sightings, Long::sum);
+      Assert.assertEquals(count, counts.add(year, sightings));
+
+      int from = 1920 + random.nextInt(130);
+      int to = from + random.nextInt(60) - 10;
+      Assert.assertEquals(bruteForceSum(expected, from, to), counts.sum(from, to));
+    }
+  }
+
+  @Test
+  public void extendingKeepsEveryCount() {
+    SightingCounts counts = new SightingCounts(2000, new int[] {1, 2, 3});
+    counts.add(1990, 4);
+    counts.add(2010, 5);
+    counts.add(2001, 6);
+    Assert.assertEquals(1990, counts.getFirstYear());
+    Assert.assertEquals(2010, counts.getLastYear());
+    Assert.assertEquals(21, counts.sum(Integer.MIN_VALUE, Integer.MAX_VALUE));
+    Assert.assertEquals(8, (int) counts.toMap().get(2001));
+    Assert.assertEquals(0, (int) counts.toMap().get(1995));
+    Assert.assertEquals(21, counts.toMap().size());
+  }
+
+  @Test
+  public void startsEmpty() {
+    SightingCounts counts = SightingCounts.fromMap(new HashMap<>());
+    Assert.assertEquals(0, counts.sum(1900, 2000));
+    Assert.assertEquals(-1, counts.getLastYear());
+    counts.add(1975, 3);
+    Assert.assertEquals(1975, counts.getFirstYear());
+    Assert.assertEquals(1975, counts.getLastYear());
+    Assert.assertEquals(3, counts.sum(1975, 1975));
+  }
+
+  @Test
+  public void rollUpBucketsYears() {
+    Map<Integer, Integer> sightings = new HashMap<>();
+    for (int year = 1960; year < 1990; year++) {
+      sightings.put(year, year - 1959);
+    }
+    SightingCounts counts = SightingCounts.fromMap(sightings);
+    Map<Integer, Long> decades = counts.rollUp(1960, 1985, 10);
+    Assert.assertEquals(3, decades.size());
+    Assert.assertEquals(55, (long) decades.get(1960));
+    Assert.assertEquals(155, (long) decades.get(1970));
+    // The last bucket stops at to.
+    Assert.assertEquals(21 + 22 + 23 + 24 + 25 + 26, (long) decades.get(1980));
+  }
+
+  private static long bruteForceSum(Map<Integer, Long> counts, int from, int to) {
+    long sum = 0;
+    for (Map.Entry<Integer, Long> entry : counts.entrySet()) {
+      if (entry.getKey() >= from && entry.getKey() <= to) {
+        sum += entry.getValue();
+      }
+    }
+    return sum;
+  }
+}
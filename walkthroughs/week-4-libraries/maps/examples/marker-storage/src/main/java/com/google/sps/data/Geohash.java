@@ -0,0 +1,116 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Geohashes: base 32 strings naming cells of a grid that is halved alternately in longitude and
+ * latitude by each bit. Every prefix of a point's geohash names a larger cell containing the
+ * point, so the points in a cell are exactly those whose geohashes sort from the cell's geohash
+ * up to, but not including, the cell's geohash followed by END.
+ */
+public class Geohash {
+  /** Precision of stored geohashes: 9 characters name cells about 5 meters across. */
+  public static final int MAX_PRECISION = 9;
+
+  /** Sorts after every geohash character, so cell + END bounds the geohashes in cell. */
+  public static final String END = "{";
+
+  private static final String BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz";
+
+  private Geohash() {}
+
+  /** Returns the geohash of the cell of the given precision, in characters, containing a point. */
+  public static String encode(double lat, double lng, int precision) {
+    double south = -90;
+    double north = 90;
+    double west = -180;
+    double east = 180;
+    StringBuilder geohash = new StringBuilder(precision);
+    int bits = 0;
+    int value = 0;
+    boolean longitude = true;
+    while (geohash.length() < precision) {
+      if (longitude) {
+        double middle = (west + east) / 2;
+        value = value << 1 | (lng >= middle ? 1 : 0);
+        if (lng >= middle) {
+          west = middle;
+        } else {
+          east = middle;
+        }
+      } else {
+        double middle = (south + north) / 2;
+        value = value << 1 | (lat >= middle ? 1 : 0);
+        if (lat >= middle) {
+          south = middle;
+        } else {
+          north = middle;
+        }
+      }
+      longitude = !longitude;
+      if (++bits == 5) {
+        geohash.append(BASE32.charAt(value));
+        bits = 0;
+        value = 0;
+      }
+    }
+    return geohash.toString();
+  }
+
+  /**
+   * Returns the cells covering the box from south to north and west to east, at the finest
+   * precision where at most maxCells cells are needed, or every single-character cell the box
+   * touches if even those are too many. West may exceed east when the box crosses the
+   * antimeridian.
+   */
+  public static List<String> cover(
+      double south, double west, double north, double east, int maxCells) {
+    for (int precision = MAX_PRECISION; ; precision--) {
+      long columns = 1L << ((5 * precision + 1) / 2);
+      long rows = 1L << (5 * precision / 2);
+      double width = 360.0 / columns;
+      double height = 180.0 / rows;
+      long firstColumn = index(west + 180, width, columns);
+      long lastColumn = index(east + 180, width, columns);
+      long firstRow = index(south + 90, height, rows);
+      long lastRow = index(north + 90, height, rows);
+      long spanned = west <= east
+          ? lastColumn - firstColumn + 1
+          : Math.min(columns, columns - firstColumn + lastColumn + 1);
+      if (spanned * (lastRow - firstRow + 1) > maxCells && precision > 1) {
+        continue;
+      }
+
+      List<String> cells = new ArrayList<>();
+      for (long row = firstRow; row <= lastRow; row++) {
+        for (long i = 0; i < spanned; i++) {
+          long column = (firstColumn + i) % columns;
+          // Each cell is named by the geohash of its centre.
+          cells.add(encode(
+              (row + 0.5) * height - 90, (column + 0.5) * width - 180, precision));
+        }
+      }
+      return cells;
+    }
+  }
+
+  /** Index of the cell of the given size containing offset, clamped to the grid. */
+  private static long index(double offset, double size, long cells) {
+    return Math.max(0, Math.min(cells - 1, (long) Math.floor(offset / size)));
+  }
+}
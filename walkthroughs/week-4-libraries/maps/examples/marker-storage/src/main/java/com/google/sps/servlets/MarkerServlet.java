@@ -14,16 +14,30 @@
 
 package com.google.sps.servlets;
 
+import com.google.appengine.api.datastore.Cursor;
 import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
 import com.google.appengine.api.datastore.PreparedQuery;
 import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.CompositeFilterOperator;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.datastore.Query.FilterPredicate;
+import com.google.appengine.api.datastore.QueryResultList;
+import com.google.sps.data.Geohash;
+import com.google.sps.data.LruCache;
 import com.google.sps.data.Marker;
 import com.google.gson.Gson;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -31,16 +45,119 @@ import javax.servlet.http.HttpServletResponse;
 import org.jsoup.Jsoup;
 import org.jsoup.safety.Whitelist;
 
-/** Handles fetching and saving markers data. */
+/**
+ * Handles fetching and saving markers data.
+ *
+ * <p>Each marker is stored with its geohash, so the markers in a viewport, given as
+ * bbox=south,west,north,east, are found with one range query per geohash cell covering it, and
+ * recently read cells are cached in memory.
+ */
 @WebServlet("/markers")
 public class MarkerServlet extends HttpServlet {
 
-  /** Responds with a JSON array containing marker data. */
+  /** Most geohash cells, and so Datastore queries, used to cover one viewport. */
+  private static final int MAX_CELLS = 12;
+  private static final int CELL_CACHE_SIZE = 1024;
+  /** How long a cached cell is used, so markers stored through other instances show up. */
+  private static final long CELL_CACHE_MILLIS = 60 * 1000;
+  /** Markers read, and at most written, per Datastore batch of the geohash backfill. */
+  private static final int BACKFILL_BATCH_SIZE = 500;
+  /** Batches backfilled per init; later inits resume from the saved cursor. */
+  private static final int BACKFILL_BATCHES_PER_INIT = 20;
+  /**
+   * Backfill progress: the cursor after the last finished batch, or no cursor once every
+   * marker has a geohash.
+   */
+  private static final Key BACKFILL_KEY = KeyFactory.createKey("MarkerBackfill", "geohash");
+
+  /** Markers in recently read geohash cells, by cell. */
+  private final LruCache<String, Cell> cellCache = new LruCache<>(CELL_CACHE_SIZE);
+
+  /** The markers in one geohash cell, as read at loadedMillis. */
+  private static class Cell {
+    private final List<Marker> markers;
+    private final long loadedMillis;
+
+    private Cell(List<Marker> markers, long loadedMillis) {
+      this.markers = markers;
+      this.loadedMillis = loadedMillis;
+    }
+  }
+
+  /**
+   * Gives a geohash to markers stored before markers had one, a batch put at a time. Each init
+   * does at most BACKFILL_BATCHES_PER_INIT batches and saves a cursor after each, so a large
+   * backfill is spread over several instance starts and survives one being stopped partway.
+   */
+  @Override
+  public void init() {
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    Entity progress;
+    try {
+      progress = datastore.get(BACKFILL_KEY);
+      if (!progress.hasProperty("cursor")) {
+        return;
+      }
+    } catch (EntityNotFoundException e) {
+      progress = new Entity(BACKFILL_KEY);
+    }
+
+    FetchOptions options = FetchOptions.Builder.withLimit(BACKFILL_BATCH_SIZE);
+    if (progress.hasProperty("cursor")) {
+      options.startCursor(Cursor.fromWebSafeString((String) progress.getProperty("cursor")));
+    }
+    for (int batch = 0; batch < BACKFILL_BATCHES_PER_INIT; batch++) {
+      QueryResultList<Entity> entities =
+          datastore.prepare(new Query("Marker")).asQueryResultList(options);
+      List<Entity> updated = new ArrayList<>();
+      for (Entity entity : entities) {
+        if (!entity.hasProperty("geohash")) {
+          entity.setProperty("geohash", Geohash.encode((double) entity.getProperty("lat"),
+              (double) entity.getProperty("lng"), Geohash.MAX_PRECISION));
+          updated.add(entity);
+        }
+      }
+      if (!updated.isEmpty()) {
+        datastore.put(updated);
+      }
+
+      if (entities.size() < BACKFILL_BATCH_SIZE) {
+        progress.removeProperty("cursor");
+        datastore.put(progress);
+        return;
+      }
+      progress.setUnindexedProperty("cursor", entities.getCursor().toWebSafeString());
+      datastore.put(progress);
+      options.startCursor(entities.getCursor());
+    }
+  }
+
+  /**
+   * Responds with a JSON array containing marker data: every marker, or with a bbox parameter
+   * only those in the viewport.
+   */
   @Override
   public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
-    response.setContentType("application/json");
+    String bbox = request.getParameter("bbox");
+    Collection<Marker> markers;
+    if (bbox == null) {
+      markers = getMarkers();
+    } else {
+      String[] edges = bbox.split(",");
+      try {
+        if (edges.length != 4) {
+          throw new NumberFormatException();
+        }
+        markers = getMarkers(Double.parseDouble(edges[0]), Double.parseDouble(edges[1]),
+            Double.parseDouble(edges[2]), Double.parseDouble(edges[3]));
+      } catch (NumberFormatException e) {
+        response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+            "Expected bbox=south,west,north,east but got " + bbox);
+        return;
+      }
+    }
 
-    Collection<Marker> markers = getMarkers();
+    response.setContentType("application/json");
     Gson gson = new Gson();
     String json = gson.toJson(markers);
 
@@ -67,24 +184,81 @@ public class MarkerServlet extends HttpServlet {
     PreparedQuery results = datastore.prepare(query);
 
     for (Entity entity : results.asIterable()) {
-      double lat = (double) entity.getProperty("lat");
-      double lng = (double) entity.getProperty("lng");
-      String content = (String) entity.getProperty("content");
+      markers.add(toMarker(entity));
+    }
+    return markers;
+  }
+
+  /**
+   * Fetches the markers inside a viewport, reading the geohash cells covering it from the cache
+   * or from Datastore. West may exceed east when the viewport crosses the antimeridian.
+   */
+  private Collection<Marker> getMarkers(double south, double west, double north, double east) {
+    long now = System.currentTimeMillis();
+    Map<String, List<Marker>> cells = new LinkedHashMap<>();
+    Map<String, List<Entity>> pending = new LinkedHashMap<>();
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    for (String cell : Geohash.cover(south, west, north, east, MAX_CELLS)) {
+      Cell cached = cellCache.get(cell);
+      if (cached != null && now - cached.loadedMillis < CELL_CACHE_MILLIS) {
+        cells.put(cell, cached.markers);
+      } else {
+        // Every query is started before any results are read, so they run at the same time.
+        pending.put(cell,
+            datastore.prepare(cellQuery(cell)).asList(FetchOptions.Builder.withDefaults()));
+      }
+    }
+    for (Map.Entry<String, List<Entity>> entry : pending.entrySet()) {
+      List<Marker> markers = new ArrayList<>();
+      for (Entity entity : entry.getValue()) {
+        markers.add(toMarker(entity));
+      }
+      cellCache.put(entry.getKey(), new Cell(markers, now));
+      cells.put(entry.getKey(), markers);
+    }
 
-      Marker marker = new Marker(lat, lng, content);
-      markers.add(marker);
+    // Cells overhang the viewport, so keep only the markers inside it.
+    Collection<Marker> markers = new ArrayList<>();
+    for (List<Marker> cell : cells.values()) {
+      for (Marker marker : cell) {
+        double lng = marker.getLng();
+        boolean insideLng = west <= east ? lng >= west && lng <= east : lng >= west || lng <= east;
+        if (marker.getLat() >= south && marker.getLat() <= north && insideLng) {
+          markers.add(marker);
+        }
+      }
     }
     return markers;
   }
 
-  /** Stores a marker in Datastore. */
+  /** Returns a query for the markers whose geohash starts with cell. */
+  private static Query cellQuery(String cell) {
+    return new Query("Marker").setFilter(CompositeFilterOperator.and(
+        new FilterPredicate("geohash", FilterOperator.GREATER_THAN_OR_EQUAL, cell),
+        new FilterPredicate("geohash", FilterOperator.LESS_THAN, cell + Geohash.END)));
+  }
+
+  private static Marker toMarker(Entity entity) {
+    double lat = (double) entity.getProperty("lat");
+    double lng = (double) entity.getProperty("lng");
+    String content = (String) entity.getProperty("content");
+    return new Marker(lat, lng, content);
+  }
+
+  /** Stores a marker in Datastore, and drops the cached cells it falls in. */
   public void storeMarker(Marker marker) {
+    String geohash = Geohash.encode(marker.getLat(), marker.getLng(), Geohash.MAX_PRECISION);
     Entity markerEntity = new Entity("Marker");
     markerEntity.setProperty("lat", marker.getLat());
     markerEntity.setProperty("lng", marker.getLng());
     markerEntity.setProperty("content", marker.getContent());
+    markerEntity.setProperty("geohash", geohash);
 
     DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
     datastore.put(markerEntity);
+
+    for (int precision = 1; precision <= Geohash.MAX_PRECISION; precision++) {
+      cellCache.remove(geohash.substring(0, precision));
+    }
   }
 }
@@ -17,6 +17,9 @@ let map;
 /* Editable marker that displays when a user clicks in the map. */
 let editMarker;
 
+/* Markers shown in the current viewport, replaced whenever it changes. */
+let displayedMarkers = [];
+
 /** Creates a map that allows users to add markers. */
 function createMap() {
   map = new google.maps.Map(
@@ -29,19 +32,25 @@ function createMap() {
     createMarkerForEdit(event.latLng.lat(), event.latLng.lng());
   });
 
-  fetchMarkers();
+  // Load the markers in view whenever the map stops moving.
+  map.addListener('idle', fetchMarkers);
 }
 
-/** Fetches markers from the backend and adds them to the map. */
+/** Fetches the markers in the viewport from the backend and shows them. */
 function fetchMarkers() {
-  fetch('/markers').then(response => response.json()).then((markers) => {
-    markers.forEach(
-        (marker) => {
-            createMarkerForDisplay(marker.lat, marker.lng, marker.content)});
+  const url = '/markers?bbox=' + map.getBounds().toUrlValue();
+  fetch(url).then(response => response.json()).then((markers) => {
+    displayedMarkers.forEach(marker => marker.setMap(null));
+    displayedMarkers = markers.map(
+        marker =>
+            createMarkerForDisplay(marker.lat, marker.lng, marker.content));
   });
 }
 
-/** Creates a marker that shows a read-only info window when clicked. */
+/**
+ * Creates and returns a marker that shows a read-only info window when
+ * clicked.
+ */
 function createMarkerForDisplay(lat, lng, content) {
   const marker =
       new google.maps.Marker({position: {lat: lat, lng: lng}, map: map});
@@ -50,6 +59,7 @@ function createMarkerForDisplay(lat, lng, content) {
   marker.addListener('click', () => {
     infoWindow.open(map, marker);
   });
+  return marker;
 }
 
 /** Sends a marker to the backend for saving. */
@@ -94,7 +104,7 @@ function buildInfoWindowInput(lat, lng) {
 
   button.onclick = () => {
     postMarker(lat, lng, textBox.value);
-    createMarkerForDisplay(lat, lng, textBox.value);
+    displayedMarkers.push(createMarkerForDisplay(lat, lng, textBox.value));
     editMarker.setMap(null);
   };
 
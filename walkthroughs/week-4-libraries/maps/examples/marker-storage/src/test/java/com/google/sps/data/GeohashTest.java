@@ -0,0 +1,107 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.util.List;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class GeohashTest {
+  @Test
+  public void encodesKnownPoints() {
+    Assert.assertEquals("ezs42", Geohash.encode(42.6, -5.6, 5));
+    Assert.assertEquals("u4pruydqq", Geohash.encode(57.64911, 10.40744, 9));
+    Assert.assertEquals("9q8yyk8yt", Geohash.encode(37.7749, -122.4194, 9));
+    Assert.assertEquals("s00000000", Geohash.encode(0, 0, 9));
+    Assert.assertEquals("000000000", Geohash.encode(-90, -180, 9));
+    Assert.assertEquals("zzzzzzzzz", Geohash.encode(90, 180, 9));
+  }
+
+  @Test
+  public void prefixesNameContainingCells() {
+    Random random = new Random(1);
+    for (int i = 0; i < 1000; i++) {
+      double lat = random.nextDouble() * 180 - 90;
+      double lng = random.nextDouble() * 360 - 180;
+      String full = Geohash.encode(lat, lng, Geohash.MAX_PRECISION);
+      for (int precision = 1; precision < Geohash.MAX_PRECISION; precision++) {
+        Assert.assertEquals(full.substring(0, precision), Geohash.encode(lat, lng, precision));
+      }
+    }
+  }
+
+  @Test
+  public void coverContainsEveryPointInBox() {
+    Random random = new Random(2);
+    for (int box = 0; box < 200; box++) {
+      double south = random.nextDouble() * 170 - 85;
+      double north = Math.min(90, south + random.nextDouble() * (box % 2 == 0 ? 0.1 : 20));
+      double west;
+      double east;
+      if (box % 4 == 0) {
+        // Crosses the antimeridian, so west is greater than east.
+        west = 170 + random.nextDouble() * 10;
+        east = -180 + random.nextDouble() * 10;
+      } else {
+        west = random.nextDouble() * 330 - 180;
+        east = west + random.nextDouble() * 30;
+      }
+      int maxCells = 1 + random.nextInt(16);
+      List<String> cells = Geohash.cover(south, west, north, east, maxCells);
+
+      for (int point = 0; point < 200; point++) {
+        double lat = south + random.nextDouble() * (north - south);
+        double lng = west <= east
+            ? west + random.nextDouble() * (east - west)
+            : west + random.nextDouble() * (east + 360 - west);
+        if (lng > 180) {
+          lng -= 360;
+        }
+        Assert.assertTrue(covered(cells, Geohash.encode(lat, lng, Geohash.MAX_PRECISION)));
+      }
+    }
+  }
+
+  @Test
+  public void coverUsesFinestPrecisionWithinLimit() {
+    List<String> cells = Geohash.cover(37.77, -122.42, 37.78, -122.41, 4);
+    Assert.assertTrue(cells.size() <= 4);
+    List<String> finer = Geohash.cover(37.77, -122.42, 37.78, -122.41, 1000);
+    Assert.assertTrue(finer.size() > 4);
+    Assert.assertTrue(finer.get(0).length() > cells.get(0).length());
+  }
+
+  @Test
+  public void cellBoundsOrderGeohashes() {
+    String cell = "9q8y";
+    Assert.assertTrue("9q8y0".compareTo(cell) >= 0);
+    Assert.assertTrue("9q8yzzzzz".compareTo(cell + Geohash.END) < 0);
+    Assert.assertTrue("9q8z".compareTo(cell + Geohash.END) > 0);
+  }
+
+  /* True if geohash lies in one of cells, that is sorts from the cell up to cell + END. */
+  private static boolean covered(List<String> cells, String geohash) {
+    for (String cell : cells) {
+      if (geohash.compareTo(cell) >= 0 && geohash.compareTo(cell + Geohash.END) < 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
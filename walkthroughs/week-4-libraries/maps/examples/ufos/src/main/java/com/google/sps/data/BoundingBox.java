@@ -0,0 +1,84 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.util.function.IntConsumer;
+
+/*
+ * A lat/lng viewport, parsed from the "south,west,north,east" form produced by the Maps API's
+ * LatLngBounds.toUrlValue(). West may exceed east when the viewport crosses the antimeridian.
+ */
+public class BoundingBox {
+  private final double south;
+  private final double west;
+  private final double north;
+  private final double east;
+
+  public BoundingBox(double south, double west, double north, double east) {
+    this.south = south;
+    this.west = west;
+    this.north = north;
+    this.east = east;
+  }
+
+  /* Parses "south,west,north,east", throwing IllegalArgumentException if it is malformed. */
+  public static BoundingBox parse(String value) {
+    String[] parts = value.split(",");
+    if (parts.length != 4) {
+      throw new IllegalArgumentException("Expected bbox=south,west,north,east but got " + value);
+    }
+    double[] edges = new double[4];
+    for (int i = 0; i < 4; i++) {
+      edges[i] = Double.parseDouble(parts[i].trim());
+    }
+    if (edges[0] > edges[2]) {
+      throw new IllegalArgumentException("bbox south edge is north of its north edge: " + value);
+    }
+    return new BoundingBox(edges[0], edges[1], edges[2], edges[3]);
+  }
+
+  public boolean contains(double lat, double lng) {
+    if (lat < south || lat > north) {
+      return false;
+    }
+    return west <= east ? lng >= west && lng <= east : lng >= west || lng <= east;
+  }
+
+  /* Visits every point of tree, built with x = lng and y = lat, that lies inside this box. */
+  public void search(PackedRTree tree, IntConsumer visitor) {
+    if (west <= east) {
+      tree.search(west, south, east, north, visitor);
+    } else {
+      tree.search(west, south, 180, north, visitor);
+      tree.search(-180, south, east, north, visitor);
+    }
+  }
+
+  public double getSouth() {
+    return south;
+  }
+
+  public double getWest() {
+    return west;
+  }
+
+  public double getNorth() {
+    return north;
+  }
+
+  public double getEast() {
+    return east;
+  }
+}
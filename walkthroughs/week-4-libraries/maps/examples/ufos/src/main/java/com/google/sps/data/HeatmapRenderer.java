@@ -0,0 +1,207 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import javax.imageio.ImageIO;
+
+/**
+ * Renders map tiles of point density as PNG images. Density is a kernel density estimate with
+ * a Gaussian kernel of fixed width in screen pixels: points are counted per pixel, including a
+ * margin around the tile so that kernels cross tile edges seamlessly, and the counts are blurred
+ * by two one-dimensional passes. The passes and colouring are split by rows across a ForkJoin
+ * pool.
+ */
+public class HeatmapRenderer {
+  public static final int TILE_PIXELS = 256;
+
+  /** Standard deviation of the kernel, in pixels. */
+  private static final double BANDWIDTH_PIXELS = 6;
+  private static final int KERNEL_RADIUS = (int) Math.ceil(3 * BANDWIDTH_PIXELS);
+  private static final int GRID_PIXELS = TILE_PIXELS + 2 * KERNEL_RADIUS;
+
+  /** Number of overlapping sightings at which the colour ramp saturates. */
+  private static final double SATURATION = 20;
+
+  /** Rows below which a task is not split further. */
+  private static final int MIN_TASK_ROWS = 16;
+
+  /** Colour stops from sparse to dense, as ARGB. */
+  private static final int[] GRADIENT = {
+    0x000000ff, 0x990000ff, 0xcc00ffff, 0xdd00ff00, 0xeeffff00, 0xffff0000
+  };
+
+  private final TileBucketIndex index;
+  private final ForkJoinPool pool;
+
+  /** Kernel weights from -KERNEL_RADIUS to KERNEL_RADIUS, scaled so one point peaks at 1. */
+  private final float[] kernel = new float[2 * KERNEL_RADIUS + 1];
+
+  /** ARGB colour of each of 256 density levels. */
+  private final int[] palette = new int[256];
+
+  public HeatmapRenderer(TileBucketIndex index, ForkJoinPool pool) {
+    this.index = index;
+    this.pool = pool;
+    for (int i = -KERNEL_RADIUS; i <= KERNEL_RADIUS; i++) {
+      kernel[i + KERNEL_RADIUS] =
+          (float) Math.exp(-i * i / (2 * BANDWIDTH_PIXELS * BANDWIDTH_PIXELS));
+    }
+    for (int level = 0; level < palette.length; level++) {
+      double position = level / 255.0 * (GRADIENT.length - 1);
+      int stop = Math.min(GRADIENT.length - 2, (int) position);
+      palette[level] = blend(GRADIENT[stop], GRADIENT[stop + 1], position - stop);
+    }
+  }
+
+  /**
+   * Renders tile (x, y) at zoom as a PNG, or returns null if no point is close enough to the
+   * tile to show on it. Whole empty buckets are skipped first; a tile whose buckets hold points
+   * but none within its margin is found empty once they are counted, before it is blurred.
+   */
+  public byte[] render(int zoom, int x, int y) {
+    double tileSize = 1.0 / (1L << zoom);
+    double margin = tileSize * KERNEL_RADIUS / TILE_PIXELS;
+    double left = x * tileSize - margin;
+    double top = y * tileSize - margin;
+    double right = (x + 1) * tileSize + margin;
+    double bottom = (y + 1) * tileSize + margin;
+    if (isEmpty(left, top, right, bottom)) {
+      return null;
+    }
+
+    // Count points per pixel of the tile and its margin. The map wraps east to west, so the
+    // margins of tiles on its edges are filled from the far side.
+    float[] counts = new float[GRID_PIXELS * GRID_PIXELS];
+    int[] counted = new int[1];
+    double pixelsPerUnit = TILE_PIXELS / tileSize;
+    for (int shift = -1; shift <= 1; shift++) {
+      double offset = shift;
+      index.search(left - offset, top, right - offset, bottom, (pointX, pointY) -> {
+        int column = (int) ((pointX + offset - left) * pixelsPerUnit);
+        int row = (int) ((pointY - top) * pixelsPerUnit);
+        if (column >= 0 && column < GRID_PIXELS && row >= 0 && row < GRID_PIXELS) {
+          counts[row * GRID_PIXELS + column]++;
+          counted[0]++;
+        }
+      });
+    }
+    if (counted[0] == 0) {
+      return null;
+    }
+
+    // Blur along rows into the tile's columns, then along columns into the tile's rows.
+    float[] rows = new float[GRID_PIXELS * TILE_PIXELS];
+    pool.invoke(new RowTask(0, GRID_PIXELS, (from, to) -> {
+      for (int row = from; row < to; row++) {
+        for (int column = 0; column < TILE_PIXELS; column++) {
+          float sum = 0;
+          int start = row * GRID_PIXELS + column;
+          for (int k = 0; k < kernel.length; k++) {
+            sum += counts[start + k] * kernel[k];
+          }
+          rows[row * TILE_PIXELS + column] = sum;
+        }
+      }
+    }));
+
+    int[] argb = new int[TILE_PIXELS * TILE_PIXELS];
+    double scale = 255 / Math.log1p(SATURATION);
+    pool.invoke(new RowTask(0, TILE_PIXELS, (from, to) -> {
+      for (int row = from; row < to; row++) {
+        for (int column = 0; column < TILE_PIXELS; column++) {
+          float density = 0;
+          for (int k = 0; k < kernel.length; k++) {
+            density += rows[(row + k) * TILE_PIXELS + column] * kernel[k];
+          }
+          int level = (int) Math.min(255, Math.log1p(density) * scale);
+          argb[row * TILE_PIXELS + column] = palette[level];
+        }
+      }
+    }));
+
+    BufferedImage image = new BufferedImage(TILE_PIXELS, TILE_PIXELS, BufferedImage.TYPE_INT_ARGB);
+    image.setRGB(0, 0, TILE_PIXELS, TILE_PIXELS, argb, 0, TILE_PIXELS);
+    return encodePng(image);
+  }
+
+  /** A fully transparent tile, for tiles with nothing to show. */
+  public static byte[] emptyTile() {
+    return encodePng(new BufferedImage(TILE_PIXELS, TILE_PIXELS, BufferedImage.TYPE_INT_ARGB));
+  }
+
+  private boolean isEmpty(double left, double top, double right, double bottom) {
+    for (int shift = -1; shift <= 1; shift++) {
+      if (!index.isEmpty(left - shift, top, right - shift, bottom)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static byte[] encodePng(BufferedImage image) {
+    ByteArrayOutputStream png = new ByteArrayOutputStream();
+    try {
+      ImageIO.write(image, "png", png);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return png.toByteArray();
+  }
+
+  /** Interpolates each ARGB channel between from and to. */
+  private static int blend(int from, int to, double fraction) {
+    int result = 0;
+    for (int shift = 0; shift < 32; shift += 8) {
+      int a = (from >>> shift) & 0xff;
+      int b = (to >>> shift) & 0xff;
+      result |= ((int) Math.round(a + (b - a) * fraction)) << shift;
+    }
+    return result;
+  }
+
+  /** Work on a range of rows, from inclusive to to exclusive. */
+  private interface RowWork {
+    void run(int from, int to);
+  }
+
+  /** Splits a range of rows in halves until they are small, then runs work on each part. */
+  private static class RowTask extends RecursiveAction {
+    private final int from;
+    private final int to;
+    private final RowWork work;
+
+    private RowTask(int from, int to, RowWork work) {
+      this.from = from;
+      this.to = to;
+      this.work = work;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from <= MIN_TASK_ROWS) {
+        work.run(from, to);
+        return;
+      }
+      int middle = (from + to) >>> 1;
+      invokeAll(new RowTask(from, middle, work), new RowTask(middle, to, work));
+    }
+  }
+}
@@ -0,0 +1,102 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import javax.servlet.ServletContext;
+
+/**
+ * Coordinates of every sighting in a CSV file of "lat,lng" rows, held off the heap in a
+ * PointStore and shared by every servlet of the web application, so the file is parsed once.
+ */
+public class SightingPoints {
+  private static final CsvReader.Schema SCHEMA = new CsvReader.Schema()
+      .column(0, CsvReader.Type.DOUBLE)
+      .column(1, CsvReader.Type.DOUBLE);
+
+  private final PointStore points;
+  private final long checksum;
+
+  private SightingPoints(PointStore points) {
+    this.points = points;
+    CRC32 crc = new CRC32();
+    ByteBuffer bytes = ByteBuffer.allocate(16 * 1024);
+    for (int i = 0; i < points.size(); i++) {
+      if (bytes.remaining() < 16) {
+        bytes.flip();
+        crc.update(bytes);
+        bytes.clear();
+      }
+      bytes.putDouble(points.getLat(i)).putDouble(points.getLng(i));
+    }
+    bytes.flip();
+    crc.update(bytes);
+    this.checksum = crc.getValue();
+  }
+
+  /** Collects the coordinates of one chunk of the CSV file. */
+  private static class SightingCollector implements CsvReader.RecordHandler {
+    private final PointStore.Builder points = new PointStore.Builder(0, false);
+
+    @Override
+    public void handle(CsvReader.Record record) {
+      points.add(record.getDouble(0), record.getDouble(1));
+    }
+  }
+
+  /**
+   * Returns the sightings in the given web application resource, parsing it in parallel the
+   * first time and sharing the result through a context attribute afterwards.
+   */
+  public static SightingPoints get(ServletContext context, String resource) throws IOException {
+    String attribute = SightingPoints.class.getName() + ":" + resource;
+    synchronized (SightingPoints.class) {
+      SightingPoints points = (SightingPoints) context.getAttribute(attribute);
+      if (points == null) {
+        points = load(CsvReader.open(context, resource));
+        context.setAttribute(attribute, points);
+      }
+      return points;
+    }
+  }
+
+  private static SightingPoints load(CsvReader reader) {
+    List<SightingCollector> collectors = reader.forEachParallel(
+        SCHEMA, Runtime.getRuntime().availableProcessors(), SightingCollector::new);
+    List<PointStore> chunks = new ArrayList<>();
+    for (SightingCollector collector : collectors) {
+      chunks.add(collector.points.build());
+    }
+    return new SightingPoints(PointStore.concat(chunks));
+  }
+
+  public int size() {
+    return points.size();
+  }
+
+  /** Coordinates by sighting. */
+  public PointStore getPoints() {
+    return points;
+  }
+
+  /** CRC-32 of every coordinate, which changes whenever the data does. */
+  public long getChecksum() {
+    return checksum;
+  }
+}
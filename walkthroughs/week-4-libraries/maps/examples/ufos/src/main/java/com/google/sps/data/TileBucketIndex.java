@@ -0,0 +1,120 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.nio.DoubleBuffer;
+
+/**
+ * Points grouped by the map tile containing them at BUCKET_ZOOM, in Web Mercator coordinates.
+ * The points of each tile are stored contiguously, off the heap, so the points near any tile are
+ * found by scanning a few runs of the buffers rather than every point.
+ */
+public class TileBucketIndex {
+  /** Zoom level of the bucket grid: 2^BUCKET_ZOOM by 2^BUCKET_ZOOM buckets. */
+  public static final int BUCKET_ZOOM = 8;
+
+  private static final int BUCKETS_PER_SIDE = 1 << BUCKET_ZOOM;
+
+  /** Point coordinates, sorted by bucket. */
+  private final DoubleBuffer xs;
+  private final DoubleBuffer ys;
+
+  /** The points of bucket b are at indexes starts[b] to starts[b + 1]. */
+  private final int[] starts;
+
+  /** Receives the points found by search. */
+  public interface PointVisitor {
+    void visit(double x, double y);
+  }
+
+  /** Indexes the points of store. */
+  public TileBucketIndex(PointStore store) {
+    int size = store.size();
+    int[] buckets = new int[size];
+    starts = new int[BUCKETS_PER_SIDE * BUCKETS_PER_SIDE + 1];
+    for (int i = 0; i < size; i++) {
+      buckets[i] = bucket(
+          ClusterPyramid.mercatorX(store.getLng(i)), ClusterPyramid.mercatorY(store.getLat(i)));
+      starts[buckets[i] + 1]++;
+    }
+    for (int b = 0; b + 1 < starts.length; b++) {
+      starts[b + 1] += starts[b];
+    }
+
+    // Counting sort into bucket order.
+    xs = PointStore.allocateDoubles(size);
+    ys = PointStore.allocateDoubles(size);
+    int[] next = starts.clone();
+    for (int i = 0; i < size; i++) {
+      int position = next[buckets[i]]++;
+      xs.put(position, ClusterPyramid.mercatorX(store.getLng(i)));
+      ys.put(position, ClusterPyramid.mercatorY(store.getLat(i)));
+    }
+  }
+
+  /**
+   * Visits every point with left <= x < right and top <= y < bottom, in Web Mercator
+   * coordinates. The rectangle is clipped to the map; it does not wrap around.
+   */
+  public void search(double left, double top, double right, double bottom,
+      PointVisitor visitor) {
+    if (left >= right || top >= bottom || right <= 0 || left >= 1 || bottom <= 0 || top >= 1) {
+      return;
+    }
+    int firstColumn = cell(left);
+    int lastColumn = cell(Math.nextDown(right));
+    int firstRow = cell(top);
+    int lastRow = cell(Math.nextDown(bottom));
+    for (int row = firstRow; row <= lastRow; row++) {
+      for (int column = firstColumn; column <= lastColumn; column++) {
+        int bucket = row * BUCKETS_PER_SIDE + column;
+        // Buckets wholly inside the rectangle need no per-point test.
+        boolean inside = column > firstColumn && column < lastColumn
+            && row > firstRow && row < lastRow;
+        for (int i = starts[bucket]; i < starts[bucket + 1]; i++) {
+          double x = xs.get(i);
+          double y = ys.get(i);
+          if (inside || (x >= left && x < right && y >= top && y < bottom)) {
+            visitor.visit(x, y);
+          }
+        }
+      }
+    }
+  }
+
+  /** True if no point lies in the given rectangle, checked at bucket granularity. */
+  public boolean isEmpty(double left, double top, double right, double bottom) {
+    if (right <= 0 || left >= 1 || bottom <= 0 || top >= 1) {
+      return true;
+    }
+    int lastColumn = cell(Math.nextDown(right));
+    int lastRow = cell(Math.nextDown(bottom));
+    for (int row = cell(top); row <= lastRow; row++) {
+      int rowStart = row * BUCKETS_PER_SIDE;
+      if (starts[rowStart + lastColumn + 1] > starts[rowStart + cell(left)]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int bucket(double x, double y) {
+    return cell(y) * BUCKETS_PER_SIDE + cell(x);
+  }
+
+  private static int cell(double coordinate) {
+    return Math.max(0, Math.min(BUCKETS_PER_SIDE - 1, (int) (coordinate * BUCKETS_PER_SIDE)));
+  }
+}
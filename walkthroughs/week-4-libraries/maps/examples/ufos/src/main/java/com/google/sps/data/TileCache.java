@@ -0,0 +1,121 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Rendered map tiles, kept in memory up to a total number of bytes and evicting the least
+ * recently used, and also saved to a directory so they survive restarts and evictions. Nothing
+ * is ever deleted from the directory, so only tiles up to a maximum zoom are saved there: each
+ * zoom level can hold four times as many tiles as the one above it. Safe for concurrent use.
+ */
+public class TileCache {
+  private static final Logger logger = Logger.getLogger(TileCache.class.getName());
+
+  private final long maxBytes;
+  private final Path directory;
+  private final int maxDiskZoom;
+  private final LinkedHashMap<String, byte[]> tiles = new LinkedHashMap<>(16, 0.75f, true);
+  private long bytes;
+
+  /**
+   * Creates a cache holding at most maxBytes of tiles in memory, backed by directory for tiles
+   * at zoom levels up to maxDiskZoom. The directory is created if needed, and should be on
+   * storage that outlives the process, or the saved tiles only take up memory or disk until it
+   * ends. directory may be null to keep tiles in memory only.
+   */
+  public TileCache(long maxBytes, Path directory, int maxDiskZoom) {
+    this.maxBytes = maxBytes;
+    this.directory = directory;
+    this.maxDiskZoom = maxDiskZoom;
+  }
+
+  /** Returns tile (x, y) at zoom from memory or disk, or null if it is in neither. */
+  public byte[] get(int zoom, int x, int y) {
+    String key = key(zoom, x, y);
+    synchronized (this) {
+      byte[] tile = tiles.get(key);
+      if (tile != null) {
+        return tile;
+      }
+    }
+    if (directory == null || zoom > maxDiskZoom) {
+      return null;
+    }
+    Path file = directory.resolve(key);
+    if (!Files.isRegularFile(file)) {
+      return null;
+    }
+    try {
+      byte[] tile = Files.readAllBytes(file);
+      putInMemory(key, tile);
+      return tile;
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Could not read cached tile " + file, e);
+      return null;
+    }
+  }
+
+  /** Caches tile (x, y) at zoom in memory, and on disk if zoom is at most maxDiskZoom. */
+  public void put(int zoom, int x, int y, byte[] tile) {
+    String key = key(zoom, x, y);
+    putInMemory(key, tile);
+    if (directory == null || zoom > maxDiskZoom) {
+      return;
+    }
+    // Written to a temporary file and moved into place so readers never see part of a tile.
+    Path file = directory.resolve(key);
+    try {
+      Files.createDirectories(file.getParent());
+      Path temporary = Files.createTempFile(file.getParent(), "tile", ".tmp");
+      Files.write(temporary, tile);
+      Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Could not save tile " + file, e);
+    }
+  }
+
+  /** Bytes of tiles held in memory. */
+  public synchronized long getBytes() {
+    return bytes;
+  }
+
+  private synchronized void putInMemory(String key, byte[] tile) {
+    if (tile.length > maxBytes) {
+      return;
+    }
+    byte[] replaced = tiles.put(key, tile);
+    bytes += tile.length - (replaced == null ? 0 : replaced.length);
+    Iterator<Map.Entry<String, byte[]>> eldest = tiles.entrySet().iterator();
+    while (bytes > maxBytes) {
+      bytes -= eldest.next().getValue().length;
+      eldest.remove();
+    }
+  }
+
+  private static String key(int zoom, int x, int y) {
+    return zoom + "/" + x + "/" + y + ".png";
+  }
+}
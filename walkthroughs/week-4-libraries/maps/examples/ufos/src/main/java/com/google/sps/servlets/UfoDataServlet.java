@@ -14,45 +14,214 @@
 
 package com.google.sps.servlets;
 
-import com.google.sps.data.UfoSighting;
 import com.google.gson.Gson;
+import com.google.sps.data.BoundingBox;
+import com.google.sps.data.Cluster;
+import com.google.sps.data.ClusterPyramid;
+import com.google.sps.data.CompactCoordinates;
+import com.google.sps.data.LruCache;
+import com.google.sps.data.PointStore;
+import com.google.sps.data.SightingPoints;
+import com.google.sps.data.UfoSighting;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Scanner;
+import java.util.List;
+import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-/** Returns UFO data as a JSON array, e.g. [{"lat": 38.4404675, "lng": -122.7144313}] */
+/**
+ * Returns UFO data as a JSON array, e.g. [{"lat": 38.4404675, "lng": -122.7144313}], or in the
+ * CompactCoordinates format to clients that accept it.
+ *
+ * <p>With zoom and bbox parameters, returns only the sightings in the viewport, with nearby
+ * sightings merged into clusters for that zoom level, e.g. [{"lat": 38.4, "lng": -122.7,
+ * "count": 12}, {"lat": 37.1, "lng": -121.9}]. The response is assembled from map tiles whose
+ * contents are cached, so its size depends on the viewport rather than the size of the data.
+ */
 @WebServlet("/ufo-data")
 public class UfoDataServlet extends HttpServlet {
 
-  private Collection<UfoSighting> ufoSightings;
+  private static final String DATA_FILE = "/WEB-INF/ufo-data.csv";
+  private static final String ZOOM_PARAMETER = "zoom";
+  private static final String BBOX_PARAMETER = "bbox";
+  /** Deepest zoom accepted; clusters stop changing at ClusterPyramid.MAX_ZOOM. */
+  private static final int MAX_TILE_ZOOM = 22;
+  /**
+   * Most tiles one request may cover. An 8K viewport, 7680 by 4320 pixels, overlaps at most 31
+   * by 18 tiles of 256 pixels at any zoom.
+   */
+  private static final int MAX_TILES = 1024;
+  private static final int TILE_CACHE_SIZE = 4096;
+  private static final Gson gson = new Gson();
 
-  @Override
-  public void init() {
-    ufoSightings = new ArrayList<>();
+  /** Every sighting, kept off the heap and streamed from there for full responses. */
+  private PointStore sightings;
+
+  /** Sightings clustered for each zoom level up to ClusterPyramid.MAX_ZOOM. */
+  private ClusterPyramid clusters;
 
-    Scanner scanner = new Scanner(getServletContext().getResourceAsStream("/WEB-INF/ufo-data.csv"));
-    while (scanner.hasNextLine()) {
-      String line = scanner.nextLine();
-      String[] cells = line.split(",");
+  /** Contents of recently requested tiles, by tileKey. */
+  private final LruCache<Long, Tile> tileCache = new LruCache<>(TILE_CACHE_SIZE);
 
-      double lat = Double.parseDouble(cells[0]);
-      double lng = Double.parseDouble(cells[1]);
+  /**
+   * The clusters and single sightings in one tile, as a JSON array body without brackets and
+   * as a CompactCoordinates block: cluster coordinates, cluster counts as varints, then the
+   * coordinates of the single sightings.
+   */
+  private static class Tile {
+    private final byte[] json;
+    private final byte[] compact;
 
-      ufoSightings.add(new UfoSighting(lat, lng));
+    private Tile(byte[] json, byte[] compact) {
+      this.json = json;
+      this.compact = compact;
+    }
+  }
+
+  @Override
+  public void init() throws ServletException {
+    try {
+      sightings = SightingPoints.get(getServletContext(), DATA_FILE).getPoints();
+    } catch (IOException e) {
+      throw new ServletException("Could not read " + DATA_FILE, e);
     }
-    scanner.close();
+    clusters = new ClusterPyramid(sightings);
   }
 
   @Override
   public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
-    response.setContentType("application/json");
-    Gson gson = new Gson();
-    String json = gson.toJson(ufoSightings);
-    response.getWriter().println(json);
+    response.addHeader("Vary", "Accept");
+    boolean compact = CompactCoordinates.isAcceptedBy(request.getHeader("Accept"));
+    String zoomParam = request.getParameter(ZOOM_PARAMETER);
+    String bboxParam = request.getParameter(BBOX_PARAMETER);
+    if (zoomParam == null && bboxParam == null) {
+      response.setContentType(compact ? CompactCoordinates.MEDIA_TYPE : "application/json");
+      OutputStream out = new BufferedOutputStream(response.getOutputStream());
+      if (compact) {
+        CompactCoordinates.write(sightings, null, sightings.size(), out);
+      } else {
+        writeJson(sightings, out);
+      }
+      out.flush();
+      return;
+    }
+
+    int zoom;
+    BoundingBox bbox;
+    try {
+      zoom = Integer.parseInt(zoomParam);
+      bbox = BoundingBox.parse(bboxParam);
+    } catch (IllegalArgumentException | NullPointerException e) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+          "zoom and bbox=south,west,north,east are both required");
+      return;
+    }
+    zoom = Math.max(0, Math.min(MAX_TILE_ZOOM, zoom));
+
+    int tiles = 1 << zoom;
+    int left = ClusterPyramid.tileX(zoom, bbox.getWest());
+    int right = ClusterPyramid.tileX(zoom, bbox.getEast());
+    int top = ClusterPyramid.tileY(zoom, bbox.getNorth());
+    int bottom = ClusterPyramid.tileY(zoom, bbox.getSouth());
+    // A viewport crossing the antimeridian wraps around to the first column.
+    int columns = left <= right ? right - left + 1 : tiles - left + right + 1;
+    int rows = bottom - top + 1;
+    if ((long) columns * rows > MAX_TILES) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+          "bbox covers more than " + MAX_TILES + " tiles at zoom " + zoom);
+      return;
+    }
+
+    response.setContentType(compact ? CompactCoordinates.MEDIA_TYPE : "application/json");
+    OutputStream out = response.getOutputStream();
+    if (!compact) {
+      out.write('[');
+    }
+    boolean first = true;
+    for (int column = 0; column < columns; column++) {
+      for (int y = top; y <= bottom; y++) {
+        Tile tile = getTile(zoom, (left + column) % tiles, y);
+        if (compact) {
+          out.write(tile.compact);
+        } else if (tile.json.length > 0) {
+          if (!first) {
+            out.write(',');
+          }
+          out.write(tile.json);
+          first = false;
+        }
+      }
+    }
+    if (!compact) {
+      out.write(']');
+    }
+  }
+
+  /** Writes every sighting as a JSON array, matching what Gson writes for UfoSighting. */
+  private static void writeJson(PointStore sightings, OutputStream out) throws IOException {
+    out.write('[');
+    for (int i = 0; i < sightings.size(); i++) {
+      String sighting = "{\"lat\":" + sightings.getLat(i) + ",\"lng\":" + sightings.getLng(i) + "}";
+      if (i > 0) {
+        out.write(',');
+      }
+      out.write(sighting.getBytes(StandardCharsets.US_ASCII));
+    }
+    out.write(']');
+  }
+
+  /** Returns the contents of tile (x, y) at zoom, building and caching them on first use. */
+  private Tile getTile(int zoom, int x, int y) throws IOException {
+    long key = ((long) zoom << 58) | ((long) x << 29) | y;
+    Tile tile = tileCache.get(key);
+    if (tile != null) {
+      return tile;
+    }
+
+    List<Cluster> groups = new ArrayList<>();
+    List<UfoSighting> singles = new ArrayList<>();
+    clusters.searchTile(zoom, x, y, (lat, lng, count, point) -> {
+      if (count == 1) {
+        singles.add(new UfoSighting(lat, lng));
+      } else {
+        groups.add(new Cluster(lat, lng, count));
+      }
+    });
+
+    List<Object> items = new ArrayList<>(groups);
+    items.addAll(singles);
+    String json = gson.toJson(items);
+    // Strip the brackets so tiles can be joined into one array.
+    json = json.substring(1, json.length() - 1);
+
+    double[] groupLats = new double[groups.size()];
+    double[] groupLngs = new double[groups.size()];
+    for (int i = 0; i < groups.size(); i++) {
+      groupLats[i] = groups.get(i).getLat();
+      groupLngs[i] = groups.get(i).getLng();
+    }
+    double[] singleLats = new double[singles.size()];
+    double[] singleLngs = new double[singles.size()];
+    for (int i = 0; i < singles.size(); i++) {
+      singleLats[i] = singles.get(i).getLat();
+      singleLngs[i] = singles.get(i).getLng();
+    }
+    ByteArrayOutputStream compact = new ByteArrayOutputStream();
+    CompactCoordinates.write(groupLats, groupLngs, compact);
+    for (Cluster group : groups) {
+      CompactCoordinates.writeVarint(group.getCount(), compact);
+    }
+    CompactCoordinates.write(singleLats, singleLngs, compact);
+
+    tile = new Tile(json.getBytes(StandardCharsets.UTF_8), compact.toByteArray());
+    tileCache.put(key, tile);
+    return tile;
   }
 }
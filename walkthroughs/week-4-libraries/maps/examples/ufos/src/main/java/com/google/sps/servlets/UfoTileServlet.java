@@ -0,0 +1,114 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.sps.data.HeatmapRenderer;
+import com.google.sps.data.SightingPoints;
+import com.google.sps.data.TileBucketIndex;
+import com.google.sps.data.TileCache;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ForkJoinPool;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Serves heatmap tiles of UFO sighting density at /ufo-tiles/{zoom}/{x}/{y}.png, for use as a
+ * Maps API ImageMapType overlay. Tiles are rendered on first request and cached in memory, and
+ * those up to zoom MAX_DISK_ZOOM also on disk, in the directory named by the ufo.tiles.dir
+ * system property. That directory must be on persistent storage for the disk cache to survive
+ * restarts. The default, under the temporary directory, is lost with the instance, and on App
+ * Engine it is in memory, so it counts against the instance's memory limit.
+ */
+@WebServlet("/ufo-tiles/*")
+public class UfoTileServlet extends HttpServlet {
+  private static final String DATA_FILE = "/WEB-INF/ufo-data.csv";
+  private static final Pattern TILE_PATH =
+      Pattern.compile("/(\\d{1,2})/(\\d{1,8})/(\\d{1,8})\\.png");
+  private static final int MAX_ZOOM = 22;
+  private static final long MEMORY_CACHE_BYTES = 32L << 20;
+  private static final String CACHE_DIR_PROPERTY = "ufo.tiles.dir";
+  /** Deepest zoom saved on disk; tiles multiply fourfold per zoom, so deeper ones are not. */
+  private static final int MAX_DISK_ZOOM = Integer.getInteger("ufo.tiles.max.disk.zoom", 10);
+  /** Change whenever tiles are rendered differently, so old cached tiles are not served. */
+  private static final int RENDER_VERSION = 1;
+  private static final byte[] EMPTY_TILE = HeatmapRenderer.emptyTile();
+
+  private ForkJoinPool pool;
+  private HeatmapRenderer renderer;
+  private TileCache cache;
+
+  @Override
+  public void init() throws ServletException {
+    SightingPoints points;
+    try {
+      points = SightingPoints.get(getServletContext(), DATA_FILE);
+    } catch (IOException e) {
+      throw new ServletException("Could not read " + DATA_FILE, e);
+    }
+    pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    renderer = new HeatmapRenderer(new TileBucketIndex(points.getPoints()), pool);
+
+    // Tiles on disk are kept per version of the data and of the rendering.
+    String defaultDirectory =
+        Paths.get(System.getProperty("java.io.tmpdir"), "ufo-tiles").toString();
+    Path base = Paths.get(System.getProperty(CACHE_DIR_PROPERTY, defaultDirectory));
+    cache = new TileCache(MEMORY_CACHE_BYTES,
+        base.resolve(Long.toHexString(points.getChecksum()) + "-v" + RENDER_VERSION),
+        MAX_DISK_ZOOM);
+  }
+
+  @Override
+  public void destroy() {
+    pool.shutdown();
+  }
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    Matcher matcher = TILE_PATH.matcher(String.valueOf(request.getPathInfo()));
+    if (!matcher.matches()) {
+      response.sendError(HttpServletResponse.SC_NOT_FOUND);
+      return;
+    }
+    int zoom = Integer.parseInt(matcher.group(1));
+    int x = Integer.parseInt(matcher.group(2));
+    int y = Integer.parseInt(matcher.group(3));
+    if (zoom > MAX_ZOOM || x >= 1 << zoom || y >= 1 << zoom) {
+      response.sendError(HttpServletResponse.SC_NOT_FOUND);
+      return;
+    }
+
+    byte[] tile = cache.get(zoom, x, y);
+    if (tile == null) {
+      tile = renderer.render(zoom, x, y);
+      if (tile == null) {
+        // Nothing near this tile; empty tiles are not worth caching.
+        tile = EMPTY_TILE;
+      } else {
+        cache.put(zoom, x, y, tile);
+      }
+    }
+    response.setContentType("image/png");
+    response.setHeader("Cache-Control", "public, max-age=3600");
+    response.setContentLength(tile.length);
+    response.getOutputStream().write(tile);
+  }
+}
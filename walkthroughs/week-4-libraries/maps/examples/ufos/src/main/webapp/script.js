@@ -12,16 +12,139 @@
 // See the License for the specific language governing permissions and
 // limitations under the License.
 
-/** Fetches UFO sightings data from the server and displays it in a map. */
+const COMPACT_TYPE = 'application/x-compact-coordinates';
+
+/** Fixed-point scale of coordinates in the compact format. */
+const COORDINATE_SCALE = 1e5;
+
+/** Markers currently on the map, replaced whenever the viewport changes. */
+let markers = [];
+
+/**
+ * Creates a map that shows the UFO sightings in view, clustered by the server
+ * for the current zoom level, over a heatmap of sighting density.
+ */
 function createUfoSightingsMap() {
-  fetch('/ufo-data').then(response => response.json()).then((ufoSightings) => {
-    const map = new google.maps.Map(
-        document.getElementById('map'),
-        {center: {lat: 35.78613674, lng: -119.4491591}, zoom: 7});
-
-    ufoSightings.forEach((ufoSighting) => {
-      new google.maps.Marker(
-          {position: {lat: ufoSighting.lat, lng: ufoSighting.lng}, map: map});
-    });
+  const map = new google.maps.Map(
+      document.getElementById('map'),
+      {center: {lat: 35.78613674, lng: -119.4491591}, zoom: 7});
+  map.overlayMapTypes.push(createHeatmapLayer());
+  map.addListener('idle', () => showSightings(map));
+}
+
+/** Creates a map layer of heatmap tiles rendered by the server. */
+function createHeatmapLayer() {
+  return new google.maps.ImageMapType({
+    getTileUrl: (coord, zoom) => {
+      const tiles = 1 << zoom;
+      if (coord.y < 0 || coord.y >= tiles) {
+        return null;
+      }
+      const x = ((coord.x % tiles) + tiles) % tiles;
+      return '/ufo-tiles/' + zoom + '/' + x + '/' + coord.y + '.png';
+    },
+    tileSize: new google.maps.Size(256, 256),
+    opacity: 0.7
   });
 }
+
+/** Fetches the sightings in the map's viewport and shows them as markers. */
+function showSightings(map) {
+  const url = '/ufo-data?zoom=' + map.getZoom() +
+      '&bbox=' + map.getBounds().toUrlValue();
+  fetch(url, {headers: {'Accept': COMPACT_TYPE}})
+      .then(readSightings)
+      .then((ufoSightings) => {
+        markers.forEach(marker => marker.setMap(null));
+        markers = ufoSightings.map((ufoSighting) => {
+          const marker = new google.maps.Marker({
+            position: {lat: ufoSighting.lat, lng: ufoSighting.lng},
+            map: map
+          });
+          if (ufoSighting.count) {
+            marker.setLabel(String(ufoSighting.count));
+            marker.addListener('click', () => {
+              map.setCenter(marker.getPosition());
+              map.setZoom(map.getZoom() + 2);
+            });
+          }
+          return marker;
+        });
+      })
+      .catch((error) => {
+        // Markers from the previous viewport would be misleading, so drop them.
+        markers.forEach(marker => marker.setMap(null));
+        markers = [];
+        console.error('Could not load sightings: ' + error.message);
+      });
+}
+
+/**
+ * Reads the sightings response, decoding the compact binary format when the
+ * server sent it and JSON otherwise. Throws if the request failed.
+ */
+function readSightings(response) {
+  if (!response.ok) {
+    throw new Error(response.status + ' ' + response.statusText);
+  }
+  const type = response.headers.get('Content-Type') || '';
+  if (!type.startsWith(COMPACT_TYPE)) {
+    return response.json();
+  }
+  return response.arrayBuffer().then(
+      buffer => decodeTiles(new Uint8Array(buffer)));
+}
+
+/**
+ * Decodes map tiles in the compact format. Each tile holds cluster
+ * coordinates, then cluster counts, then the coordinates of single sightings.
+ * Coordinates are a count, then every latitude and then every longitude as
+ * zigzag varint deltas in units of 1e-5 degrees. See CompactCoordinates.java.
+ */
+function decodeTiles(bytes) {
+  let position = 0;
+
+  function readVarint() {
+    let value = 0;
+    let scale = 1;
+    let byte;
+    do {
+      byte = bytes[position++];
+      value += (byte & 0x7f) * scale;
+      scale *= 128;
+    } while (byte & 0x80);
+    return value;
+  }
+
+  function readColumn(count) {
+    const column = new Float64Array(count);
+    let value = 0;
+    for (let i = 0; i < count; i++) {
+      const zigzag = readVarint();
+      value += zigzag % 2 ? -(zigzag + 1) / 2 : zigzag / 2;
+      column[i] = value / COORDINATE_SCALE;
+    }
+    return column;
+  }
+
+  function readCoordinates() {
+    const count = readVarint();
+    const lats = readColumn(count);
+    const lngs = readColumn(count);
+    const points = [];
+    for (let i = 0; i < count; i++) {
+      points.push({lat: lats[i], lng: lngs[i]});
+    }
+    return points;
+  }
+
+  const sightings = [];
+  while (position < bytes.length) {
+    const clusters = readCoordinates();
+    clusters.forEach((cluster) => {
+      cluster.count = readVarint();
+    });
+    sightings.push(...clusters, ...readCoordinates());
+  }
+  return sightings;
+}
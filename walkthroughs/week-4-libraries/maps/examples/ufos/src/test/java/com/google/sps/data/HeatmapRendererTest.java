@@ -0,0 +1,82 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+import javax.imageio.ImageIO;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class HeatmapRendererTest {
+  private final ForkJoinPool pool = new ForkJoinPool(2);
+
+  @After
+  public void shutDownPool() {
+    pool.shutdown();
+  }
+
+  @Test
+  public void rendersTileContainingPoint() throws IOException {
+    // Tile (4, 4) at zoom 10 spans x and y from 4/1024 to 5/1024.
+    HeatmapRenderer renderer = renderer(4.5 / 1024, 4.5 / 1024);
+    BufferedImage image = ImageIO.read(new ByteArrayInputStream(renderer.render(10, 4, 4)));
+    Assert.assertEquals(HeatmapRenderer.TILE_PIXELS, image.getWidth());
+    Assert.assertEquals(HeatmapRenderer.TILE_PIXELS, image.getHeight());
+  }
+
+  @Test
+  public void skipsTileWithPointsOnlyOutsideMargin() {
+    // Buckets at zoom 8 span four zoom 10 tiles, so this point shares a bucket with tile (4, 4)
+    // but lies far outside its margin.
+    HeatmapRenderer renderer = renderer(7.5 / 1024, 7.5 / 1024);
+    Assert.assertNull(renderer.render(10, 4, 4));
+    Assert.assertNotNull(renderer.render(10, 7, 7));
+  }
+
+  @Test
+  public void skipsTileInEmptyBuckets() {
+    HeatmapRenderer renderer = renderer(0.5, 0.5);
+    Assert.assertNull(renderer.render(10, 4, 4));
+  }
+
+  @Test
+  public void rendersPointAcrossAntimeridian() {
+    // A point just west of the antimeridian blurs into the margin of the westernmost tile.
+    HeatmapRenderer renderer = renderer(1 - 0.01 / 1024, 4.5 / 1024);
+    Assert.assertNotNull(renderer.render(10, 0, 4));
+  }
+
+  @Test
+  public void emptyTileIsTransparentPng() throws IOException {
+    BufferedImage image = ImageIO.read(new ByteArrayInputStream(HeatmapRenderer.emptyTile()));
+    Assert.assertEquals(HeatmapRenderer.TILE_PIXELS, image.getWidth());
+    Assert.assertEquals(0, image.getRGB(0, 0) >>> 24);
+  }
+
+  /** Renders one point at Web Mercator (x, y). */
+  private HeatmapRenderer renderer(double x, double y) {
+    double lat = Math.toDegrees(Math.atan(Math.sinh(Math.PI * (1 - 2 * y))));
+    double lng = x * 360 - 180;
+    PointStore store = new PointStore.Builder(0, false).add(lat, lng).build();
+    return new HeatmapRenderer(new TileBucketIndex(store), pool);
+  }
+}
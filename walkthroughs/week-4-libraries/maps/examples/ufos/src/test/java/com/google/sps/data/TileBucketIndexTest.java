@@ -0,0 +1,117 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class TileBucketIndexTest {
+  @Test
+  public void searchMatchesBruteForce() {
+    Random random = new Random(1);
+    PointStore.Builder builder = new PointStore.Builder(0, false);
+    for (int i = 0; i < 5000; i++) {
+      builder.add(random.nextDouble() * 170 - 85, random.nextDouble() * 360 - 180);
+    }
+    // Points on the edges and corners of the map.
+    builder.add(0, -180).add(0, 179.999999).add(85.05112878, 0).add(-85.05112878, 0);
+    builder.add(89, -180).add(-89, 179.999999);
+    PointStore store = builder.build();
+    TileBucketIndex index = new TileBucketIndex(store);
+
+    for (int rectangle = 0; rectangle < 500; rectangle++) {
+      double left;
+      double top;
+      double right;
+      double bottom;
+      if (rectangle % 5 == 0) {
+        // Reaches past the edges of the map, so is clipped.
+        left = random.nextDouble() * 0.4 - 0.2;
+        top = random.nextDouble() * 0.4 - 0.2;
+        right = 1 + random.nextDouble() * 0.4 - 0.2;
+        bottom = 1 + random.nextDouble() * 0.4 - 0.2;
+      } else {
+        double size = random.nextDouble() * (rectangle % 2 == 0 ? 0.01 : 0.3);
+        left = random.nextDouble();
+        top = random.nextDouble();
+        right = left + size;
+        bottom = top + size;
+      }
+      List<String> expected = bruteForce(store, left, top, right, bottom);
+      List<String> found = new ArrayList<>();
+      index.search(left, top, right, bottom, (x, y) -> found.add(x + "," + y));
+      Collections.sort(found);
+      Assert.assertEquals(expected, found);
+      if (!expected.isEmpty()) {
+        Assert.assertFalse(index.isEmpty(left, top, right, bottom));
+      }
+    }
+  }
+
+  @Test
+  public void searchFindsMapCorners() {
+    PointStore store = new PointStore.Builder(0, false)
+        .add(85.05112878, -180)
+        .add(-85.05112878, 179.999999)
+        .build();
+    TileBucketIndex index = new TileBucketIndex(store);
+    List<String> found = new ArrayList<>();
+    index.search(-1, -1, 2, 2, (x, y) -> found.add(x + "," + y));
+    Assert.assertEquals(2, found.size());
+    Assert.assertFalse(index.isEmpty(0, 0, 0.001, 0.001));
+    Assert.assertFalse(index.isEmpty(0.999, 0.999, 1, 1));
+    Assert.assertTrue(index.isEmpty(0.4, 0.4, 0.6, 0.6));
+  }
+
+  @Test
+  public void searchOutsideMapFindsNothing() {
+    PointStore store = new PointStore.Builder(0, false).add(0, -180).add(0, 179.999999).build();
+    TileBucketIndex index = new TileBucketIndex(store);
+    List<String> found = new ArrayList<>();
+    index.search(-0.5, 0, 0, 1, (x, y) -> found.add(x + "," + y));
+    index.search(1, 0, 1.5, 1, (x, y) -> found.add(x + "," + y));
+    Assert.assertTrue(found.isEmpty());
+    Assert.assertTrue(index.isEmpty(-0.5, 0, 0, 1));
+    Assert.assertTrue(index.isEmpty(1, 0, 1.5, 1));
+  }
+
+  @Test
+  public void emptyIndexIsEmpty() {
+    TileBucketIndex index = new TileBucketIndex(new PointStore.Builder(0, false).build());
+    Assert.assertTrue(index.isEmpty(0, 0, 1, 1));
+    index.search(0, 0, 1, 1, (x, y) -> Assert.fail());
+  }
+
+  private static List<String> bruteForce(PointStore store, double left, double top,
+      double right, double bottom) {
+    List<String> points = new ArrayList<>();
+    for (int i = 0; i < store.size(); i++) {
+      double x = ClusterPyramid.mercatorX(store.getLng(i));
+      double y = ClusterPyramid.mercatorY(store.getLat(i));
+      if (x >= left && x < right && y >= top && y < bottom) {
+        points.add(x + "," + y);
+      }
+    }
+    Collections.sort(points);
+    return points;
+  }
+}
@@ -0,0 +1,94 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class TileCacheTest {
+  private Path directory;
+
+  @Before
+  public void createDirectory() throws IOException {
+    directory = Files.createTempDirectory("tiles");
+  }
+
+  @After
+  public void deleteDirectory() throws IOException {
+    try (Stream<Path> files = Files.walk(directory)) {
+      files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+    }
+  }
+
+  @Test
+  public void evictsLeastRecentlyUsedByBytes() {
+    TileCache cache = new TileCache(100, null, 0);
+    cache.put(1, 0, 0, new byte[40]);
+    cache.put(1, 0, 1, new byte[40]);
+    Assert.assertEquals(80, cache.getBytes());
+
+    // Reading the first tile makes the second the least recently used.
+    Assert.assertNotNull(cache.get(1, 0, 0));
+    cache.put(1, 1, 0, new byte[40]);
+    Assert.assertEquals(80, cache.getBytes());
+    Assert.assertNotNull(cache.get(1, 0, 0));
+    Assert.assertNull(cache.get(1, 0, 1));
+    Assert.assertNotNull(cache.get(1, 1, 0));
+  }
+
+  @Test
+  public void replacingTileAdjustsBytes() {
+    TileCache cache = new TileCache(100, null, 0);
+    cache.put(2, 1, 1, new byte[30]);
+    cache.put(2, 1, 1, new byte[10]);
+    Assert.assertEquals(10, cache.getBytes());
+    Assert.assertEquals(10, cache.get(2, 1, 1).length);
+  }
+
+  @Test
+  public void doesNotKeepTileLargerThanCache() {
+    TileCache cache = new TileCache(100, null, 0);
+    cache.put(1, 0, 0, new byte[50]);
+    cache.put(1, 0, 1, new byte[101]);
+    Assert.assertEquals(50, cache.getBytes());
+    Assert.assertNull(cache.get(1, 0, 1));
+    Assert.assertNotNull(cache.get(1, 0, 0));
+  }
+
+  @Test
+  public void savesTilesUpToMaxDiskZoom() {
+    TileCache cache = new TileCache(1000, directory, 3);
+    byte[] shallow = {1, 2, 3};
+    cache.put(3, 5, 6, shallow);
+    cache.put(4, 5, 6, new byte[] {4, 5, 6});
+
+    TileCache reopened = new TileCache(1000, directory, 3);
+    Assert.assertEquals(0, reopened.getBytes());
+    Assert.assertArrayEquals(shallow, reopened.get(3, 5, 6));
+    Assert.assertEquals(shallow.length, reopened.getBytes());
+    Assert.assertNull(reopened.get(4, 5, 6));
+    Assert.assertFalse(Files.exists(directory.resolve("4")));
+  }
+}